@@ -26,9 +26,30 @@ android {
     }
     kotlinOptions { jvmTarget = "17" }
 
-    buildFeatures { compose = true }
+    buildFeatures {
+        compose = true
+        buildConfig = true // BuildConfig.DEBUG gates HTTP logging
+    }
 
     packaging { resources { excludes += "/META-INF/{AL2.0,LGPL2.1}" } }
+
+    // JVM (Robolectric) tests need merged resources/manifest; no emulator required.
+    // The database benchmark only runs with -PdbBench (e.g. ./gradlew testDebugUnitTest -PdbBench),
+    // alone and with the heap its 500k rows need; a plain test run skips it.
+    testOptions {
+        unitTests {
+            isIncludeAndroidResources = true
+            all { test ->
+                if (project.hasProperty("dbBench")) {
+                    test.filter.includeTestsMatching("*.DatabasePerformanceTest")
+                    test.maxHeapSize = "3g"
+                    test.outputs.upToDateWhen { false }
+                } else {
+                    test.exclude("**/DatabasePerformanceTest*")
+                }
+            }
+        }
+    }
 }
 
 dependencies {
@@ -52,12 +73,18 @@ dependencies {
 
     // JSON & Coroutines
     implementation("org.jetbrains.kotlinx:kotlinx-serialization-json:1.7.1")
+    implementation("org.jetbrains.kotlinx:kotlinx-serialization-protobuf:1.7.1")
+    implementation("org.jetbrains.kotlinx:kotlinx-collections-immutable:0.3.7")
     implementation("org.jetbrains.kotlinx:kotlinx-coroutines-android:1.8.1")
 
     // Debug/test (optional)
     debugImplementation("androidx.compose.ui:ui-tooling")
     debugImplementation("androidx.compose.ui:ui-test-manifest")
     testImplementation("junit:junit:4.13.2")
+    testImplementation("org.robolectric:robolectric:4.13")
+    testImplementation("androidx.test:core-ktx:1.6.1")
+    testImplementation("org.jetbrains.kotlinx:kotlinx-coroutines-test:1.8.1")
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.12.0")
     androidTestImplementation("androidx.test.ext:junit:1.2.1")
     androidTestImplementation("androidx.test.espresso:espresso-core:3.6.1")
     androidTestImplementation("androidx.compose.ui:ui-test-junit4")
@@ -73,9 +100,8 @@ dependencies {
     implementation("com.squareup.okhttp3:logging-interceptor:4.12.0")
 
     implementation("com.squareup.retrofit2:retrofit:2.11.0")
-    implementation("com.squareup.retrofit2:converter-gson:2.11.0")
-
-    implementation("com.google.code.gson:gson:2.11.0")
+    // kotlinx.serialization codecs (generated, no reflection) instead of Gson
+    implementation("com.squareup.retrofit2:converter-kotlinx-serialization:2.11.0")
     // Material icons (gives you Icons.Filled.Analytics/Assessment/CalendarMonth/etc.)
     implementation("androidx.compose.material:material-icons-extended")
 
@@ -87,4 +113,7 @@ dependencies {
     implementation("androidx.room:room-ktx:2.6.1")
     ksp("androidx.room:room-compiler:2.6.1")
     implementation("androidx.biometric:biometric:1.1.0")
+
+    // App Startup (pre-opens the database before the first Activity)
+    implementation("androidx.startup:startup-runtime:1.1.1")
 }
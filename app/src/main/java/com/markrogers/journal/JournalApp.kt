@@ -1,5 +1,21 @@
 package com.markrogers.journal
 
 import android.app.Application
+import com.markrogers.journal.data.cache.CacheGovernor
 
-class JournalApp : Application()
+class JournalApp : Application() {
+    override fun onCreate() {
+        super.onCreate()
+        CacheGovernor.initialize(this)
+    }
+
+    override fun onTrimMemory(level: Int) {
+        super.onTrimMemory(level)
+        CacheGovernor.onTrimMemory(level)
+    }
+
+    override fun onLowMemory() {
+        super.onLowMemory()
+        CacheGovernor.clearAll()
+    }
+}
@@ -0,0 +1,25 @@
+package com.markrogers.journal
+
+import android.content.Context
+import androidx.startup.Initializer
+import com.markrogers.journal.data.db.AppDatabase
+import com.markrogers.journal.data.repo.InMemoryRepository
+import kotlin.concurrent.thread
+
+/**
+ * Runs before the first Activity (via androidx.startup's InitializationProvider).
+ * On a background thread it loads the timeline snapshot into [InMemoryRepository] and
+ * opens the database, so both are warm by the time AppRoot composes.
+ */
+class JournalInitializer : Initializer<Unit> {
+    override fun create(context: Context) {
+        val app = context.applicationContext
+        thread(name = "journal-init", priority = Thread.NORM_PRIORITY) {
+            InMemoryRepository.initialize(app)
+            // Room opens lazily; touching the helper runs open + migrations now instead of on first query
+            AppDatabase.get(app).openHelper.writableDatabase
+        }
+    }
+
+    override fun dependencies(): List<Class<out Initializer<*>>> = emptyList()
+}
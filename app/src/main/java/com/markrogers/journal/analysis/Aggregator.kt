@@ -0,0 +1,291 @@
+package com.markrogers.journal.analysis
+
+import com.markrogers.journal.data.model.Habits
+import com.markrogers.journal.data.model.JournalEntry
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.withContext
+import java.time.LocalDate
+import java.time.ZoneId
+import java.util.SortedMap
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sqrt
+
+/**
+ * Chunked, parallel folds over time-sorted data.
+ * - [fold] splits the list into contiguous chunks, folds each into its own partial on
+ *   Dispatchers.Default and merges the partials in list order, so work scales with cores.
+ * - Partials must be mergeable: merge(fold(a), fold(b)) == fold(a + b). [Stats], [ModeSketch],
+ *   [CoMoments] and [DayStats] are.
+ * - Small inputs are folded inline; a coroutine per chunk only pays off past [MIN_CHUNK] items.
+ */
+object Aggregator {
+    private const val MIN_CHUNK = 1_024
+    private const val CHUNKS_PER_CORE = 4 // uneven chunks (busy days) still balance
+
+    suspend fun <T, P> fold(
+        items: List<T>,
+        newPartial: () -> P,
+        add: (P, T) -> Unit,
+        merge: (P, P) -> P
+    ): P = withContext(Dispatchers.Default) {
+        val cores = Runtime.getRuntime().availableProcessors()
+        if (items.size <= MIN_CHUNK || cores == 1) {
+            newPartial().also { p -> items.forEach { add(p, it) } }
+        } else {
+            val chunk = max(MIN_CHUNK, (items.size + cores * CHUNKS_PER_CORE - 1) / (cores * CHUNKS_PER_CORE))
+            (items.indices step chunk).map { from ->
+                async {
+                    val p = newPartial()
+                    for (i in from until min(from + chunk, items.size)) add(p, items[i])
+                    p
+                }
+            }.awaitAll().reduce(merge)
+        }
+    }
+}
+
+/** count, sum, sum of squares, min and max of a stream of numbers. */
+class Stats {
+    var count = 0L
+        private set
+    var sum = 0.0
+        private set
+    var sumSq = 0.0
+        private set
+    var min = Double.POSITIVE_INFINITY
+        private set
+    var max = Double.NEGATIVE_INFINITY
+        private set
+
+    fun add(x: Double) {
+        count++
+        sum += x
+        sumSq += x * x
+        if (x < min) min = x
+        if (x > max) max = x
+    }
+
+    fun merge(o: Stats): Stats {
+        count += o.count
+        sum += o.sum
+        sumSq += o.sumSq
+        min = min(min, o.min)
+        max = max(max, o.max)
+        return this
+    }
+
+    val mean: Double? get() = if (count == 0L) null else sum / count
+
+    /** Population standard deviation. */
+    val stdDev: Double?
+        get() {
+            val m = mean ?: return null
+            return sqrt(max(0.0, sumSq / count - m * m))
+        }
+}
+
+/**
+ * Most frequent keys, Misra–Gries style: at most [k] counters, exact while there are no more than
+ * [k] distinct keys (mood ratings, rounded hours), otherwise every key seen more than n / (k + 1)
+ * times is kept. Merging adds the counters, then trims back to [k].
+ */
+class ModeSketch(private val k: Int = 16) {
+    private val counts = HashMap<Long, Long>()
+
+    fun add(key: Long) {
+        val c = counts[key]
+        when {
+            c != null -> counts[key] = c + 1
+            counts.size < k -> counts[key] = 1
+            else -> {
+                // No room: one of everything goes, including the new key
+                val it = counts.entries.iterator()
+                while (it.hasNext()) {
+                    val e = it.next()
+                    if (e.value == 1L) it.remove() else e.setValue(e.value - 1)
+                }
+            }
+        }
+    }
+
+    fun merge(o: ModeSketch): ModeSketch {
+        o.counts.forEach { (key, c) -> counts.merge(key, c, Long::plus) }
+        if (counts.size > k) {
+            val cut = counts.values.sortedDescending()[k] // (k+1)-th largest
+            val it = counts.entries.iterator()
+            while (it.hasNext()) {
+                val e = it.next()
+                if (e.value <= cut) it.remove() else e.setValue(e.value - cut)
+            }
+        }
+        return this
+    }
+
+    /** The most frequent key (smallest on a tie), or null when nothing was added. */
+    fun mode(): Long? = counts.entries.maxWithOrNull(compareBy<Map.Entry<Long, Long>> { it.value }.thenByDescending { it.key })?.key
+}
+
+/** Sums for a Pearson correlation between paired x and y. */
+class CoMoments {
+    private var n = 0L
+    private var sx = 0.0
+    private var sy = 0.0
+    private var sxx = 0.0
+    private var syy = 0.0
+    private var sxy = 0.0
+
+    val count: Long get() = n
+
+    fun add(x: Double, y: Double) {
+        n++; sx += x; sy += y; sxx += x * x; syy += y * y; sxy += x * y
+    }
+
+    fun merge(o: CoMoments): CoMoments {
+        n += o.n; sx += o.sx; sy += o.sy; sxx += o.sxx; syy += o.syy; sxy += o.sxy
+        return this
+    }
+
+    /** Pearson r, or null with fewer than [minPairs] pairs or no spread. */
+    fun pearson(minPairs: Int = 3): Double? {
+        if (n < minPairs) return null
+        val cov = sxy - sx * sy / n
+        val vx = sxx - sx * sx / n
+        val vy = syy - sy * sy / n
+        return if (vx <= 0.0 || vy <= 0.0) null else cov / sqrt(vx * vy)
+    }
+}
+
+/**
+ * One local day's partial: a day split across two chunks merges into the same result.
+ * Sleep is the latest non-zero value of the day by (createdAt, id), so neither list order nor
+ * which partial is merged into which can change it.
+ */
+class DayStats {
+    var entries = 0
+        private set
+    val mood = Stats()
+    var sleep = 0f
+        private set
+    private var sleepAt = Long.MIN_VALUE
+    private var sleepId = Long.MIN_VALUE
+    /** OR of the day's habit masks. */
+    var habitsAny = 0L
+        private set
+    /** Habits done, summed over the day's entries. */
+    var habitTotal = 0
+        private set
+    /** Per habit bit, how many entries have it; allocated on the first habit. */
+    var perBit: IntArray? = null
+        private set
+
+    fun add(e: JournalEntry, habitsMask: Long) {
+        entries++
+        e.moodRating?.let { mood.add(it.toDouble()) }
+        if (e.sleepHours > 0f && isAfterSleep(e.createdAt.epochSecond, e.id)) {
+            sleep = e.sleepHours
+            sleepAt = e.createdAt.epochSecond
+            sleepId = e.id
+        }
+        var bits = e.habitMask and habitsMask
+        if (bits == 0L) return
+        habitsAny = habitsAny or bits
+        habitTotal += bits.countOneBits()
+        val counts = perBit ?: IntArray(Habits.MAX).also { perBit = it }
+        while (bits != 0L) {
+            counts[bits.countTrailingZeroBits()]++
+            bits = bits and (bits - 1) // clear lowest set bit
+        }
+    }
+
+    fun merge(o: DayStats): DayStats {
+        entries += o.entries
+        mood.merge(o.mood)
+        if (o.sleep > 0f && isAfterSleep(o.sleepAt, o.sleepId)) {
+            sleep = o.sleep
+            sleepAt = o.sleepAt
+            sleepId = o.sleepId
+        }
+        habitsAny = habitsAny or o.habitsAny
+        habitTotal += o.habitTotal
+        o.perBit?.let { theirs ->
+            val mine = perBit ?: IntArray(Habits.MAX).also { perBit = it }
+            for (i in theirs.indices) mine[i] += theirs[i]
+        }
+        return this
+    }
+
+    private fun isAfterSleep(at: Long, id: Long) = at > sleepAt || (at == sleepAt && id > sleepId)
+}
+
+/** Result of [EntryAggregates.summarize]. Sleep stats and the correlation are over days. */
+class EntrySummary(
+    val days: SortedMap<LocalDate, DayStats>,
+    val mood: Stats,
+    val moodMode: ModeSketch,
+    val sleep: Stats,
+    val sleepMood: CoMoments
+) {
+    /** Trailing [window]-day mean of the daily mood averages (calendar days, gaps skipped). */
+    fun rollingMood(window: Int): SortedMap<LocalDate, Double> {
+        val out = sortedMapOf<LocalDate, Double>()
+        val recent = ArrayDeque<Pair<LocalDate, Double>>()
+        var sum = 0.0
+        days.forEach { (d, s) ->
+            val m = s.mood.mean ?: return@forEach
+            recent.addLast(d to m)
+            sum += m
+            while (recent.first().first.plusDays(window.toLong()) <= d) sum -= recent.removeFirst().second
+            out[d] = sum / recent.size
+        }
+        return out
+    }
+}
+
+/** The query API over entries that Metrics and LocalInsightEngine share. */
+object EntryAggregates {
+    private class Partial {
+        val days = HashMap<LocalDate, DayStats>()
+        val mood = Stats()
+        val moodMode = ModeSketch()
+    }
+
+    /**
+     * Per-day and overall stats for [entries] (any order, newest first is fine), bucketed by local
+     * date in [zone]. Only habit bits in [habitsMask] count (deleted habits are ignored).
+     */
+    suspend fun summarize(
+        entries: List<JournalEntry>,
+        zone: ZoneId = ZoneId.systemDefault(),
+        habitsMask: Long = -1L
+    ): EntrySummary {
+        val p = Aggregator.fold(
+            entries,
+            newPartial = ::Partial,
+            add = { p, e ->
+                p.days.getOrPut(e.createdAt.atZone(zone).toLocalDate()) { DayStats() }.add(e, habitsMask)
+                e.moodRating?.let { p.mood.add(it.toDouble()); p.moodMode.add(it.toLong()) }
+            },
+            merge = { a, b ->
+                // Chunks are contiguous in time, so only boundary days collide
+                val (big, small) = if (a.days.size >= b.days.size) a to b else b to a
+                small.days.forEach { (d, s) -> big.days.merge(d, s, DayStats::merge) }
+                big.mood.merge(small.mood)
+                big.moodMode.merge(small.moodMode)
+                big
+            }
+        )
+        // Day-level stats need whole days, so they come after the merge (one pass over days, not entries)
+        val sleep = Stats()
+        val sleepMood = CoMoments()
+        p.days.values.forEach { d ->
+            if (d.sleep > 0f) {
+                sleep.add(d.sleep.toDouble())
+                d.mood.mean?.let { sleepMood.add(d.sleep.toDouble(), it) }
+            }
+        }
+        return EntrySummary(p.days.toSortedMap(), p.mood, p.moodMode, sleep, sleepMood)
+    }
+}
@@ -0,0 +1,140 @@
+package com.markrogers.journal.analysis
+
+import com.markrogers.journal.data.db.SummaryDao
+import com.markrogers.journal.data.db.SummaryEntity
+import com.markrogers.journal.data.model.JournalEntry
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.security.MessageDigest
+import java.time.DayOfWeek
+import java.time.LocalDate
+import java.time.ZoneId
+import java.time.temporal.IsoFields
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Hierarchical, persistent summaries on top of [SummarizationEngine].
+ * - Each day is summarized once and cached in `summaries`, keyed by a hash of that day's
+ *   entries plus [PROMPT_VERSION]; only days whose hash changed are sent again.
+ * - Finished weeks that lie wholly inside the window are rolled up from their day summaries
+ *   (also cached); the days of a week the window only partly covers go in one by one, so no
+ *   cached row ever holds part of a day or week.
+ * - The final answer combines week summaries and the current week's day summaries,
+ *   so adding one entry today costs one day request plus the final pass.
+ * - Cached days in the window that no longer have entries (and weeks no longer rolled up) are
+ *   deleted, so a summary never outlives the text it quotes.
+ */
+class IncrementalSummarizer(
+    private val engine: SummarizationEngine,
+    private val dao: SummaryDao,
+    private val maxConcurrency: Int = 4,
+    private val zone: ZoneId = ZoneId.systemDefault()
+) {
+    private class Work(val key: String, val hash: String, val compute: suspend () -> String)
+
+    /** Summary of the whole local days [from]..[today]; [entries] are that window's entries. */
+    fun summarize(entries: List<JournalEntry>, from: LocalDate, today: LocalDate = LocalDate.now(zone)): Flow<SummaryEvent> =
+        channelFlow {
+            val limit = Semaphore(maxConcurrency)
+            val byDay = entries.groupBy { it.createdAt.atZone(zone).toLocalDate() }
+                .filterKeys { !it.isBefore(from) && !it.isAfter(today) }
+                .toSortedMap()
+
+            val dayLines = byDay.mapValues { (_, list) -> list.sortedBy { it.createdAt }.map(engine::entryLine) }
+            val dayHashes = dayLines.mapValues { (_, lines) -> hash(lines) }
+            val days = resolve(
+                dayLines.keys.map { d -> Work(dayKey(d), dayHashes.getValue(d)) { engine.summarizeBatch(dayLines.getValue(d)) } },
+                limit, this
+            )
+
+            val thisWeek = today.with(DayOfWeek.MONDAY)
+            val (current, past) = byDay.keys.partition { !it.isBefore(thisWeek) }
+            val weeks = past.groupBy { it.with(DayOfWeek.MONDAY) }.toSortedMap()
+
+            // Only whole weeks are rolled up; single-day weeks just reuse the day summary.
+            val rollups = weeks.filter { (monday, ds) -> !monday.isBefore(from) && ds.size > 1 }
+            purge(from, today, byDay.keys, rollups.keys)
+            val weekSummaries = resolve(
+                rollups.map { (monday, ds) ->
+                    Work(weekKey(monday), hash(ds.map { dayHashes.getValue(it) })) {
+                        engine.summarizeBatch(ds.map { "$it: ${days.getValue(dayKey(it))}" })
+                    }
+                },
+                limit, this
+            )
+
+            val lines = weeks.flatMap { (monday, ds) ->
+                val rolled = weekSummaries[weekKey(monday)]
+                when {
+                    rolled != null -> listOf("Week of $monday: $rolled")
+                    !monday.isBefore(from) -> listOf("Week of $monday: ${days.getValue(dayKey(ds.single()))}")
+                    else -> ds.map { "$it: ${days.getValue(dayKey(it))}" } // the window's partial first week
+                }
+            } + current.map { "$it: ${days.getValue(dayKey(it))}" }
+
+            engine.summarizeLines(lines, SummarizationEngine.REDUCE_PREFIX + SummarizationEngine.FINAL_INSTRUCTION)
+                .collect { send(it) }
+        }
+
+    // Day rows for window days without entries, week rows for whole weeks that aren't rolled up
+    private suspend fun purge(from: LocalDate, today: LocalDate, withEntries: Set<LocalDate>, rolledUp: Set<LocalDate>) {
+        val stale = ArrayList<String>()
+        var d = from
+        while (!d.isAfter(today)) {
+            if (d !in withEntries) stale += dayKey(d)
+            if (d.dayOfWeek == DayOfWeek.MONDAY && d.plusDays(6).isBefore(today.with(DayOfWeek.MONDAY)) && d !in rolledUp) {
+                stale += weekKey(d)
+            }
+            d = d.plusDays(1)
+        }
+        if (stale.isNotEmpty()) dao.deleteAll(stale)
+    }
+
+    /** Cached summaries for [work], computing (and storing) only the misses. */
+    private suspend fun resolve(work: List<Work>, limit: Semaphore, out: SendChannel<SummaryEvent>): Map<String, String> {
+        if (work.isEmpty()) return emptyMap()
+        val cached = dao.getAll(work.map { it.key })
+            .filter { row -> row.promptVersion == PROMPT_VERSION && work.any { it.key == row.key && it.hash == row.contentHash } }
+            .associate { it.key to it.summary }
+        val misses = work.filter { it.key !in cached }
+        if (misses.isEmpty()) return cached
+
+        val done = AtomicInteger()
+        val fresh = coroutineScope {
+            misses.mapIndexed { i, w ->
+                async {
+                    val summary = limit.withPermit { w.compute() }
+                    out.send(SummaryEvent.ChunkDone(i, done.incrementAndGet(), misses.size, summary))
+                    SummaryEntity(w.key, w.hash, PROMPT_VERSION, summary)
+                }
+            }.awaitAll()
+        }
+        dao.upsertAll(fresh)
+        return cached + fresh.associate { it.key to it.summary }
+    }
+
+    companion object {
+        /** Bump when the day/week prompts change so old summaries are regenerated. */
+        const val PROMPT_VERSION = 1
+
+        /** Cached rows that quote [day]'s entries: the day and its week. */
+        fun keysFor(day: LocalDate): List<String> = listOf(dayKey(day), weekKey(day.with(DayOfWeek.MONDAY)))
+
+        private fun dayKey(d: LocalDate) = "day:$d"
+        private fun weekKey(monday: LocalDate) =
+            "week:${monday.get(IsoFields.WEEK_BASED_YEAR)}-W%02d".format(monday.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR))
+
+        private fun hash(parts: List<String>): String {
+            val md = MessageDigest.getInstance("SHA-256")
+            md.update(PROMPT_VERSION.toByte())
+            parts.forEach { md.update(it.toByteArray(Charsets.UTF_8)); md.update(0.toByte()) }
+            return md.digest().joinToString("") { "%02x".format(it) }
+        }
+    }
+}
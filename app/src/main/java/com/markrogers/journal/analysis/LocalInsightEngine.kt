@@ -0,0 +1,211 @@
+package com.markrogers.journal.analysis
+
+import com.markrogers.journal.data.model.Habit
+import com.markrogers.journal.data.model.Habits
+import com.markrogers.journal.data.model.JournalEntry
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.time.LocalDate
+import java.time.ZoneId
+import kotlin.math.ln
+
+/** Structured result of [LocalInsightEngine.analyze]. */
+data class InsightReport(
+    val entryCount: Int,
+    val dayCount: Int,
+    val keywords: List<Pair<String, Double>>,
+    val phrases: List<Pair<String, Int>>,
+    /** Lexicon sentiment per day in [-1, 1]; days without text are absent. */
+    val sentimentByDay: Map<LocalDate, Double>,
+    /** Pearson r between the day's sleep and mood, or null with fewer than 3 paired days. */
+    val sleepMoodCorrelation: Double?,
+    val streaks: List<Streak>,
+    val tookMillis: Long
+) {
+    data class Streak(val habit: String, val current: Int, val longest: Int)
+
+    fun toText(): String = buildString {
+        appendLine("On-device insights · $entryCount entries over $dayCount days (${tookMillis} ms)")
+        if (keywords.isNotEmpty()) {
+            appendLine()
+            appendLine("Keywords: " + keywords.joinToString(", ") { it.first })
+        }
+        if (phrases.isNotEmpty()) {
+            appendLine("Recurring phrases: " + phrases.joinToString(", ") { "\"${it.first}\" ×${it.second}" })
+        }
+        if (sentimentByDay.isNotEmpty()) {
+            val avg = sentimentByDay.values.average()
+            val best = sentimentByDay.maxByOrNull { it.value }!!
+            val worst = sentimentByDay.minByOrNull { it.value }!!
+            appendLine()
+            appendLine("Tone: " + when {
+                avg > 0.15 -> "mostly positive"
+                avg < -0.15 -> "mostly negative"
+                else -> "mixed / neutral"
+            } + " (avg ${"%.2f".format(avg)})")
+            if (best.key != worst.key) appendLine("Brightest day ${best.key}, hardest day ${worst.key}")
+        }
+        sleepMoodCorrelation?.let { r ->
+            appendLine()
+            appendLine("Sleep ↔ mood correlation: ${"%.2f".format(r)} " + when {
+                r > 0.3 -> "(more sleep tends to mean better mood)"
+                r < -0.3 -> "(more sleep tends to mean worse mood)"
+                else -> "(no clear link)"
+            })
+        }
+        if (streaks.isNotEmpty()) {
+            appendLine()
+            streaks.forEach { appendLine("${it.habit}: current streak ${it.current} d, longest ${it.longest} d") }
+        }
+    }
+}
+
+/**
+ * Offline insights: no network, no provider key.
+ * Keywords are TF-IDF with IDF taken from the window itself, so a tap only reads the indexed
+ * date range, never the whole journal or the archives; phrases are bi/tri-grams that recur
+ * across entries; sentiment is a small word lexicon; streaks count consecutive calendar days
+ * with a habit done. Everything is single-pass friendly and runs
+ * on Dispatchers.Default; the per-day numbers (sleep, mood, habits) and the document
+ * frequencies are chunked folds through [Aggregator], so multi-year windows use every core.
+ */
+object LocalInsightEngine {
+    suspend fun analyze(
+        window: List<JournalEntry>,
+        habits: List<Habit> = Habits.DEFAULTS,
+        zone: ZoneId = ZoneId.systemDefault(),
+        today: LocalDate = LocalDate.now(zone)
+    ): InsightReport = withContext(Dispatchers.Default) {
+        val t0 = System.nanoTime()
+        val summary = EntryAggregates.summarize(window, zone, habits.fold(0L) { m, h -> m or h.mask })
+        val byDay = window.groupBy { it.createdAt.atZone(zone).toLocalDate() }
+        val docs = window.map { tokenize("${it.title} ${it.body}") }
+        val tokens = window.indices.associate { window[it].id to docs[it] }
+        val df = documentFrequencies(docs)
+
+        InsightReport(
+            entryCount = window.size,
+            dayCount = summary.days.size,
+            keywords = keywords(docs, df, window.size),
+            phrases = phrases(docs),
+            sentimentByDay = byDay.mapNotNull { (d, list) ->
+                sentiment(list.flatMap { tokens.getValue(it.id) })?.let { d to it }
+            }.toMap().toSortedMap(),
+            sleepMoodCorrelation = summary.sleepMood.pearson(),
+            streaks = streaks(summary, today, habits),
+            tookMillis = (System.nanoTime() - t0) / 1_000_000
+        )
+    }
+
+    private val WORD = Regex("[^\\p{L}\\p{N}']+")
+
+    fun tokenize(text: String): List<String> =
+        text.lowercase().split(WORD).filter { it.length > 1 }
+
+    /** Document frequency across the window's entries so words in every entry sink. */
+    private suspend fun documentFrequencies(docs: List<List<String>>): Map<String, Int> =
+        Aggregator.fold(
+            docs,
+            newPartial = { HashMap<String, Int>() },
+            add = { df, doc -> doc.toHashSet().forEach { df.merge(it, 1, Int::plus) } },
+            merge = { a, b ->
+                val (big, small) = if (a.size >= b.size) a to b else b to a
+                small.forEach { (w, c) -> big.merge(w, c, Int::plus) }
+                big
+            }
+        )
+
+    private fun keywords(docs: List<List<String>>, df: Map<String, Int>, docCount: Int, top: Int = 8): List<Pair<String, Double>> {
+        val n = docCount.coerceAtLeast(1)
+
+        val score = HashMap<String, Double>()
+        docs.forEach { doc ->
+            if (doc.isEmpty()) return@forEach
+            val tf = doc.filter { it !in STOPWORDS }.groupingBy { it }.eachCount()
+            tf.forEach { (w, c) ->
+                val idf = ln((n + 1.0) / ((df[w] ?: 0) + 1.0)) + 1.0
+                score.merge(w, c.toDouble() / doc.size * idf, Double::plus)
+            }
+        }
+        return score.entries.sortedByDescending { it.value }.take(top).map { it.key to it.value }
+    }
+
+    private fun phrases(docs: List<List<String>>, minDocs: Int = 2, top: Int = 5): List<Pair<String, Int>> {
+        val counts = HashMap<String, Int>()
+        docs.forEach { doc ->
+            val seen = HashSet<String>()
+            for (n in 2..3) {
+                for (i in 0..doc.size - n) {
+                    val gram = doc.subList(i, i + n)
+                    if (gram.first() in STOPWORDS || gram.last() in STOPWORDS) continue
+                    seen += gram.joinToString(" ")
+                }
+            }
+            seen.forEach { counts.merge(it, 1, Int::plus) }
+        }
+        // Prefer longer phrases, then frequency; drop bigrams swallowed by a kept trigram.
+        val ranked = counts.filterValues { it >= minDocs }.entries
+            .sortedWith(compareByDescending<Map.Entry<String, Int>> { it.value }.thenByDescending { it.key.length })
+        val kept = mutableListOf<Pair<String, Int>>()
+        for (e in ranked) {
+            if (kept.none { it.first.contains(e.key) }) kept += e.key to e.value
+            if (kept.size == top) break
+        }
+        return kept
+    }
+
+    private fun sentiment(words: List<String>): Double? {
+        var pos = 0
+        var neg = 0
+        var negate = false
+        words.forEach { w ->
+            when {
+                w in NEGATORS -> { negate = true; return@forEach }
+                w in POSITIVE -> if (negate) neg++ else pos++
+                w in NEGATIVE -> if (negate) pos++ else neg++
+            }
+            negate = false
+        }
+        val hits = pos + neg
+        return if (hits == 0) null else (pos - neg).toDouble() / hits
+    }
+
+    private fun streaks(summary: EntrySummary, today: LocalDate, habits: List<Habit>): List<InsightReport.Streak> {
+        // Each day's masks are already OR-ed (DayStats.habitsAny); every habit is a bit test per day
+        val dayMasks = summary.days.filterValues { it.habitsAny != 0L }
+        return habits.mapNotNull { habit ->
+            val days = dayMasks.filterValues { it.habitsAny and habit.mask != 0L }.keys.toList()
+            if (days.isEmpty()) return@mapNotNull null
+            var longest = 1; var run = 1
+            for (i in 1 until days.size) {
+                run = if (days[i - 1].plusDays(1) == days[i]) run + 1 else 1
+                if (run > longest) longest = run
+            }
+            // A streak is still "current" if it reaches today or yesterday.
+            val last = days.last()
+            val current = if (last == today || last == today.minusDays(1)) run else 0
+            InsightReport.Streak(habit.name, current, longest)
+        }
+    }
+
+    private val STOPWORDS = setOf(
+        "the", "and", "a", "an", "to", "of", "in", "on", "for", "with", "at", "by", "from", "is", "it", "its",
+        "it's", "was", "were", "be", "been", "am", "are", "i", "i'm", "me", "my", "we", "our", "you", "your",
+        "he", "she", "they", "them", "his", "her", "their", "this", "that", "these", "those", "so", "but", "or",
+        "as", "if", "then", "than", "too", "very", "just", "about", "up", "out", "into", "over", "after",
+        "before", "again", "there", "here", "what", "which", "who", "when", "where", "why", "how", "all", "any",
+        "some", "more", "most", "no", "not", "only", "own", "same", "can", "will", "would", "should", "could",
+        "did", "do", "does", "doing", "had", "has", "have", "having", "get", "got", "today", "really", "also"
+    )
+    private val NEGATORS = setOf("not", "no", "never", "don't", "didn't", "isn't", "wasn't", "can't", "couldn't")
+    private val POSITIVE = setOf(
+        "good", "great", "happy", "calm", "love", "loved", "fun", "grateful", "thankful", "excited", "proud",
+        "relaxed", "peaceful", "productive", "rested", "energized", "awesome", "amazing", "nice", "better",
+        "best", "enjoyed", "glad", "hopeful", "content", "motivated", "focused", "strong", "win", "smile"
+    )
+    private val NEGATIVE = setOf(
+        "bad", "sad", "angry", "tired", "anxious", "stressed", "stress", "worried", "upset", "lonely", "sick",
+        "exhausted", "frustrated", "annoyed", "awful", "terrible", "worse", "worst", "hate", "hurt", "pain",
+        "overwhelmed", "depressed", "scared", "afraid", "bored", "guilty", "cry", "cried", "fight"
+    )
+}
@@ -0,0 +1,142 @@
+package com.markrogers.journal.analysis
+
+import com.markrogers.journal.data.model.JournalEntry
+import com.markrogers.journal.net.AiBackend
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.time.ZoneId
+import java.util.concurrent.atomic.AtomicInteger
+
+/** What [SummarizationEngine.summarize] reports while it works. */
+sealed interface SummaryEvent {
+    /** A map-phase chunk finished; [done] of [total] chunks are summarized. */
+    data class ChunkDone(val index: Int, val done: Int, val total: Int, val summary: String) : SummaryEvent
+    /** Next piece of the final answer. */
+    data class Delta(val text: String) : SummaryEvent
+}
+
+/**
+ * Token-budgeted map-reduce over journal entries.
+ * - Small windows go out as one streamed request, exactly like before.
+ * - Larger windows are packed (in time order) into chunks under [chunkTokens] and summarized
+ *   in parallel, at most [maxConcurrency] in flight; the partial summaries are then reduced
+ *   (recursively, if they still don't fit) and the final pass is streamed.
+ * - No request's lines exceed [chunkTokens]: a line too long for a chunk of its own is cut, and
+ *   partials too long to share a chunk are cut to half a chunk so the next round pairs them.
+ * - The streamed final pass goes through [finalBackend]: someone is watching it arrive, so it
+ *   shouldn't queue behind the batch fan-out's rate limit.
+ * Token counts are estimates (~4 chars/token), which is plenty for budgeting.
+ */
+class SummarizationEngine(
+    private val backend: AiBackend,
+    private val finalBackend: AiBackend = backend,
+    private val chunkTokens: Int = 3_000,
+    private val maxEntryTokens: Int = 600,
+    private val maxConcurrency: Int = 4
+) {
+    fun summarize(entries: List<JournalEntry>, instruction: String = FINAL_INSTRUCTION): Flow<SummaryEvent> =
+        summarizeLines(entries.sortedBy { it.createdAt }.map { entryLine(it) }, instruction)
+
+    /** Same pipeline over pre-rendered lines (entries or already-summarized days/weeks). */
+    fun summarizeLines(lines: List<String>, instruction: String = FINAL_INSTRUCTION): Flow<SummaryEvent> =
+        channelFlow {
+            val chunks = pack(lines)
+
+            if (chunks.size <= 1) {
+                finalBackend.stream(prompt(instruction, chunks.firstOrNull().orEmpty()))
+                    .collect { send(SummaryEvent.Delta(it)) }
+                return@channelFlow
+            }
+
+            val limit = Semaphore(maxConcurrency)
+            val done = AtomicInteger()
+            val partials = coroutineScope {
+                chunks.mapIndexed { i, chunk ->
+                    async {
+                        val summary = limit.withPermit { backend.complete(prompt(MAP_INSTRUCTION, chunk)) }
+                        send(SummaryEvent.ChunkDone(i, done.incrementAndGet(), chunks.size, summary))
+                        summary
+                    }
+                }.awaitAll()
+            }
+
+            val reduced = reduce(partials, limit)
+            finalBackend.stream(prompt(REDUCE_PREFIX + instruction, reduced))
+                .collect { send(SummaryEvent.Delta(it)) }
+        }
+
+    /** Collapses partial summaries until they fit in one chunk; every round at least halves them. */
+    private suspend fun reduce(partials: List<String>, limit: Semaphore): List<String> {
+        var level = partials
+        while (true) {
+            var packed = pack(level)
+            if (packed.size <= 1) return packed.firstOrNull().orEmpty()
+            if (packed.size == level.size) {
+                // No two partials fit together: cut each to half a chunk so they pack in pairs
+                packed = pack(level.map { fit(it, chunkTokens / 2) })
+            }
+            level = coroutineScope {
+                packed.map { chunk ->
+                    async { limit.withPermit { backend.complete(prompt(REDUCE_PREFIX + MAP_INSTRUCTION, chunk)) } }
+                }.awaitAll()
+            }
+        }
+    }
+
+    /** Greedy, order-preserving packing so each chunk stays under the budget. */
+    internal fun pack(lines: List<String>): List<List<String>> {
+        val chunks = mutableListOf<List<String>>()
+        var current = mutableListOf<String>()
+        var used = 0
+        for (raw in lines) {
+            val line = fit(raw, chunkTokens)
+            val cost = estimateTokens(line)
+            if (current.isNotEmpty() && used + cost > chunkTokens) {
+                chunks += current
+                current = mutableListOf()
+                used = 0
+            }
+            current += line
+            used += cost
+        }
+        if (current.isNotEmpty()) chunks += current
+        return chunks
+    }
+
+    // [line], cut (with an ellipsis) to at most [tokens] estimated tokens
+    private fun fit(line: String, tokens: Int): String =
+        if (estimateTokens(line) <= tokens) line
+        else line.take(maxOf(0, tokens - 2) * CHARS_PER_TOKEN) + "…"
+
+    /** Summary of one small batch (e.g. a single day) in one request. */
+    suspend fun summarizeBatch(lines: List<String>): String =
+        backend.complete(prompt(MAP_INSTRUCTION, lines))
+
+    fun entryLine(e: JournalEntry): String {
+        val ts = e.createdAt.atZone(ZoneId.systemDefault())
+        val line = "- [$ts] ${e.title}: ${e.body}"
+        val maxChars = maxEntryTokens * CHARS_PER_TOKEN
+        return if (line.length <= maxChars) line else line.take(maxChars) + "…"
+    }
+
+    private fun prompt(instruction: String, lines: List<String>) = buildString {
+        appendLine(instruction)
+        lines.forEach { appendLine(it) }
+    }
+
+    companion object {
+        private const val CHARS_PER_TOKEN = 4
+
+        const val FINAL_INSTRUCTION = "Summarize these journal entries and produce insights and 5 todos:"
+        private const val MAP_INSTRUCTION =
+            "Summarize these journal entries in a short paragraph, keeping notable events, moods, sleep and habits:"
+        const val REDUCE_PREFIX = "The following are summaries of consecutive parts of a journal. "
+
+        fun estimateTokens(text: String): Int = (text.length + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN + 1
+    }
+}
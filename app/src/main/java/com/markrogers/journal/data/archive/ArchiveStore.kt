@@ -0,0 +1,353 @@
+package com.markrogers.journal.data.archive
+
+import android.content.Context
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import com.markrogers.journal.data.db.EntryEntity
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.update
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.time.Instant
+import java.time.LocalDate
+import java.time.ZoneId
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+
+/**
+ * Cold storage: one SQLite file per year (`journal-archive-YYYY.db`) next to journal.db.
+ * - Files are ATTACHed on demand to a private in-memory connection, at most [MAX_ATTACHED]
+ *   at a time (least recently used is detached). Room pools its connections, and an ATTACH
+ *   only applies to the connection that ran it, so the archive never goes through Room.
+ * - Bodies are stored deflated (raw UTF-8 when that's smaller); tags travel as a CSV so
+ *   nothing is lost, but archived rows aren't in the tag index.
+ * - The toggleMask column holds EntryEntity.habitMask (named before habits existed).
+ * - Archived rows are read-only; JournalRepository merges them into range reads.
+ * - Years are local-time calendar years, the same bucketing the UI uses.
+ * - All access is serialized on this object; call from a background thread.
+ */
+class ArchiveStore private constructor(private val dir: File) {
+    private var conn: SQLiteDatabase? = null
+    private val attached = LinkedHashMap<Int, Unit>(16, 0.75f, true) // access order = LRU
+    private var knownYears: List<Int>? = null
+
+    // Last range read; Metrics re-reads the same range on every hot-table change.
+    private var memoKey: Triple<Long, Long, Long>? = null
+    private var memo: List<EntryEntity> = emptyList()
+
+    private val _generation = MutableStateFlow(0L)
+
+    /** Bumped whenever archived rows are added or cleared. */
+    val generation: StateFlow<Long> = _generation
+
+    @Synchronized
+    fun years(): List<Int> = knownYears ?: dir.listFiles().orEmpty()
+        .mapNotNull { FILE_NAME.matchEntire(it.name)?.groupValues?.get(1)?.toInt() }
+        .sorted()
+        .also { knownYears = it }
+
+    /** True if any archive file holds rows that could fall in [fromEpoch, untilEpoch). */
+    fun covers(fromEpoch: Long, untilEpoch: Long): Boolean = yearsIn(fromEpoch, untilEpoch).isNotEmpty()
+
+    /** Archived rows with createdAt in [fromEpoch, untilEpoch), newest first. */
+    @Synchronized
+    fun getBetween(fromEpoch: Long, untilEpoch: Long): List<EntryEntity> {
+        val years = yearsIn(fromEpoch, untilEpoch)
+        if (years.isEmpty()) return emptyList()
+        val key = Triple(fromEpoch, untilEpoch, _generation.value)
+        if (key == memoKey) return memo
+        val rows = query(years, "createdAt >= ? AND createdAt < ?", arrayOf(fromEpoch.toString(), untilEpoch.toString()))
+        memoKey = key
+        memo = rows
+        return rows
+    }
+
+    /** Every archived row, newest first (export, full backup). */
+    @Synchronized
+    fun getAll(): List<EntryEntity> = query(years(), "1", emptyArray())
+
+    /** Oldest and newest archived createdAt (epoch seconds), or null when nothing is archived. */
+    @Synchronized
+    fun bounds(): Pair<Long, Long>? {
+        val years = years()
+        if (years.isEmpty()) return null
+        val first = scalar(years.first(), "SELECT MIN(createdAt) FROM %s.entries") ?: return null
+        val last = scalar(years.last(), "SELECT MAX(createdAt) FROM %s.entries") ?: return null
+        return first to last
+    }
+
+    /**
+     * Writes [rows] into their year files (replacing same ids, so a rerun after a crash is harmless).
+     * [tags] maps entry id to its tag names.
+     */
+    @Synchronized
+    fun put(rows: List<EntryEntity>, tags: Map<Long, List<String>>) {
+        if (rows.isEmpty()) return
+        val db = db()
+        rows.groupBy { yearOf(it.createdAt.epochSecond) }.forEach { (year, list) ->
+            val schema = attach(year, create = true)
+            db.beginTransaction()
+            try {
+                val stmt = db.compileStatement(
+                    "INSERT OR REPLACE INTO $schema.entries " +
+                        "(id, createdAt, title, body, moodRating, moodEmojisCsv, toggleMask, sleepMinutes, updatedAt, tagsCsv) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
+                )
+                list.forEach { e ->
+                    stmt.clearBindings()
+                    stmt.bindLong(1, e.id)
+                    stmt.bindLong(2, e.createdAt.epochSecond)
+                    stmt.bindString(3, e.title)
+                    stmt.bindBlob(4, pack(e.body))
+                    if (e.moodRating != null) stmt.bindLong(5, e.moodRating.toLong()) else stmt.bindNull(5)
+                    stmt.bindString(6, e.moodEmojisCsv)
+                    stmt.bindLong(7, e.habitMask)
+                    if (e.sleepMinutes != null) stmt.bindLong(8, e.sleepMinutes.toLong()) else stmt.bindNull(8)
+                    stmt.bindLong(9, e.updatedAt)
+                    stmt.bindString(10, tags[e.id].orEmpty().joinToString(","))
+                    stmt.executeInsert()
+                }
+                stmt.close()
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+        }
+        changed()
+    }
+
+    /** Clears habit bits [mask] on every archived row (the habit was deleted). */
+    @Synchronized
+    fun clearBits(mask: Long) {
+        val years = years()
+        if (years.isEmpty()) return
+        years.forEach { year ->
+            db().execSQL("UPDATE ${attach(year)}.entries SET toggleMask = toggleMask & ~? WHERE (toggleMask & ?) != 0", arrayOf(mask, mask))
+        }
+        changed()
+    }
+
+    /**
+     * Year files written aside by [stage]. Nothing is visible until [commit] swaps them in for
+     * the current files; [discard] deletes them.
+     */
+    inner class Staged internal constructor(private val staging: ArchiveStore) {
+        fun commit() = swapIn(staging)
+        fun discard() {
+            staging.dir.deleteRecursively()
+        }
+    }
+
+    /**
+     * Writes [rows] (see [put]) into a staging directory, for a restore that must not touch the
+     * live archive until its Room transaction has committed.
+     */
+    @Synchronized
+    fun stage(rows: List<EntryEntity>, tags: Map<Long, List<String>>): Staged {
+        val stagingDir = File(dir, STAGING_DIR).apply { deleteRecursively(); mkdirs() } // leftovers of a crashed restore
+        val staging = ArchiveStore(stagingDir)
+        try {
+            staging.put(rows, tags)
+        } finally {
+            staging.close()
+        }
+        return Staged(staging)
+    }
+
+    /**
+     * Replaces every archive file with [staging]'s. Renames only; if one fails, the files
+     * already moved are moved back and the old archive stays.
+     */
+    @Synchronized
+    private fun swapIn(staging: ArchiveStore) {
+        detachAll()
+        val replaced = File(dir, REPLACED_DIR).apply { deleteRecursively(); mkdirs() }
+        val moves = years().map { fileFor(it) to File(replaced, fileFor(it).name) } +
+            staging.years().map { staging.fileFor(it) to fileFor(it) }
+        val done = ArrayList<Pair<File, File>>()
+        try {
+            moves.forEach { (from, to) ->
+                if (!from.renameTo(to)) throw IOException("Couldn't move $from to $to")
+                done += from to to
+            }
+        } catch (e: IOException) {
+            done.asReversed().forEach { (from, to) -> to.renameTo(from) }
+            throw e
+        } finally {
+            changed()
+        }
+        replaced.deleteRecursively()
+        staging.dir.deleteRecursively()
+    }
+
+    /** Deletes every archive file. */
+    @Synchronized
+    fun clearAll() {
+        detachAll()
+        years().forEach { year ->
+            SQLiteDatabase.deleteDatabase(fileFor(year))
+        }
+        changed()
+    }
+
+    // -------------------- connection --------------------
+
+    private fun db(): SQLiteDatabase = conn ?: SQLiteDatabase.create(null).also { conn = it }
+
+    /** Schema name for [year]'s file, attaching it (and creating the table) if needed. */
+    private fun attach(year: Int, create: Boolean = false): String {
+        val schema = "y$year"
+        if (attached[year] != null) return schema // touch for LRU
+        while (attached.size >= MAX_ATTACHED) {
+            val oldest = attached.keys.first()
+            db().execSQL("DETACH DATABASE y$oldest")
+            attached.remove(oldest)
+        }
+        val db = db()
+        db.execSQL("ATTACH DATABASE ? AS $schema", arrayOf(fileFor(year).path))
+        if (create) {
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS $schema.entries (" +
+                    "id INTEGER PRIMARY KEY NOT NULL, createdAt INTEGER NOT NULL, title TEXT NOT NULL, " +
+                    "body BLOB NOT NULL, moodRating INTEGER, moodEmojisCsv TEXT NOT NULL, " +
+                    "toggleMask INTEGER NOT NULL, sleepMinutes INTEGER, updatedAt INTEGER NOT NULL, " +
+                    "tagsCsv TEXT NOT NULL)"
+            )
+            db.execSQL("CREATE INDEX IF NOT EXISTS $schema.entries_createdAt ON entries(createdAt)")
+            knownYears = null
+        }
+        attached[year] = Unit
+        return schema
+    }
+
+    private fun detachAll() {
+        attached.keys.toList().forEach { db().execSQL("DETACH DATABASE y$it") }
+        attached.clear()
+    }
+
+    private fun close() {
+        detachAll()
+        conn?.close()
+        conn = null
+    }
+
+    private fun changed() {
+        knownYears = null
+        memoKey = null
+        memo = emptyList()
+        _generation.update { it + 1 }
+    }
+
+    /** One UNION ALL per batch of attached years. */
+    private fun query(years: List<Int>, where: String, args: Array<String>): List<EntryEntity> {
+        val out = ArrayList<EntryEntity>()
+        years.chunked(MAX_ATTACHED).forEach { batch ->
+            val schemas = batch.map { attach(it) }
+            val sql = schemas.joinToString(" UNION ALL ") { s ->
+                "SELECT id, createdAt, title, body, moodRating, moodEmojisCsv, toggleMask, sleepMinutes, updatedAt " +
+                    "FROM $s.entries WHERE $where"
+            }
+            val allArgs = Array(args.size * schemas.size) { args[it % args.size] }
+            db().rawQuery(sql, allArgs).use { c -> while (c.moveToNext()) out += c.toEntity() }
+        }
+        out.sortWith(compareByDescending<EntryEntity> { it.createdAt }.thenByDescending { it.id })
+        return out
+    }
+
+    private fun scalar(year: Int, sqlPattern: String): Long? =
+        db().rawQuery(sqlPattern.format(attach(year)), null).use { c ->
+            if (c.moveToFirst() && !c.isNull(0)) c.getLong(0) else null
+        }
+
+    private fun Cursor.toEntity(): EntryEntity =
+        EntryEntity(
+            id = getLong(0),
+            createdAt = Instant.ofEpochSecond(getLong(1)),
+            title = getString(2),
+            body = unpack(getBlob(3)),
+            moodRating = if (isNull(4)) null else getInt(4),
+            moodEmojisCsv = getString(5),
+            habitMask = getLong(6),
+            sleepMinutes = if (isNull(7)) null else getInt(7),
+            updatedAt = getLong(8)
+        )
+
+    private fun fileFor(year: Int) = File(dir, "journal-archive-$year.db")
+
+    private fun yearsIn(fromEpoch: Long, untilEpoch: Long): List<Int> {
+        if (untilEpoch <= fromEpoch) return emptyList()
+        val first = yearOf(fromEpoch)
+        val last = yearOf(untilEpoch - 1)
+        return years().filter { it in first..last }
+    }
+
+    // -------------------- body compression --------------------
+
+    // First byte: 0 = raw UTF-8, 1 = raw deflate (no zlib header; the row already says what it is).
+    private fun pack(body: String): ByteArray {
+        val utf8 = body.toByteArray(Charsets.UTF_8)
+        if (utf8.size >= MIN_COMPRESS) {
+            val deflater = Deflater(Deflater.BEST_COMPRESSION, true)
+            try {
+                deflater.setInput(utf8)
+                deflater.finish()
+                val out = ByteArrayOutputStream(utf8.size / 2 + 16)
+                out.write(1)
+                val buf = ByteArray(4096)
+                while (!deflater.finished()) out.write(buf, 0, deflater.deflate(buf))
+                if (out.size() < utf8.size + 1) return out.toByteArray()
+            } finally {
+                deflater.end()
+            }
+        }
+        return byteArrayOf(0) + utf8
+    }
+
+    private fun unpack(bytes: ByteArray): String {
+        if (bytes.isEmpty()) return ""
+        if (bytes[0].toInt() == 0) return String(bytes, 1, bytes.size - 1, Charsets.UTF_8)
+        val inflater = Inflater(true)
+        try {
+            inflater.setInput(bytes, 1, bytes.size - 1)
+            val out = ByteArrayOutputStream(bytes.size * 3)
+            val buf = ByteArray(4096)
+            while (!inflater.finished()) {
+                val n = inflater.inflate(buf)
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break
+                out.write(buf, 0, n)
+            }
+            return out.toString(Charsets.UTF_8.name())
+        } finally {
+            inflater.end()
+        }
+    }
+
+    companion object {
+        private const val MAX_ATTACHED = 8 // SQLite's default limit is 10
+        private const val MIN_COMPRESS = 64 // shorter bodies don't shrink
+        private val FILE_NAME = Regex("journal-archive-(\\d{4})\\.db")
+        private const val STAGING_DIR = "archive-restore"
+        private const val REPLACED_DIR = "archive-replaced"
+
+        @Volatile private var INSTANCE: ArchiveStore? = null
+
+        fun get(context: Context): ArchiveStore =
+            INSTANCE ?: synchronized(this) {
+                INSTANCE ?: ArchiveStore(context.applicationContext.getDatabasePath("journal.db").parentFile!!)
+                    .also { INSTANCE = it }
+            }
+
+        /** Local calendar year of an epoch-second timestamp. */
+        fun yearOf(epochSecond: Long): Int =
+            Instant.ofEpochSecond(epochSecond.coerceIn(-MAX_EPOCH, MAX_EPOCH)).atZone(ZoneId.systemDefault()).year
+
+        // ~95,000 years either side; keeps open-ended ranges (Instant.MAX) inside what atZone accepts
+        private const val MAX_EPOCH = 3_000_000_000_000L
+
+        /** Start of the oldest year that stays hot when keeping [years] full years before this one. */
+        fun cutoffFor(years: Int, today: LocalDate = LocalDate.now()): Instant =
+            LocalDate.of(today.year - years, 1, 1).atStartOfDay(ZoneId.systemDefault()).toInstant()
+    }
+}
@@ -0,0 +1,287 @@
+package com.markrogers.journal.data.backup
+
+import androidx.room.withTransaction
+import com.markrogers.journal.data.archive.ArchiveStore
+import com.markrogers.journal.data.db.AppDatabase
+import com.markrogers.journal.data.db.EntryEntity
+import com.markrogers.journal.data.db.Hashtags
+import com.markrogers.journal.data.db.JournalDao
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.withContext
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.protobuf.ProtoBuf
+import kotlinx.serialization.protobuf.ProtoIntegerType
+import kotlinx.serialization.protobuf.ProtoNumber
+import kotlinx.serialization.protobuf.ProtoPacked
+import kotlinx.serialization.protobuf.ProtoType
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.time.Instant
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.InflaterInputStream
+
+/**
+ * Compact, versioned binary backups (protobuf via kotlinx-serialization).
+ *
+ * File layout:
+ *   "JRNB" | varint headerLen | Header | (varint blockLen | deflate(Block))*
+ * - Integers are protobuf varints; createdAt is zig-zag delta-coded within a block.
+ * - Mood emojis are stored once in the header dictionary; entries carry packed indices.
+ * - Blocks of [BLOCK_SIZE] entries are deflated independently.
+ * - A DELTA file holds the rows with updatedAt in (since - [DELTA_OVERLAP_MS], until]; restore
+ *   applies the base and then each delta in order, last write per id wins. updatedAt is a
+ *   wall-clock stamp taken before its transaction commits, so a row committed late (or
+ *   stamped by a clock that stepped back) can sit just below the previous watermark; the
+ *   overlap picks it up, and rows sent twice are harmless.
+ * - Reading never trusts sizes from the file: frames, inflated blocks and the preallocated
+ *   row list are capped, and a bad dictionary index is an IOException, not a crash.
+ * - Soft-deleted rows travel as tombstones (deletedAt), so deltas replay deletes too; only
+ *   tombstones purged before the backup was taken are lost.
+ */
+@OptIn(ExperimentalSerializationApi::class)
+object BinaryBackup {
+    /** v2: Row.habits holds the 64-bit habit mask (v1 used bits 0..3). */
+    const val FORMAT_VERSION = 2
+    const val KIND_FULL = 0
+    const val KIND_DELTA = 1
+
+    private val MAGIC = byteArrayOf('J'.code.toByte(), 'R'.code.toByte(), 'N'.code.toByte(), 'B'.code.toByte())
+    private const val BLOCK_SIZE = 256
+    // 256 rows per block; far above any real block, far below what would exhaust the heap
+    private const val MAX_FRAME_BYTES = 32 * 1024 * 1024
+    private const val MAX_PREALLOCATED_ROWS = 100_000
+    private const val DELTA_OVERLAP_MS = 60 * 60 * 1000L
+
+    @Serializable
+    class Header(
+        @ProtoNumber(1) val version: Int = FORMAT_VERSION,
+        @ProtoNumber(2) val kind: Int = KIND_FULL,
+        @ProtoNumber(3) val sinceMillis: Long = 0,
+        @ProtoNumber(4) val untilMillis: Long = 0,
+        @ProtoNumber(5) val entryCount: Int = 0,
+        @ProtoNumber(6) val emojis: List<String> = emptyList()
+    )
+
+    @Serializable
+    class Block(@ProtoNumber(1) val entries: List<Row> = emptyList())
+
+    @Serializable
+    class Row(
+        @ProtoNumber(1) val id: Long,
+        /** Seconds since the previous row in the block (first row: since epoch). */
+        @ProtoNumber(2) @ProtoType(ProtoIntegerType.SIGNED) val createdDelta: Long,
+        @ProtoNumber(3) val updatedAt: Long,
+        @ProtoNumber(4) val title: String = "",
+        @ProtoNumber(5) val body: String = "",
+        @ProtoNumber(6) @ProtoPacked val emojis: List<Int> = emptyList(),
+        /** 0 = unset, else rating. */
+        @ProtoNumber(7) val mood: Int = 0,
+        /** EntryEntity.habitMask; older files only used bits 0..3 (the four toggles). */
+        @ProtoNumber(8) val habits: Long = 0,
+        /** -1 = unset. */
+        @ProtoNumber(9) @ProtoType(ProtoIntegerType.SIGNED) val sleepMinutes: Int = -1,
+        /** 0 = live, else soft-deleted at (epoch millis). */
+        @ProtoNumber(10) val deletedAt: Long = 0
+    )
+
+    /** Result of [write]: how many rows went out and the watermark for the next delta. */
+    data class Written(val entries: Int, val untilMillis: Long)
+
+    /**
+     * Full backup when [sinceMillis] is null, otherwise only rows changed after it.
+     * A full backup also carries [archive]'s rows; archived rows never change, so deltas don't need them.
+     */
+    suspend fun write(dao: JournalDao, out: OutputStream, sinceMillis: Long? = null, archive: ArchiveStore? = null): Written {
+        val until = System.currentTimeMillis()
+        val hot = dao.changedSince(sinceMillis?.minus(DELTA_OVERLAP_MS) ?: Long.MIN_VALUE).filter { it.updatedAt <= until }
+        val cold = if (sinceMillis == null) archive?.getAll().orEmpty() else emptyList()
+        val hotIds = hot.mapTo(HashSet()) { it.id }
+        val rows = cold.filter { it.id !in hotIds }.sortedWith(compareBy({ it.createdAt }, { it.id })) + hot
+        val dict = rows.flatMap { it.moodEmojisCsv.emojiList() }.distinct()
+        val index = dict.withIndex().associate { it.value to it.index }
+
+        val header = Header(
+            kind = if (sinceMillis == null) KIND_FULL else KIND_DELTA,
+            sinceMillis = sinceMillis ?: 0,
+            untilMillis = until,
+            entryCount = rows.size,
+            emojis = dict
+        )
+        out.write(MAGIC)
+        writeFramed(out, ProtoBuf.encodeToByteArray(Header.serializer(), header))
+
+        rows.chunked(BLOCK_SIZE).forEach { chunk ->
+            var prev = 0L
+            val block = Block(chunk.map { e ->
+                val created = e.createdAt.epochSecond
+                Row(
+                    id = e.id,
+                    createdDelta = created - prev,
+                    updatedAt = e.updatedAt,
+                    title = e.title,
+                    body = e.body,
+                    emojis = e.moodEmojisCsv.emojiList().map { index.getValue(it) },
+                    mood = e.moodRating ?: 0,
+                    habits = e.habitMask,
+                    sleepMinutes = e.sleepMinutes ?: -1,
+                    deletedAt = e.deletedAt ?: 0
+                ).also { prev = created }
+            })
+            writeFramed(out, deflate(ProtoBuf.encodeToByteArray(Block.serializer(), block)))
+        }
+        out.flush()
+        return Written(rows.size, until)
+    }
+
+    /** Reads one backup file into its header and rows. */
+    fun read(input: InputStream): Pair<Header, List<EntryEntity>> {
+        val magic = input.readNBytesCompat(MAGIC.size)
+        if (!magic.contentEquals(MAGIC)) throw IOException("Not a journal backup")
+        val header = ProtoBuf.decodeFromByteArray(Header.serializer(), readFramed(input) ?: throw IOException("Truncated backup"))
+        if (header.version > FORMAT_VERSION) throw IOException("Backup version ${header.version} is newer than this app")
+
+        val out = ArrayList<EntryEntity>(header.entryCount.coerceIn(0, MAX_PREALLOCATED_ROWS))
+        while (true) {
+            val bytes = readFramed(input) ?: break
+            val block = ProtoBuf.decodeFromByteArray(Block.serializer(), inflate(bytes))
+            var created = 0L
+            block.entries.forEach { r ->
+                created += r.createdDelta
+                out += EntryEntity(
+                    id = r.id,
+                    createdAt = Instant.ofEpochSecond(created),
+                    title = r.title,
+                    body = r.body,
+                    moodRating = r.mood.takeIf { it != 0 },
+                    moodEmojisCsv = r.emojis.joinToString(",") {
+                        header.emojis.getOrNull(it) ?: throw IOException("Corrupt backup: emoji index $it")
+                    },
+                    habitMask = r.habits,
+                    sleepMinutes = r.sleepMinutes.takeIf { it >= 0 },
+                    updatedAt = r.updatedAt,
+                    deletedAt = r.deletedAt.takeIf { it != 0L }
+                )
+            }
+        }
+        return header to out
+    }
+
+    /**
+     * Replaces the journal with a base backup and its deltas (any order; sorted by kind then
+     * watermark, last write per id wins).
+     * - The hot table, tag index, drafts and cached summaries are wiped in the same transaction
+     *   that inserts the rows, so original ids can't overwrite newer, unrelated entries.
+     * - Live rows created before [archiveCutoff] (null: archiving off) go into a staged copy of
+     *   [archive], swapped in for the old files only after that transaction commits; everything
+     *   else, tombstones included, goes into the hot table. A failed restore leaves the old
+     *   journal and archive in place.
+     */
+    suspend fun restore(
+        db: AppDatabase,
+        archive: ArchiveStore,
+        files: List<Pair<Header, List<EntryEntity>>>,
+        archiveCutoff: Instant?
+    ): Int {
+        val latest = HashMap<Long, EntryEntity>()
+        files.sortedWith(compareBy<Pair<Header, List<EntryEntity>>>({ it.first.kind }, { it.first.untilMillis })).forEach { (_, rows) ->
+            rows.forEach { r ->
+                val cur = latest[r.id]
+                if (cur == null || r.updatedAt >= cur.updatedAt) latest[r.id] = r
+            }
+        }
+        val (cold, hot) = latest.values.partition {
+            archiveCutoff != null && it.deletedAt == null && it.createdAt < archiveCutoff
+        }
+        val staged = withContext(Dispatchers.IO) {
+            archive.stage(cold, cold.associate { it.id to Hashtags.extract(it.title, it.body).toList() })
+        }
+        val dao = db.journalDao()
+        val tags = db.tagDao()
+        try {
+            db.withTransaction {
+                dao.clearAll() // tag links and revisions cascade
+                tags.clearAll()
+                db.draftDao().clearAll()
+                db.summaryDao().clearAll()
+                hot.chunked(500).forEach { chunk ->
+                    dao.upsertAll(chunk)
+                    chunk.forEach { tags.reindex(it.id, it.title, it.body) }
+                }
+            }
+        } catch (e: Throwable) {
+            withContext(NonCancellable + Dispatchers.IO) { staged.discard() }
+            throw e
+        }
+        withContext(NonCancellable + Dispatchers.IO) { staged.commit() }
+        return latest.size
+    }
+
+    // -------------------- framing / compression --------------------
+
+    private fun String.emojiList(): List<String> =
+        if (isBlank()) emptyList() else split(",").map { it.trim() }
+
+    private fun deflate(bytes: ByteArray): ByteArray {
+        val bos = ByteArrayOutputStream(bytes.size / 2 + 16)
+        val deflater = Deflater(Deflater.BEST_COMPRESSION)
+        try {
+            DeflaterOutputStream(bos, deflater).use { it.write(bytes) }
+        } finally {
+            deflater.end() // a caller-supplied Deflater isn't released by close()
+        }
+        return bos.toByteArray()
+    }
+
+    private fun inflate(bytes: ByteArray): ByteArray =
+        InflaterInputStream(bytes.inputStream()).use { input ->
+            val out = ByteArrayOutputStream(bytes.size * 4)
+            val buf = ByteArray(8 * 1024)
+            while (true) {
+                val n = input.read(buf)
+                if (n < 0) break
+                out.write(buf, 0, n)
+                if (out.size() > MAX_FRAME_BYTES) throw IOException("Corrupt backup: block inflates past $MAX_FRAME_BYTES bytes")
+            }
+            out.toByteArray()
+        }
+
+    private fun writeFramed(out: OutputStream, bytes: ByteArray) {
+        var n = bytes.size
+        while (n >= 0x80) { out.write((n and 0x7F) or 0x80); n = n ushr 7 }
+        out.write(n)
+        out.write(bytes)
+    }
+
+    /** Next length-prefixed frame, or null at a clean end of stream. */
+    private fun readFramed(input: InputStream): ByteArray? {
+        var len = 0
+        var shift = 0
+        while (true) {
+            val b = input.read()
+            if (b < 0) { if (shift == 0) return null else throw IOException("Truncated backup") }
+            if (shift > 28) throw IOException("Corrupt backup: frame length overflows")
+            len = len or ((b and 0x7F) shl shift)
+            if (b and 0x80 == 0) break
+            shift += 7
+        }
+        if (len < 0 || len > MAX_FRAME_BYTES) throw IOException("Corrupt backup: $len-byte frame")
+        return input.readNBytesCompat(len)
+    }
+
+    // InputStream.readNBytes is API 33+.
+    private fun InputStream.readNBytesCompat(n: Int): ByteArray {
+        val buf = ByteArray(n)
+        var off = 0
+        while (off < n) {
+            val r = read(buf, off, n - off)
+            if (r < 0) throw IOException("Truncated backup")
+            off += r
+        }
+        return buf
+    }
+}
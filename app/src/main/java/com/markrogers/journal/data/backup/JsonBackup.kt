@@ -0,0 +1,72 @@
+package com.markrogers.journal.data.backup
+
+import com.markrogers.journal.data.model.JournalEntry
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.builtins.ListSerializer
+import kotlinx.serialization.json.DecodeSequenceMode
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.decodeToSequence
+import kotlinx.serialization.json.encodeToStream
+import java.io.InputStream
+import java.io.OutputStream
+import java.time.Instant
+
+/** Lightweight export/import shape (stable, not tied to Room’s internal entity). */
+@Serializable
+data class EntryJson(
+    val createdAt: Long,
+    val title: String? = null,
+    val body: String? = null,
+    val moodEmojis: List<String>? = null,
+    val moodRating: Int? = null,
+    val habitMask: Long? = null,
+    // Exports from before habits; only read (habitMask wins when present)
+    val toggleX: Boolean = false,
+    val toggleY: Boolean = false,
+    val toggleZ: Boolean = false,
+    val toggleW: Boolean = false,
+    val sleepHours: Float? = 0f
+)
+
+fun JournalEntry.toJson(): EntryJson =
+    EntryJson(
+        createdAt = createdAt.toEpochMilli(),
+        title = title,
+        body = body,
+        moodEmojis = moodEmojis,
+        moodRating = moodRating,
+        habitMask = habitMask,
+        sleepHours = sleepHours
+    )
+
+/** New row (id = 0) carrying the exported content. */
+fun EntryJson.toEntry(): JournalEntry =
+    JournalEntry(
+        id = 0L,
+        createdAt = Instant.ofEpochMilli(createdAt),
+        title = title ?: "",
+        body = body ?: "",
+        moodEmojis = moodEmojis ?: emptyList(),
+        moodRating = moodRating,
+        habitMask = habitMask ?: ((if (toggleX) 1L else 0L) or (if (toggleY) 2L else 0L) or
+            (if (toggleZ) 4L else 0L) or (if (toggleW) 8L else 0L)),
+        sleepHours = sleepHours ?: 0f
+    )
+
+/**
+ * JSON export/import with the generated kotlinx.serialization codec (no reflection).
+ * Both directions stream: export writes straight to the output stream and import
+ * decodes one array element at a time, so large files never sit in memory as a String.
+ */
+@OptIn(ExperimentalSerializationApi::class)
+object JsonBackup {
+    private val json = Json { ignoreUnknownKeys = true }
+
+    fun write(entries: List<JournalEntry>, out: OutputStream) =
+        json.encodeToStream(ListSerializer(EntryJson.serializer()), entries.map { it.toJson() }, out)
+
+    /** Lazily decoded; consume while [input] is still open. */
+    fun read(input: InputStream): Sequence<EntryJson> =
+        json.decodeToSequence(input, EntryJson.serializer(), DecodeSequenceMode.ARRAY_WRAPPED)
+}
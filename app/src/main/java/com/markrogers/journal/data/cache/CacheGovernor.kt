@@ -0,0 +1,135 @@
+package com.markrogers.journal.data.cache
+
+import android.app.ActivityManager
+import android.content.ComponentCallbacks2
+import android.content.Context
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicLong
+
+/** A cache the [CacheGovernor] can measure and shrink. Implementations keep their own LRU order. */
+interface GovernedCache {
+    /** Rough retained size in bytes (an estimate; it only has to be consistent). */
+    fun estimatedBytes(): Long
+
+    /** Drops the least recently used entry; false if there was nothing left to drop. */
+    fun evictOne(): Boolean
+
+    fun clear()
+}
+
+data class CacheStats(
+    val name: String,
+    val hits: Long,
+    val misses: Long,
+    val evictions: Long,
+    val bytes: Long
+) {
+    val hitRate: Float get() = if (hits + misses == 0L) 0f else hits.toFloat() / (hits + misses)
+}
+
+/**
+ * One byte budget for every in-memory cache in the app.
+ * - Caches [register] with a weight: under pressure the one with the most bytes per unit of
+ *   weight gives up its LRU entry first, so a higher weight means "keep me longer".
+ * - Second chance: a cache that had a hit since the last sweep is skipped once.
+ * - [onTrimMemory] shrinks to a fraction of the budget, or drops everything, by severity.
+ * - The budget is a slice of the per-app heap (smaller on low-RAM devices); see [initialize].
+ */
+object CacheGovernor {
+    /** Returned by [register]; the cache reports hits/misses and calls [enforce] after growing. */
+    class Handle internal constructor(
+        val name: String,
+        internal val cache: GovernedCache,
+        internal val weight: Int
+    ) {
+        internal val hits = AtomicLong()
+        internal val misses = AtomicLong()
+        internal val evictions = AtomicLong()
+        @Volatile internal var referenced = false
+
+        fun hit() {
+            hits.incrementAndGet()
+            referenced = true
+        }
+
+        fun miss() {
+            misses.incrementAndGet()
+        }
+
+        fun enforce() = CacheGovernor.enforce()
+    }
+
+    private val handles = CopyOnWriteArrayList<Handle>()
+
+    @Volatile var budgetBytes: Long = 4L shl 20
+        private set
+
+    fun initialize(context: Context) {
+        val am = context.getSystemService(ActivityManager::class.java) ?: return
+        val heapBytes = am.memoryClass.toLong() shl 20
+        budgetBytes = heapBytes / if (am.isLowRamDevice) 64 else 16
+    }
+
+    fun register(name: String, cache: GovernedCache, weight: Int = 1): Handle =
+        Handle(name, cache, weight.coerceAtLeast(1)).also { handles += it }
+
+    fun stats(): List<CacheStats> = handles.map {
+        CacheStats(it.name, it.hits.get(), it.misses.get(), it.evictions.get(), it.cache.estimatedBytes())
+    }
+
+    fun totalBytes(): Long = handles.sumOf { it.cache.estimatedBytes() }
+
+    /** Evicts until the caches fit the budget. */
+    fun enforce() = trimTo(budgetBytes)
+
+    /** Called from JournalApp. */
+    @Suppress("DEPRECATION") // the RUNNING_* levels still arrive on older releases
+    fun onTrimMemory(level: Int) {
+        when {
+            level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE -> clearAll()              // next in line to be killed
+            level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND -> trimTo(budgetBytes / 4)
+            level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN -> trimTo(budgetBytes / 2)
+            level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL -> clearAll()
+            level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW -> trimTo(budgetBytes / 4)
+            level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE -> trimTo(budgetBytes / 2)
+        }
+    }
+
+    fun clearAll() {
+        synchronized(this) {
+            handles.forEach { h ->
+                if (h.cache.estimatedBytes() > 0) h.evictions.incrementAndGet()
+                h.cache.clear()
+            }
+        }
+    }
+
+    private fun trimTo(target: Long) {
+        synchronized(this) {
+            var total = totalBytes()
+            val exhausted = HashSet<Handle>()
+            while (total > target) {
+                val victim = pickVictim(exhausted) ?: return
+                val before = victim.cache.estimatedBytes()
+                if (!victim.cache.evictOne()) { exhausted += victim; continue }
+                victim.evictions.incrementAndGet()
+                total -= before - victim.cache.estimatedBytes()
+            }
+        }
+    }
+
+    private fun pickVictim(exclude: Set<Handle>): Handle? {
+        val ranked = handles
+            .filter { it !in exclude }
+            .map { it to it.cache.estimatedBytes() }
+            .filter { it.second > 0 }
+            .sortedByDescending { (h, bytes) -> bytes / h.weight }
+            .map { it.first }
+        if (ranked.isEmpty()) return null
+        for (h in ranked) {
+            if (!h.referenced) return h
+            h.referenced = false // second chance
+        }
+        return ranked.first()
+    }
+}
@@ -5,15 +5,215 @@ import androidx.room.Database
 import androidx.room.Room
 import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.markrogers.journal.data.model.Habits
 
-@Database(entities = [EntryEntity::class], version = 1, exportSchema = true)
+@Database(
+    entities = [
+        EntryEntity::class, SummaryEntity::class, DraftEntity::class, RevisionEntity::class,
+        TagEntity::class, EntryTagEntity::class, HabitEntity::class, SeriesEntity::class,
+        SeriesChunkEntity::class
+    ],
+    version = 10,
+    exportSchema = true
+)
 @TypeConverters(Converters::class)
 abstract class AppDatabase : RoomDatabase() {
     abstract fun journalDao(): JournalDao
+    abstract fun summaryDao(): SummaryDao
+    abstract fun draftDao(): DraftDao
+    abstract fun revisionDao(): RevisionDao
+    abstract fun tagDao(): TagDao
+    abstract fun habitDao(): HabitDao
+    abstract fun seriesDao(): SeriesDao
+
+    /**
+     * Returns the freelist to the filesystem (incremental auto_vacuum, see [INCREMENTAL_VACUUM]).
+     * The cursor is drained so the pragma runs to completion. Call off the main thread.
+     */
+    fun releaseFreePages() {
+        openHelper.writableDatabase.query("PRAGMA incremental_vacuum").use { while (it.moveToNext()) Unit }
+    }
 
     companion object {
         @Volatile private var INSTANCE: AppDatabase? = null
 
+        /** v2: index on createdAt for the calendar month summary. */
+        val MIGRATION_1_2 = object : Migration(1, 2) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_entries_createdAt ON entries(createdAt)")
+            }
+        }
+
+        /** v3: cached per-day / per-week AI summaries. */
+        val MIGRATION_2_3 = object : Migration(2, 3) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS summaries (" +
+                        "`key` TEXT NOT NULL PRIMARY KEY, contentHash TEXT NOT NULL, " +
+                        "promptVersion INTEGER NOT NULL, summary TEXT NOT NULL, updatedAt INTEGER NOT NULL)"
+                )
+            }
+        }
+
+        /** v4: updatedAt row version for incremental backups (existing rows start at createdAt). */
+        val MIGRATION_3_4 = object : Migration(3, 4) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("ALTER TABLE entries ADD COLUMN updatedAt INTEGER NOT NULL DEFAULT 0")
+                db.execSQL("UPDATE entries SET updatedAt = createdAt * 1000")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_entries_updatedAt ON entries(updatedAt)")
+            }
+        }
+
+        /**
+         * v5: soft delete. Room can't declare a partial index, so (deletedAt, createdAt) replaces the
+         * createdAt index: `deletedAt IS NULL` pins the leading column and live rows stay in createdAt order.
+         */
+        val MIGRATION_4_5 = object : Migration(4, 5) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("ALTER TABLE entries ADD COLUMN deletedAt INTEGER")
+                db.execSQL("DROP INDEX IF EXISTS index_entries_createdAt")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_entries_deletedAt_createdAt ON entries(deletedAt, createdAt)")
+            }
+        }
+
+        /** v6: autosaved editor drafts. */
+        val MIGRATION_5_6 = object : Migration(5, 6) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS drafts (" +
+                        "`key` TEXT NOT NULL PRIMARY KEY, title TEXT NOT NULL, body TEXT NOT NULL, " +
+                        "moodEmojisCsv TEXT NOT NULL, toggleMask INTEGER NOT NULL, sleepMinutes INTEGER, " +
+                        "contentHash INTEGER NOT NULL, updatedAt INTEGER NOT NULL)"
+                )
+            }
+        }
+
+        /** v7: entry revision history (delta-compressed bodies). */
+        val MIGRATION_6_7 = object : Migration(6, 7) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS entry_revisions (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, entryId INTEGER NOT NULL, " +
+                        "revision INTEGER NOT NULL, replacedAt INTEGER NOT NULL, title TEXT NOT NULL, " +
+                        "moodEmojisCsv TEXT NOT NULL, toggleMask INTEGER NOT NULL, sleepMinutes INTEGER, " +
+                        "isKeyframe INTEGER NOT NULL, body BLOB NOT NULL, " +
+                        "FOREIGN KEY(entryId) REFERENCES entries(id) ON UPDATE NO ACTION ON DELETE CASCADE)"
+                )
+                db.execSQL(
+                    "CREATE UNIQUE INDEX IF NOT EXISTS index_entry_revisions_entryId_revision " +
+                        "ON entry_revisions(entryId, revision)"
+                )
+            }
+        }
+
+        /** v8: #tag inverted index, backfilled from existing entries. */
+        val MIGRATION_7_8 = object : Migration(7, 8) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS tag (id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, name TEXT NOT NULL)")
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS index_tag_name ON tag(name)")
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS entry_tag (" +
+                        "entryId INTEGER NOT NULL, tagId INTEGER NOT NULL, PRIMARY KEY(entryId, tagId), " +
+                        "FOREIGN KEY(entryId) REFERENCES entries(id) ON UPDATE NO ACTION ON DELETE CASCADE, " +
+                        "FOREIGN KEY(tagId) REFERENCES tag(id) ON UPDATE NO ACTION ON DELETE CASCADE)"
+                )
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_entry_tag_tagId_entryId ON entry_tag(tagId, entryId)")
+
+                db.query("SELECT id, title, body FROM entries").use { c ->
+                    while (c.moveToNext()) {
+                        val id = c.getLong(0)
+                        Hashtags.extract(c.getString(1), c.getString(2)).forEach { name ->
+                            db.execSQL("INSERT OR IGNORE INTO tag(name) VALUES (?)", arrayOf(name))
+                            db.execSQL(
+                                "INSERT OR IGNORE INTO entry_tag(entryId, tagId) SELECT ?, id FROM tag WHERE name = ?",
+                                arrayOf(id, name)
+                            )
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * v9: the four toggle columns become one habitMask (toggleX..toggleW -> bits 0..3), plus the
+         * habits table for names/colors, seeded with those four. SQLite before 3.35 can't drop a
+         * column, so entries is rebuilt. Room only turns foreign keys on after migrating, so the
+         * DROP doesn't cascade into entry_revisions / entry_tag; their ids still match afterwards.
+         */
+        val MIGRATION_8_9 = object : Migration(8, 9) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE entries_new (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, createdAt INTEGER NOT NULL, " +
+                        "title TEXT NOT NULL, body TEXT NOT NULL, moodRating INTEGER, moodEmojisCsv TEXT NOT NULL, " +
+                        "habitMask INTEGER NOT NULL DEFAULT 0, sleepMinutes INTEGER, " +
+                        "updatedAt INTEGER NOT NULL DEFAULT 0, deletedAt INTEGER)"
+                )
+                db.execSQL(
+                    "INSERT INTO entries_new (id, createdAt, title, body, moodRating, moodEmojisCsv, " +
+                        "habitMask, sleepMinutes, updatedAt, deletedAt) " +
+                        "SELECT id, createdAt, title, body, moodRating, moodEmojisCsv, " +
+                        "(toggleX != 0) | ((toggleY != 0) << 1) | ((toggleZ != 0) << 2) | ((toggleW != 0) << 3), " +
+                        "sleepMinutes, updatedAt, deletedAt FROM entries"
+                )
+                db.execSQL("DROP TABLE entries")
+                db.execSQL("ALTER TABLE entries_new RENAME TO entries")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_entries_deletedAt_createdAt ON entries(deletedAt, createdAt)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_entries_updatedAt ON entries(updatedAt)")
+
+                db.execSQL("CREATE TABLE IF NOT EXISTS habits (bit INTEGER PRIMARY KEY NOT NULL, name TEXT NOT NULL, color INTEGER NOT NULL)")
+                seedHabits(db)
+            }
+        }
+
+        /** v10: numeric time series with Gorilla-compressed chunks. */
+        val MIGRATION_9_10 = object : Migration(9, 10) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS series (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, name TEXT NOT NULL, unit TEXT NOT NULL, color INTEGER NOT NULL)"
+                )
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS index_series_name ON series(name)")
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS series_chunk (" +
+                        "seriesId INTEGER NOT NULL, startTime INTEGER NOT NULL, endTime INTEGER NOT NULL, " +
+                        "pointCount INTEGER NOT NULL, data BLOB NOT NULL, PRIMARY KEY(seriesId, startTime), " +
+                        "FOREIGN KEY(seriesId) REFERENCES series(id) ON UPDATE NO ACTION ON DELETE CASCADE)"
+                )
+            }
+        }
+
+        private fun seedHabits(db: SupportSQLiteDatabase) {
+            Habits.DEFAULTS.forEach { h ->
+                db.execSQL("INSERT OR IGNORE INTO habits(bit, name, color) VALUES (?, ?, ?)", arrayOf(h.bit, h.name, h.color))
+            }
+        }
+
+        private const val AUTO_VACUUM_INCREMENTAL = 2
+
+        /**
+         * Archiving frees many pages at once; in incremental auto_vacuum mode [releaseFreePages]
+         * truncates them off the file without a VACUUM that rebuilds it under the writer.
+         * Switching an older file to the mode takes one VACUUM, done here in onOpen: outside any
+         * transaction and before Room hands the database to anyone who could be writing.
+         */
+        private val INCREMENTAL_VACUUM = object : RoomDatabase.Callback() {
+            override fun onOpen(db: SupportSQLiteDatabase) {
+                val mode = db.query("PRAGMA auto_vacuum").use { if (it.moveToFirst()) it.getInt(0) else 0 }
+                if (mode == AUTO_VACUUM_INCREMENTAL) return
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+                db.execSQL("VACUUM")
+            }
+        }
+
+        // Fresh installs (and destructive fallbacks) start with the same four habits
+        private val SEED_HABITS = object : RoomDatabase.Callback() {
+            override fun onCreate(db: SupportSQLiteDatabase) = seedHabits(db)
+            override fun onDestructiveMigration(db: SupportSQLiteDatabase) = seedHabits(db)
+        }
+
         fun get(context: Context): AppDatabase =
             INSTANCE ?: synchronized(this) {
                 INSTANCE ?: Room.databaseBuilder(
@@ -21,6 +221,13 @@ abstract class AppDatabase : RoomDatabase() {
                     AppDatabase::class.java,
                     "journal.db"
                 )
+                    .addMigrations(
+                        MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5,
+                        MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9,
+                        MIGRATION_9_10
+                    )
+                    .addCallback(SEED_HABITS)
+                    .addCallback(INCREMENTAL_VACUUM)
                     // During development this is fine. For release, replace with real migrations.
                     .fallbackToDestructiveMigration()
                     .build()
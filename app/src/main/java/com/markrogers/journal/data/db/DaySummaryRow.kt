@@ -0,0 +1,10 @@
+package com.markrogers.journal.data.db
+
+/** Result row of [JournalDao.monthSummary]; `day` is an ISO date (yyyy-MM-dd). */
+data class DaySummaryRow(
+    val day: String,
+    val entryCount: Int,
+    val moodAvg: Double?,
+    val sleepMinutes: Int?,
+    val openTodos: Int
+)
@@ -0,0 +1,20 @@
+package com.markrogers.journal.data.db
+
+import androidx.room.Dao
+import androidx.room.Query
+import androidx.room.Upsert
+
+@Dao
+interface DraftDao {
+    @Query("SELECT * FROM drafts WHERE `key` = :key")
+    suspend fun get(key: String): DraftEntity?
+
+    @Upsert
+    suspend fun upsert(row: DraftEntity)
+
+    @Query("DELETE FROM drafts WHERE `key` = :key")
+    suspend fun delete(key: String)
+
+    @Query("DELETE FROM drafts")
+    suspend fun clearAll()
+}
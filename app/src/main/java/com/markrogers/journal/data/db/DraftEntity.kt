@@ -0,0 +1,22 @@
+package com.markrogers.journal.data.db
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * Autosaved editor state, one row per editor ("new" for a new entry).
+ * contentHash lets the autosaver skip writes when nothing changed.
+ */
+@Entity(tableName = "drafts")
+data class DraftEntity(
+    @PrimaryKey val key: String,
+    val title: String,
+    val body: String,
+    val moodEmojisCsv: String,
+    /** Same bits as EntryEntity.habitMask (the column predates habits). */
+    @ColumnInfo(name = "toggleMask") val habitMask: Long,
+    val sleepMinutes: Int?,
+    val contentHash: Long,
+    val updatedAt: Long = System.currentTimeMillis()
+)
@@ -1,6 +1,8 @@
 package com.markrogers.journal.data.db
 
+import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import java.time.Instant
 
@@ -8,8 +10,13 @@ import java.time.Instant
  * Storage model (Room). We keep it simple and map to your UI model.
  * - moodEmojis are stored as CSV (max 3)
  * - sleepMinutes keeps precision without floats
+ * - (deletedAt, createdAt) is indexed: live rows (deletedAt IS NULL) form one contiguous,
+ *   createdAt-ordered run, so day/month range queries don't scan the table or the tombstones
+ * - updatedAt (epoch millis) is bumped on every write; incremental backups read rows changed since the last one
+ * - deletedAt (epoch millis) marks a soft-deleted row; undo clears it, a purge removes old ones
+ * - habitMask holds up to 64 habit flags, bit n = the habit with that bit (see HabitEntity)
  */
-@Entity(tableName = "entries")
+@Entity(tableName = "entries", indices = [Index("deletedAt", "createdAt"), Index("updatedAt")])
 data class EntryEntity(
     @PrimaryKey(autoGenerate = true) val id: Long = 0L,
     val createdAt: Instant = Instant.now(),
@@ -17,9 +24,8 @@ data class EntryEntity(
     val body: String = "",
     val moodRating: Int? = null,
     val moodEmojisCsv: String = "",
-    val toggleX: Boolean = false,
-    val toggleY: Boolean = false,
-    val toggleZ: Boolean = false,
-    val toggleW: Boolean = false,
-    val sleepMinutes: Int? = null
+    @ColumnInfo(defaultValue = "0") val habitMask: Long = 0L,
+    val sleepMinutes: Int? = null,
+    @ColumnInfo(defaultValue = "0") val updatedAt: Long = System.currentTimeMillis(),
+    val deletedAt: Long? = null
 )
@@ -0,0 +1,34 @@
+package com.markrogers.journal.data.db
+
+import androidx.room.Dao
+import androidx.room.Query
+import androidx.room.Transaction
+import androidx.room.Upsert
+import kotlinx.coroutines.flow.Flow
+
+@Dao
+interface HabitDao {
+    @Query("SELECT * FROM habits ORDER BY bit")
+    fun observeAll(): Flow<List<HabitEntity>>
+
+    @Upsert
+    suspend fun upsert(habit: HabitEntity)
+
+    @Query("DELETE FROM habits WHERE bit = :bit")
+    suspend fun deleteDefinition(bit: Int)
+
+    /** Clears [mask] on every entry that has it (a row version bump, so backups pick it up). */
+    @Query("UPDATE entries SET habitMask = habitMask & ~:mask, updatedAt = :now WHERE (habitMask & :mask) != 0")
+    suspend fun clearBits(mask: Long, now: Long)
+
+    @Query("UPDATE drafts SET toggleMask = toggleMask & ~:mask WHERE (toggleMask & :mask) != 0")
+    suspend fun clearDraftBits(mask: Long)
+
+    /** Removes the habit and its bit from entries and drafts; revisions keep what was true then. */
+    @Transaction
+    suspend fun delete(bit: Int, now: Long) {
+        deleteDefinition(bit)
+        clearBits(1L shl bit, now)
+        clearDraftBits(1L shl bit)
+    }
+}
@@ -0,0 +1,17 @@
+package com.markrogers.journal.data.db
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * A habit definition. Entries don't reference this table: a habit is just a [bit] of
+ * EntryEntity.habitMask, so up to 64 of them cost one INTEGER column per row.
+ * Deleting a habit clears its bit everywhere (see HabitDao.delete) so the bit can be reused.
+ */
+@Entity(tableName = "habits")
+data class HabitEntity(
+    @PrimaryKey val bit: Int,
+    val name: String,
+    /** ARGB. */
+    val color: Long
+)
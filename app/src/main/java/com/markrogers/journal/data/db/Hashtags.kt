@@ -0,0 +1,26 @@
+package com.markrogers.journal.data.db
+
+import java.util.Locale
+
+/**
+ * `#tag` extraction for the tag index.
+ * - A tag starts after whitespace/punctuation (not "C#" or "page#anchor") and runs over letters,
+ *   digits, `_` and `-`; it needs at least one letter, so "#1" isn't a tag.
+ * - Names are lowercased, so #Work and #work are one tag.
+ */
+object Hashtags {
+    private const val MAX_LENGTH = 50
+    private val PATTERN = Regex("(?<![\\p{L}\\p{N}_#&/])#([\\p{L}\\p{N}_][\\p{L}\\p{N}_-]*)")
+
+    fun extract(title: String, body: String): Set<String> {
+        val out = LinkedHashSet<String>()
+        for (text in arrayOf(title, body)) {
+            if ('#' !in text) continue
+            PATTERN.findAll(text).forEach { m ->
+                val name = m.groupValues[1].trimEnd('-').take(MAX_LENGTH).lowercase(Locale.ROOT)
+                if (name.any { it.isLetter() }) out += name
+            }
+        }
+        return out
+    }
+}
@@ -1,28 +1,148 @@
 package com.markrogers.journal.data.db
 
 import androidx.room.Dao
-import androidx.room.Insert
-import androidx.room.OnConflictStrategy
 import androidx.room.Query
+import androidx.room.Transaction
+import androidx.room.Upsert
 import kotlinx.coroutines.flow.Flow
 
+/**
+ * Reads only see live rows (deletedAt IS NULL); soft-deleted rows are tombstones until [purgeDeleted].
+ * [changedSince] is the exception: backups carry tombstones so a delta can replay a delete.
+ *
+ * Writes never use REPLACE: in SQLite that is DELETE + INSERT, so every edit rewrote the whole row
+ * and fired delete/insert triggers. [upsert] updates in place, and edits go through the set* queries.
+ */
 @Dao
 interface JournalDao {
-    @Query("SELECT * FROM entries ORDER BY createdAt DESC, id DESC")
+    @Query("SELECT * FROM entries WHERE deletedAt IS NULL ORDER BY createdAt DESC, id DESC")
     fun observeAll(): Flow<List<EntryEntity>>
 
-    @Query("SELECT * FROM entries ORDER BY createdAt DESC, id DESC")
+    @Query("SELECT * FROM entries WHERE deletedAt IS NULL ORDER BY createdAt DESC, id DESC")
     suspend fun getAllOnce(): List<EntryEntity>
 
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    @Query("SELECT * FROM entries WHERE id = :id AND deletedAt IS NULL")
+    fun observeById(id: Long): Flow<EntryEntity?>
+
+    @Query("SELECT * FROM entries WHERE id = :id AND deletedAt IS NULL")
+    suspend fun getById(id: Long): EntryEntity?
+
+    /** Entries with createdAt in [fromEpoch, untilEpoch), newest first. Uses the (deletedAt, createdAt) index. */
+    @Query("SELECT * FROM entries WHERE deletedAt IS NULL AND createdAt >= :fromEpoch AND createdAt < :untilEpoch ORDER BY createdAt DESC, id DESC")
+    fun observeBetween(fromEpoch: Long, untilEpoch: Long): Flow<List<EntryEntity>>
+
+    @Query("SELECT * FROM entries WHERE deletedAt IS NULL AND createdAt >= :fromEpoch AND createdAt < :untilEpoch ORDER BY createdAt DESC, id DESC")
+    suspend fun getBetween(fromEpoch: Long, untilEpoch: Long): List<EntryEntity>
+
+    @Query("SELECT MIN(createdAt) AS firstEpoch, MAX(createdAt) AS lastEpoch FROM entries WHERE deletedAt IS NULL")
+    suspend fun createdBounds(): CreatedBounds
+
+    /** Inserts, or updates in place when the id exists. Returns the new rowid, or -1 for an update. */
+    @Upsert
     suspend fun upsert(entry: EntryEntity): Long
 
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    @Upsert
     suspend fun upsertAll(entries: List<EntryEntity>)
 
+    // ---- targeted updates: only the named columns (and updatedAt) are written ----
+
+    @Query("UPDATE entries SET title = :title, updatedAt = :now WHERE id = :id")
+    suspend fun setTitle(id: Long, title: String, now: Long)
+
+    @Query("UPDATE entries SET body = :body, updatedAt = :now WHERE id = :id")
+    suspend fun setBody(id: Long, body: String, now: Long)
+
+    @Query("UPDATE entries SET moodEmojisCsv = :emojisCsv, moodRating = :rating, updatedAt = :now WHERE id = :id")
+    suspend fun setMood(id: Long, emojisCsv: String, rating: Int?, now: Long)
+
+    @Query("UPDATE entries SET sleepMinutes = :sleepMinutes, updatedAt = :now WHERE id = :id")
+    suspend fun setSleep(id: Long, sleepMinutes: Int?, now: Long)
+
+    /** Sets every habit bit in [mask] to [on]; the other bits keep their value. */
+    @Query(
+        """
+        UPDATE entries SET
+            habitMask = CASE WHEN :on THEN habitMask | :mask ELSE habitMask & ~:mask END,
+            updatedAt = :now
+        WHERE id = :id
+        """
+    )
+    suspend fun setHabits(id: Long, mask: Long, on: Boolean, now: Long)
+
+    /**
+     * Writes only the columns where [after] differs from [before] (same row), in one transaction.
+     * Columns the edit didn't touch keep whatever the database has, even if [before] is stale.
+     */
+    @Transaction
+    suspend fun applyEdit(before: EntryEntity, after: EntryEntity, now: Long) {
+        val id = after.id
+        if (after.title != before.title) setTitle(id, after.title, now)
+        if (after.body != before.body) setBody(id, after.body, now)
+        if (after.moodEmojisCsv != before.moodEmojisCsv || after.moodRating != before.moodRating) {
+            setMood(id, after.moodEmojisCsv, after.moodRating, now)
+        }
+        val turnedOn = after.habitMask and before.habitMask.inv()
+        val turnedOff = before.habitMask and after.habitMask.inv()
+        if (turnedOn != 0L) setHabits(id, turnedOn, true, now)
+        if (turnedOff != 0L) setHabits(id, turnedOff, false, now)
+        if (after.sleepMinutes != before.sleepMinutes) setSleep(id, after.sleepMinutes, now)
+    }
+
+    /** Rows written after [sinceMillis], oldest first, tombstones included (incremental backup). */
+    @Query("SELECT * FROM entries WHERE updatedAt > :sinceMillis ORDER BY createdAt, id")
+    suspend fun changedSince(sinceMillis: Long): List<EntryEntity>
+
     @Query("DELETE FROM entries")
     suspend fun clearAll()
 
-    @Query("DELETE FROM entries WHERE id = :id")
-    suspend fun deleteById(id: Long)
+    /** Soft delete: the row keeps its id so undo is a single-column update. */
+    @Query("UPDATE entries SET deletedAt = :now, updatedAt = :now WHERE id = :id")
+    suspend fun markDeleted(id: Long, now: Long)
+
+    @Query("UPDATE entries SET deletedAt = NULL, updatedAt = :now WHERE id = :id")
+    suspend fun undelete(id: Long, now: Long)
+
+    /**
+     * Oldest live rows created before [beforeEpoch] (archiving, a chunk at a time).
+     * Rows with revision history stay: the archive has nowhere to keep it.
+     */
+    @Query(
+        """
+        SELECT * FROM entries
+        WHERE deletedAt IS NULL AND createdAt < :beforeEpoch
+            AND id NOT IN (SELECT entryId FROM entry_revisions)
+        ORDER BY createdAt LIMIT :limit
+        """
+    )
+    suspend fun oldestBefore(beforeEpoch: Long, limit: Int): List<EntryEntity>
+
+    /** Hard delete (rows moved to the archive); revisions and tag links cascade. */
+    @Query("DELETE FROM entries WHERE id IN (:ids)")
+    suspend fun deleteByIds(ids: List<Long>)
+
+    /** Hard-deletes tombstones older than [cutoffMillis]; returns how many went. */
+    @Query("DELETE FROM entries WHERE deletedAt IS NOT NULL AND deletedAt < :cutoffMillis")
+    suspend fun purgeDeleted(cutoffMillis: Long): Int
+
+    /**
+     * Per-day rollup for [fromEpoch, untilEpoch) in one grouped pass.
+     * Days are bucketed in device local time, same as the UI does with ZoneId.systemDefault().
+     * A todo is an entry with a non-blank title; it's open while habit bit 0 (done) is clear.
+     */
+    @Query(
+        """
+        SELECT date(createdAt, 'unixepoch', 'localtime') AS day,
+               COUNT(*) AS entryCount,
+               AVG(moodRating) AS moodAvg,
+               MAX(sleepMinutes) AS sleepMinutes,
+               SUM(CASE WHEN trim(title) != '' AND (habitMask & 1) = 0 THEN 1 ELSE 0 END) AS openTodos
+        FROM entries
+        WHERE deletedAt IS NULL AND createdAt >= :fromEpoch AND createdAt < :untilEpoch
+        GROUP BY day
+        """
+    )
+    suspend fun monthSummary(fromEpoch: Long, untilEpoch: Long): List<DaySummaryRow>
 }
+
+/** Oldest/newest createdAt (epoch seconds); both null on an empty table. */
+data class CreatedBounds(val firstEpoch: Long?, val lastEpoch: Long?)
@@ -1,9 +1,21 @@
 package com.markrogers.journal.data.db
 
+import androidx.room.withTransaction
+import com.markrogers.journal.data.archive.ArchiveStore
+import com.markrogers.journal.data.model.DaySummary
+import com.markrogers.journal.data.model.Habit
+import com.markrogers.journal.data.model.Habits
 import com.markrogers.journal.data.model.JournalEntry
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.withContext
+import java.time.Duration
 import java.time.Instant
+import java.time.LocalDate
+import java.time.YearMonth
+import java.time.ZoneId
 import kotlin.math.roundToInt
 
 private fun List<String>.toCsv(): String = joinToString(",")
@@ -18,10 +30,7 @@ private fun EntryEntity.toUi(): JournalEntry =
         body = body,
         moodRating = moodRating,
         moodEmojis = moodEmojisCsv.fromCsv(),
-        toggleX = toggleX,
-        toggleY = toggleY,
-        toggleZ = toggleZ,
-        toggleW = toggleW,
+        habitMask = habitMask,
         sleepHours = sleepMinutes?.let { it / 60f } ?: 0f
     )
 
@@ -33,24 +42,231 @@ private fun JournalEntry.toEntity(): EntryEntity =
         body = body.orEmpty(),
         moodRating = moodRating,
         moodEmojisCsv = moodEmojis.toCsv(),
-        toggleX = toggleX,
-        toggleY = toggleY,
-        toggleZ = toggleZ,
-        toggleW = toggleW,
-        sleepMinutes = if (sleepHours > 0f) (sleepHours * 60).roundToInt() else null
+        habitMask = habitMask,
+        sleepMinutes = if (sleepHours > 0f) (sleepHours * 60).roundToInt() else null,
+        updatedAt = System.currentTimeMillis()
     )
 
-class JournalRepository(private val dao: JournalDao) {
+/**
+ * Entry reads and writes. Writes go to the hot database (Room); range reads that reach back past
+ * the archive horizon also pull the matching rows from [archive] (see ArchiveStore), so callers
+ * don't need to know where a row lives. The timeline, tags and editing stay hot-only.
+ */
+class JournalRepository(private val db: AppDatabase, private val archive: ArchiveStore) {
+    private val dao = db.journalDao()
+    private val revisions = db.revisionDao()
+    private val tags = db.tagDao()
+    private val habits = db.habitDao()
+
     fun observeAll(): Flow<List<JournalEntry>> =
         dao.observeAll().map { list -> list.map { it.toUi() } }
 
-    suspend fun upsert(entry: JournalEntry) =
-        dao.upsert(entry.toEntity())
+    /** Writes the row and reindexes its tags in one transaction; returns the new rowid, or -1 for an update. */
+    suspend fun upsert(entry: JournalEntry): Long =
+        db.withTransaction { upsertIndexed(entry.toEntity()) }
 
     suspend fun upsertAll(entries: List<JournalEntry>) =
-        dao.upsertAll(entries.map { it.toEntity() })
+        db.withTransaction { entries.forEach { upsertIndexed(it.toEntity()) } }
+
+    private suspend fun upsertIndexed(e: EntryEntity): Long {
+        val rowId = dao.upsert(e)
+        tags.reindex(if (rowId == -1L) e.id else rowId, e.title, e.body)
+        return rowId
+    }
+
+    /**
+     * Saves an edit of [original] by writing only the columns that changed (see JournalDao.applyEdit),
+     * and keeps the version it replaced as a revision. Both happen in one transaction.
+     */
+    suspend fun applyEdit(original: JournalEntry, edited: JournalEntry) {
+        val now = System.currentTimeMillis()
+        db.withTransaction {
+            val replaced = dao.getById(original.id) ?: return@withTransaction
+            dao.applyEdit(original.toEntity(), edited.toEntity(), now)
+            val live = dao.getById(original.id) ?: return@withTransaction
+            if (live != replaced.copy(updatedAt = live.updatedAt)) recordRevision(replaced, live.body, now)
+            if (live.title != replaced.title || live.body != replaced.body) tags.reindex(live.id, live.title, live.body)
+        }
+    }
+
+    // The replaced body is stored as a reverse delta against [nextBody], or whole on a keyframe.
+    private suspend fun recordRevision(replaced: EntryEntity, nextBody: String, now: Long) {
+        val revision = revisions.latestRevision(replaced.id) + 1
+        val delta = if (revision % RevisionEntity.KEYFRAME_EVERY == 0) null
+        else TextDelta.encode(nextBody, replaced.body)
+        revisions.insert(
+            RevisionEntity(
+                entryId = replaced.id,
+                revision = revision,
+                replacedAt = now,
+                title = replaced.title,
+                moodEmojisCsv = replaced.moodEmojisCsv,
+                habitMask = replaced.habitMask,
+                sleepMinutes = replaced.sleepMinutes,
+                isKeyframe = delta == null,
+                body = delta ?: replaced.body.toByteArray(Charsets.UTF_8)
+            )
+        )
+    }
+
+    /** Past versions of an entry, newest first; bodies are rebuilt on demand by [revisionBody]. */
+    fun observeRevisions(entryId: Long): Flow<List<RevisionHeader>> = revisions.observeHeaders(entryId)
+
+    /**
+     * Body of [revision]: the nearest keyframe at or after it (or the live body), walked back one
+     * reverse delta at a time. Null if it's gone or the chain no longer matches (e.g. the row was
+     * overwritten by a backup restore).
+     */
+    suspend fun revisionBody(entryId: Long, revision: Int): String? {
+        val chain = revisions.chainFor(entryId, revision)
+        if (chain.lastOrNull()?.revision != revision) return null
+        val liveBody = if (chain.first().isKeyframe) null else dao.getById(entryId)?.body
+        return withContext(Dispatchers.Default) {
+            try {
+                var text = liveBody
+                for (row in chain) {
+                    text = if (row.isKeyframe) row.body.toString(Charsets.UTF_8)
+                    else TextDelta.apply(text ?: return@withContext null, row.body)
+                }
+                text
+            } catch (e: IllegalArgumentException) {
+                null
+            }
+        }
+    }
+
+    suspend fun setHabits(id: Long, mask: Long, on: Boolean) =
+        dao.setHabits(id, mask, on, System.currentTimeMillis())
+
+    fun observeHabits(): Flow<List<Habit>> =
+        habits.observeAll().map { list -> list.map { Habit(it.bit, it.name, it.color) } }
+
+    suspend fun saveHabit(habit: Habit) = habits.upsert(HabitEntity(habit.bit, habit.name, habit.color))
+
+    /** Drops the definition and clears its bit on every entry, archived ones included, so it can be reused. */
+    suspend fun deleteHabit(bit: Int) {
+        habits.delete(bit, System.currentTimeMillis())
+        withContext(Dispatchers.IO) { archive.clearBits(1L shl bit) }
+    }
+
+    suspend fun clearAll() {
+        db.withTransaction {
+            dao.clearAll() // links cascade
+            tags.clearAll()
+        }
+        withContext(Dispatchers.IO) { archive.clearAll() }
+    }
+
+    /**
+     * Moves live entries created before [cutoff] into the per-year archives, [ARCHIVE_CHUNK] rows at
+     * a time: archive write first, then the hot delete, so a crash can only leave a row in both
+     * places (reads prefer the hot copy, the next run finishes the move). Returns how many moved.
+     * Tags left with no hot entry are dropped with their last link; the archive keeps its own copy.
+     */
+    suspend fun archiveBefore(cutoff: Instant): Int {
+        var moved = 0
+        while (true) {
+            val chunk = dao.oldestBefore(cutoff.epochSecond, ARCHIVE_CHUNK)
+            if (chunk.isEmpty()) break
+            val tagMap = chunk.associate { it.id to tags.tagsOf(it.id) }
+            withContext(Dispatchers.IO) { archive.put(chunk, tagMap) }
+            db.withTransaction {
+                dao.deleteByIds(chunk.map { it.id }) // links cascade
+                tagMap.values.flatten().distinct().chunked(ARCHIVE_CHUNK).forEach { tags.dropUnused(it) }
+            }
+            moved += chunk.size
+        }
+        // Freed pages go back to the filesystem without rebuilding the file (see AppDatabase)
+        if (moved > 0) withContext(Dispatchers.IO) { db.releaseFreePages() }
+        return moved
+    }
+    suspend fun markDeleted(id: Long) = dao.markDeleted(id, System.currentTimeMillis())
+    suspend fun undelete(id: Long) = dao.undelete(id, System.currentTimeMillis())
+
+    /** Drops tombstones deleted more than [retention] ago. */
+    suspend fun purgeDeleted(retention: Duration): Int =
+        dao.purgeDeleted(System.currentTimeMillis() - retention.toMillis())
+    suspend fun getAllOnce(): List<JournalEntry> =
+        merge(dao.getAllOnce(), withContext(Dispatchers.IO) { archive.getAll() })
+
+    fun observeById(id: Long): Flow<JournalEntry?> = dao.observeById(id).map { it?.toUi() }
+    suspend fun getById(id: Long): JournalEntry? = dao.getById(id)?.toUi()
+
+    /** Entries created in [from, until), newest first; archived years are attached only if the range reaches them. */
+    fun observeBetween(from: Instant, until: Instant): Flow<List<JournalEntry>> =
+        combine(dao.observeBetween(from.epochSecond, until.epochSecond), archive.generation) { rows, _ ->
+            merge(rows, archivedBetween(from, until))
+        }
+
+    suspend fun getBetween(from: Instant, until: Instant): List<JournalEntry> =
+        merge(dao.getBetween(from.epochSecond, until.epochSecond), archivedBetween(from, until))
+
+    // Empty without touching SQLite when no archived year overlaps the range.
+    private suspend fun archivedBetween(from: Instant, until: Instant): List<EntryEntity> =
+        withContext(Dispatchers.IO) { archive.getBetween(from.epochSecond, until.epochSecond) }
+
+    // Hot rows win over an archived copy of the same id (only possible mid-move).
+    private fun merge(hot: List<EntryEntity>, cold: List<EntryEntity>): List<JournalEntry> {
+        if (cold.isEmpty()) return hot.map { it.toUi() }
+        val hotIds = hot.mapTo(HashSet(hot.size * 2)) { it.id }
+        return (hot + cold.filter { it.id !in hotIds })
+            .sortedWith(compareByDescending<EntryEntity> { it.createdAt }.thenByDescending { it.id })
+            .map { it.toUi() }
+    }
+
+    /** Live entries tagged [name], newest first (an index lookup, see TagDao.observeTagged). */
+    fun observeTagged(name: String): Flow<List<JournalEntry>> =
+        tags.observeTagged(name).map { list -> list.map { it.toUi() } }
+
+    fun observeTopTags(limit: Int): Flow<List<TagCount>> = tags.observeTop(limit)
+
+    fun observeTagDayCounts(from: Instant, until: Instant): Flow<List<TagDayCount>> =
+        tags.observeDailyCounts(from.epochSecond, until.epochSecond)
+
+    /** Local dates of the oldest and newest entry, or null when there are none. */
+    suspend fun dateRange(): ClosedRange<LocalDate>? {
+        val b = dao.createdBounds()
+        val cold = withContext(Dispatchers.IO) { archive.bounds() }
+        val zone = ZoneId.systemDefault()
+        val first = listOfNotNull(b.firstEpoch, cold?.first).minOrNull() ?: return null
+        val last = listOfNotNull(b.lastEpoch, cold?.second).maxOrNull() ?: return null
+        return Instant.ofEpochSecond(first).atZone(zone).toLocalDate()..Instant.ofEpochSecond(last).atZone(zone).toLocalDate()
+    }
+
+    /** Per-day counts for [month], keyed by local date. Days without entries are absent. */
+    suspend fun monthSummary(month: YearMonth): Map<LocalDate, DaySummary> {
+        val zone = ZoneId.systemDefault()
+        val from = month.atDay(1).atStartOfDay(zone).toEpochSecond()
+        val until = month.plusMonths(1).atDay(1).atStartOfDay(zone).toEpochSecond()
+        if (withContext(Dispatchers.IO) { archive.covers(from, until) }) return summarize(getBetween(Instant.ofEpochSecond(from), Instant.ofEpochSecond(until)))
+        return dao.monthSummary(from, until).associate { r ->
+            val date = LocalDate.parse(r.day)
+            date to DaySummary(
+                date = date,
+                entryCount = r.entryCount,
+                moodAvg = r.moodAvg?.toFloat(),
+                sleepHours = r.sleepMinutes?.let { it / 60f } ?: 0f,
+                openTodos = r.openTodos
+            )
+        }
+    }
+
+    // Same rollup as JournalDao.monthSummary, for months that reach into the archive.
+    private fun summarize(entries: List<JournalEntry>): Map<LocalDate, DaySummary> {
+        val zone = ZoneId.systemDefault()
+        return entries.groupBy { it.createdAt.atZone(zone).toLocalDate() }.mapValues { (date, day) ->
+            val moods = day.mapNotNull { it.moodRating }
+            DaySummary(
+                date = date,
+                entryCount = day.size,
+                moodAvg = if (moods.isEmpty()) null else moods.average().toFloat(),
+                sleepHours = day.maxOf { it.sleepHours },
+                openTodos = day.count { it.title.isNotBlank() && it.habitMask and Habits.DONE_MASK == 0L }
+            )
+        }
+    }
 
-    suspend fun clearAll() = dao.clearAll()
-    suspend fun deleteById(id: Long) = dao.deleteById(id)
-    suspend fun getAllOnce(): List<JournalEntry> = dao.getAllOnce().map { it.toUi() }
+    private companion object {
+        const val ARCHIVE_CHUNK = 500
+    }
 }
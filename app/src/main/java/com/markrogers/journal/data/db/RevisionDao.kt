@@ -0,0 +1,34 @@
+package com.markrogers.journal.data.db
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.Query
+import kotlinx.coroutines.flow.Flow
+
+@Dao
+interface RevisionDao {
+    @Insert
+    suspend fun insert(row: RevisionEntity)
+
+    @Query("SELECT IFNULL(MAX(revision), 0) FROM entry_revisions WHERE entryId = :entryId")
+    suspend fun latestRevision(entryId: Long): Int
+
+    /** Newest first, bodies left out so the list stays cheap. */
+    @Query("SELECT revision, replacedAt, title FROM entry_revisions WHERE entryId = :entryId ORDER BY revision DESC")
+    fun observeHeaders(entryId: Long): Flow<List<RevisionHeader>>
+
+    /**
+     * What it takes to rebuild [revision]: that row up to the nearest keyframe at or after it
+     * (or up to the latest revision when there is none), newest first.
+     */
+    @Query(
+        """
+        SELECT * FROM entry_revisions
+        WHERE entryId = :entryId AND revision >= :revision AND revision <= IFNULL(
+            (SELECT MIN(revision) FROM entry_revisions WHERE entryId = :entryId AND revision >= :revision AND isKeyframe = 1),
+            2147483647)
+        ORDER BY revision DESC
+        """
+    )
+    suspend fun chainFor(entryId: Long, revision: Int): List<RevisionEntity>
+}
@@ -0,0 +1,47 @@
+package com.markrogers.journal.data.db
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.ForeignKey
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * A past version of an entry, written whenever an edit replaces it.
+ * - revision counts up from 1 (oldest) per entry; the live row in `entries` is the newest version.
+ * - body is a reverse [TextDelta] against the next revision's body (or the live body for the
+ *   latest revision), so long bodies aren't stored again for every small edit.
+ * - Every [KEYFRAME_EVERY]th revision, or when a delta wouldn't help, body holds the full UTF-8
+ *   text instead (isKeyframe), which bounds how many deltas a reconstruction has to apply.
+ * - Title and the small columns are stored whole. Rows go with their entry (ON DELETE CASCADE).
+ */
+@Entity(
+    tableName = "entry_revisions",
+    foreignKeys = [ForeignKey(entity = EntryEntity::class, parentColumns = ["id"], childColumns = ["entryId"], onDelete = ForeignKey.CASCADE)],
+    indices = [Index(value = ["entryId", "revision"], unique = true)]
+)
+data class RevisionEntity(
+    @PrimaryKey(autoGenerate = true) val id: Long = 0L,
+    val entryId: Long,
+    val revision: Int,
+    /** When this version was replaced by the next one (epoch millis). */
+    val replacedAt: Long,
+    val title: String,
+    val moodEmojisCsv: String,
+    /** EntryEntity.habitMask at the time (the column predates habits). */
+    @ColumnInfo(name = "toggleMask") val habitMask: Long,
+    val sleepMinutes: Int?,
+    val isKeyframe: Boolean,
+    val body: ByteArray
+) {
+    companion object {
+        const val KEYFRAME_EVERY = 8
+    }
+}
+
+/** History list row: everything but the body. */
+data class RevisionHeader(
+    val revision: Int,
+    val replacedAt: Long,
+    val title: String
+)
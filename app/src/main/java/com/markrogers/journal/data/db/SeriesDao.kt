@@ -0,0 +1,44 @@
+package com.markrogers.journal.data.db
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import kotlinx.coroutines.flow.Flow
+
+@Dao
+interface SeriesDao {
+    @Query("SELECT * FROM series ORDER BY name")
+    fun observeSeries(): Flow<List<SeriesEntity>>
+
+    /** Returns the new id, or -1 if the name is taken. */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertSeries(series: SeriesEntity): Long
+
+    @Query("DELETE FROM series WHERE id = :id")
+    suspend fun deleteSeries(id: Long)
+
+    /** The chunk a point at [time] belongs in: the last one starting at or before it. */
+    @Query("SELECT * FROM series_chunk WHERE seriesId = :seriesId AND startTime <= :time ORDER BY startTime DESC LIMIT 1")
+    suspend fun chunkAtOrBefore(seriesId: Long, time: Long): SeriesChunkEntity?
+
+    @Query("SELECT * FROM series_chunk WHERE seriesId = :seriesId ORDER BY startTime LIMIT 1")
+    suspend fun firstChunk(seriesId: Long): SeriesChunkEntity?
+
+    /** Chunks overlapping [from, until), oldest first. */
+    @Query("SELECT * FROM series_chunk WHERE seriesId = :seriesId AND startTime < :until AND endTime >= :from ORDER BY startTime")
+    suspend fun chunksBetween(seriesId: Long, from: Long, until: Long): List<SeriesChunkEntity>
+
+    @Query("SELECT * FROM series_chunk WHERE seriesId = :seriesId AND startTime < :until AND endTime >= :from ORDER BY startTime")
+    fun observeChunksBetween(seriesId: Long, from: Long, until: Long): Flow<List<SeriesChunkEntity>>
+
+    @Insert
+    suspend fun insertChunks(chunks: List<SeriesChunkEntity>)
+
+    @Query("DELETE FROM series_chunk WHERE seriesId = :seriesId AND startTime = :startTime")
+    suspend fun deleteChunk(seriesId: Long, startTime: Long)
+
+    /** Drops every point; the series definitions stay. */
+    @Query("DELETE FROM series_chunk")
+    suspend fun clearPoints()
+}
@@ -0,0 +1,36 @@
+package com.markrogers.journal.data.db
+
+import androidx.room.Entity
+import androidx.room.ForeignKey
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * Numeric time series (weight, steps, caffeine, ...) kept outside `entries`:
+ * - [SeriesEntity] defines a series; names are unique.
+ * - [SeriesChunkEntity] holds up to SeriesRepository.CHUNK_POINTS consecutive points of one
+ *   series, Gorilla-compressed (see data.series.Gorilla). The primary key (seriesId, startTime)
+ *   finds the chunks overlapping a range; chunks go with their series (ON DELETE CASCADE).
+ */
+@Entity(tableName = "series", indices = [Index(value = ["name"], unique = true)])
+data class SeriesEntity(
+    @PrimaryKey(autoGenerate = true) val id: Long = 0L,
+    val name: String,
+    val unit: String,
+    /** ARGB. */
+    val color: Long
+)
+
+@Entity(
+    tableName = "series_chunk",
+    primaryKeys = ["seriesId", "startTime"],
+    foreignKeys = [ForeignKey(entity = SeriesEntity::class, parentColumns = ["id"], childColumns = ["seriesId"], onDelete = ForeignKey.CASCADE)]
+)
+data class SeriesChunkEntity(
+    val seriesId: Long,
+    /** First and last point's time (epoch seconds). */
+    val startTime: Long,
+    val endTime: Long,
+    val pointCount: Int,
+    val data: ByteArray
+)
@@ -0,0 +1,20 @@
+package com.markrogers.journal.data.db
+
+import androidx.room.Dao
+import androidx.room.Query
+import androidx.room.Upsert
+
+@Dao
+interface SummaryDao {
+    @Query("SELECT * FROM summaries WHERE `key` IN (:keys)")
+    suspend fun getAll(keys: List<String>): List<SummaryEntity>
+
+    @Upsert
+    suspend fun upsertAll(rows: List<SummaryEntity>)
+
+    @Query("DELETE FROM summaries WHERE `key` IN (:keys)")
+    suspend fun deleteAll(keys: List<String>)
+
+    @Query("DELETE FROM summaries")
+    suspend fun clearAll()
+}
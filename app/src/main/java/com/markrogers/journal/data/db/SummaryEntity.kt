@@ -0,0 +1,17 @@
+package com.markrogers.journal.data.db
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * Cached AI summary of one day ("day:2025-09-01") or ISO week ("week:2025-W36").
+ * A row is only reused while both contentHash and promptVersion still match.
+ */
+@Entity(tableName = "summaries")
+data class SummaryEntity(
+    @PrimaryKey val key: String,
+    val contentHash: String,
+    val promptVersion: Int,
+    val summary: String,
+    val updatedAt: Long = System.currentTimeMillis()
+)
@@ -0,0 +1,89 @@
+package com.markrogers.journal.data.db
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import androidx.room.Transaction
+import kotlinx.coroutines.flow.Flow
+
+/** Reads and maintenance for the tag / entry_tag inverted index (see TagEntity). */
+@Dao
+interface TagDao {
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertTags(tags: List<TagEntity>)
+
+    @Query("SELECT t.name FROM entry_tag et JOIN tag t ON t.id = et.tagId WHERE et.entryId = :entryId")
+    suspend fun tagsOf(entryId: Long): List<String>
+
+    @Query("INSERT OR IGNORE INTO entry_tag(entryId, tagId) SELECT :entryId, id FROM tag WHERE name IN (:names)")
+    suspend fun link(entryId: Long, names: List<String>)
+
+    @Query("DELETE FROM entry_tag WHERE entryId = :entryId AND tagId IN (SELECT id FROM tag WHERE name IN (:names))")
+    suspend fun unlink(entryId: Long, names: List<String>)
+
+    /** Drops the named tags once nothing links to them (checked through the tagId index). */
+    @Query("DELETE FROM tag WHERE name IN (:names) AND NOT EXISTS (SELECT 1 FROM entry_tag WHERE tagId = tag.id)")
+    suspend fun dropUnused(names: List<String>)
+
+    @Query("DELETE FROM tag")
+    suspend fun clearAll()
+
+    /**
+     * Brings one entry's links in line with its current text. Only the tags that were added or
+     * removed are touched, so an edit that doesn't change tags writes nothing.
+     */
+    @Transaction
+    suspend fun reindex(entryId: Long, title: String, body: String) {
+        val want = Hashtags.extract(title, body)
+        val have = tagsOf(entryId).toSet()
+        val removed = (have - want).toList()
+        val added = (want - have).toList()
+        if (removed.isNotEmpty()) {
+            unlink(entryId, removed)
+            dropUnused(removed)
+        }
+        if (added.isNotEmpty()) {
+            insertTags(added.map { TagEntity(name = it) })
+            link(entryId, added)
+        }
+    }
+
+    /** Live entries tagged [name], newest first: tag by name, then its links, then entries by id. */
+    @Query(
+        """
+        SELECT e.* FROM tag t
+        JOIN entry_tag et ON et.tagId = t.id
+        JOIN entries e ON e.id = et.entryId
+        WHERE t.name = :name AND e.deletedAt IS NULL
+        ORDER BY e.createdAt DESC, e.id DESC
+        """
+    )
+    fun observeTagged(name: String): Flow<List<EntryEntity>>
+
+    @Query(
+        """
+        SELECT t.name AS name, COUNT(*) AS entryCount FROM tag t
+        JOIN entry_tag et ON et.tagId = t.id
+        JOIN entries e ON e.id = et.entryId
+        WHERE e.deletedAt IS NULL
+        GROUP BY t.id
+        ORDER BY entryCount DESC, t.name
+        LIMIT :limit
+        """
+    )
+    fun observeTop(limit: Int): Flow<List<TagCount>>
+
+    /** Per-tag, per-day counts for [fromEpoch, untilEpoch); days in device local time like monthSummary. */
+    @Query(
+        """
+        SELECT t.name AS name, date(e.createdAt, 'unixepoch', 'localtime') AS day, COUNT(*) AS entryCount
+        FROM entries e
+        JOIN entry_tag et ON et.entryId = e.id
+        JOIN tag t ON t.id = et.tagId
+        WHERE e.deletedAt IS NULL AND e.createdAt >= :fromEpoch AND e.createdAt < :untilEpoch
+        GROUP BY t.id, day
+        """
+    )
+    fun observeDailyCounts(fromEpoch: Long, untilEpoch: Long): Flow<List<TagDayCount>>
+}
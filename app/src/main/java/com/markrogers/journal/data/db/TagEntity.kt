@@ -0,0 +1,47 @@
+package com.markrogers.journal.data.db
+
+import androidx.room.Entity
+import androidx.room.ForeignKey
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * Inverted index for `#tags` (see [Hashtags]):
+ * - [TagEntity] holds each distinct name once (unique index, so name -> id is a lookup).
+ * - [EntryTagEntity] links entries to tags. The primary key (entryId, tagId) serves "tags of an
+ *   entry" for reindexing; the (tagId, entryId) index serves "entries with a tag" for filtering.
+ * - Links go with their entry or tag (ON DELETE CASCADE); soft-deleted entries keep theirs,
+ *   and every read joins entries to skip them.
+ */
+@Entity(tableName = "tag", indices = [Index(value = ["name"], unique = true)])
+data class TagEntity(
+    @PrimaryKey(autoGenerate = true) val id: Long = 0L,
+    val name: String
+)
+
+@Entity(
+    tableName = "entry_tag",
+    primaryKeys = ["entryId", "tagId"],
+    foreignKeys = [
+        ForeignKey(entity = EntryEntity::class, parentColumns = ["id"], childColumns = ["entryId"], onDelete = ForeignKey.CASCADE),
+        ForeignKey(entity = TagEntity::class, parentColumns = ["id"], childColumns = ["tagId"], onDelete = ForeignKey.CASCADE)
+    ],
+    indices = [Index("tagId", "entryId")]
+)
+data class EntryTagEntity(
+    val entryId: Long,
+    val tagId: Long
+)
+
+/** A tag and how many live entries carry it. */
+data class TagCount(
+    val name: String,
+    val entryCount: Int
+)
+
+/** Entries carrying tag [name] on local date [day] (yyyy-MM-dd). */
+data class TagDayCount(
+    val name: String,
+    val day: String,
+    val entryCount: Int
+)
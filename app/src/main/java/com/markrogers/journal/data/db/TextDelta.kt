@@ -0,0 +1,191 @@
+package com.markrogers.journal.data.db
+
+import java.io.ByteArrayOutputStream
+
+/**
+ * Word-level text delta, VCDIFF-style: a list of COPY (range of the base) and ADD (literal text)
+ * instructions that rebuild the target from the base.
+ * - Tokens are a word plus its trailing whitespace; matching uses Myers' diff after trimming
+ *   the common prefix/suffix, so a typical edit costs a few bytes plus the inserted words.
+ * - The header carries the base's length and hash: [apply] refuses a base the delta wasn't made against.
+ * - [encode] gives up (null) on rewrites too large to diff cheaply or when the delta wouldn't be smaller.
+ */
+object TextDelta {
+    private const val FORMAT = 1
+    private const val MAX_EDITS = 500 // Myers' D; past this it's a rewrite, store the text instead
+
+    class MismatchedBaseException : IllegalArgumentException("delta was made against a different base")
+
+    fun encode(base: String, target: String): ByteArray? {
+        val a = tokenize(base)
+        val b = tokenize(target)
+        val match = matchTokens(a.tokens, b.tokens) ?: return null
+
+        val out = ByteArrayOutputStream()
+        out.writeVarint(FORMAT.toLong())
+        out.writeVarint(base.length.toLong())
+        out.writeVarint(base.hashCode().toLong() and 0xFFFF_FFFFL)
+
+        var lastCopyEnd = 0
+        var j = 0
+        while (j < b.tokens.size) {
+            if (match[j] >= 0) {
+                // Longest run of target tokens copied from consecutive base tokens
+                val i0 = match[j]
+                var n = 1
+                while (j + n < b.tokens.size && match[j + n] == i0 + n) n++
+                val from = a.starts[i0]
+                val len = a.starts[i0 + n] - from
+                out.writeVarint((len.toLong() shl 1) or 0L)
+                out.writeVarint(zigzag(from - lastCopyEnd))
+                lastCopyEnd = from + len
+                j += n
+            } else {
+                var n = 1
+                while (j + n < b.tokens.size && match[j + n] < 0) n++
+                val bytes = target.substring(b.starts[j], b.starts[j + n]).toByteArray(Charsets.UTF_8)
+                out.writeVarint((bytes.size.toLong() shl 1) or 1L)
+                out.write(bytes)
+                j += n
+            }
+        }
+        val delta = out.toByteArray()
+        return if (delta.size < target.length) delta else null
+    }
+
+    /** Rebuilds the target from [base]; throws [MismatchedBaseException] if [base] isn't the one encoded against. */
+    fun apply(base: String, delta: ByteArray): String {
+        val input = Reader(delta)
+        require(input.varint() == FORMAT.toLong()) { "unknown delta format" }
+        val baseLen = input.varint().toInt()
+        val baseHash = input.varint()
+        if (base.length != baseLen || (base.hashCode().toLong() and 0xFFFF_FFFFL) != baseHash) {
+            throw MismatchedBaseException()
+        }
+        val sb = StringBuilder(base.length)
+        var lastCopyEnd = 0
+        while (!input.atEnd) {
+            val op = input.varint()
+            val len = (op ushr 1).toInt()
+            if (op and 1L == 0L) {
+                val from = lastCopyEnd + unzigzag(input.varint())
+                sb.append(base, from, from + len)
+                lastCopyEnd = from + len
+            } else {
+                sb.append(input.utf8(len))
+            }
+        }
+        return sb.toString()
+    }
+
+    // ---- tokens ----
+
+    /** [starts] has one extra element (the text length), so token t spans starts[t] until starts[t + 1]. */
+    private class Tokens(val tokens: List<String>, val starts: IntArray)
+
+    private fun tokenize(s: String): Tokens {
+        val tokens = ArrayList<String>()
+        val starts = ArrayList<Int>()
+        var i = 0
+        while (i < s.length) {
+            val start = i
+            while (i < s.length && !s[i].isWhitespace()) i++
+            while (i < s.length && s[i].isWhitespace()) i++
+            starts += start
+            tokens += s.substring(start, i)
+        }
+        starts += s.length
+        return Tokens(tokens, starts.toIntArray())
+    }
+
+    /**
+     * For each token of [b], the index of the [a] token it's matched to, or -1 if it's new.
+     * Null when more than [MAX_EDITS] insertions + deletions would be needed.
+     */
+    private fun matchTokens(a: List<String>, b: List<String>): IntArray? {
+        val match = IntArray(b.size) { -1 }
+        var pre = 0
+        while (pre < a.size && pre < b.size && a[pre] == b[pre]) { match[pre] = pre; pre++ }
+        var suf = 0
+        while (suf < a.size - pre && suf < b.size - pre && a[a.size - 1 - suf] == b[b.size - 1 - suf]) {
+            match[b.size - 1 - suf] = a.size - 1 - suf
+            suf++
+        }
+        val n = a.size - pre - suf
+        val m = b.size - pre - suf
+        if (n == 0 || m == 0) return match
+
+        // Myers O(ND): v[k] = furthest x on diagonal k; keep each round's v for the backtrack.
+        val max = n + m
+        val offset = max + 1
+        val v = IntArray(2 * max + 3)
+        val trace = ArrayList<IntArray>()
+        var found = false
+        var d = 0
+        while (d <= minOf(max, MAX_EDITS) && !found) {
+            trace += v.copyOfRange(offset - d - 1, offset + d + 2) // k in [-d-1, d+1]
+            var k = -d
+            while (k <= d) {
+                var x = if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) v[offset + k + 1]
+                else v[offset + k - 1] + 1
+                var y = x - k
+                while (x < n && y < m && a[pre + x] == b[pre + y]) { x++; y++ }
+                v[offset + k] = x
+                if (x >= n && y >= m) { found = true; break }
+                k += 2
+            }
+            d++
+        }
+        if (!found) return null
+
+        var x = n
+        var y = m
+        for (round in trace.indices.reversed()) {
+            val snap = trace[round]
+            fun at(k: Int) = snap[k + round + 1]
+            val k = x - y
+            val prevK = if (k == -round || (k != round && at(k - 1) < at(k + 1))) k + 1 else k - 1
+            val prevX = at(prevK)
+            val prevY = prevX - prevK
+            while (x > prevX && y > prevY) {
+                x--; y--
+                match[pre + y] = pre + x
+            }
+            x = prevX
+            y = prevY
+        }
+        return match
+    }
+
+    // ---- varints ----
+
+    private fun zigzag(v: Int): Long = ((v shl 1) xor (v shr 31)).toLong() and 0xFFFF_FFFFL
+    private fun unzigzag(v: Long): Int = ((v ushr 1) xor -(v and 1)).toInt()
+
+    private fun ByteArrayOutputStream.writeVarint(value: Long) {
+        var v = value
+        while (v and 0x7FL.inv() != 0L) {
+            write(((v and 0x7F) or 0x80).toInt())
+            v = v ushr 7
+        }
+        write(v.toInt())
+    }
+
+    private class Reader(private val bytes: ByteArray) {
+        private var pos = 0
+        val atEnd: Boolean get() = pos >= bytes.size
+
+        fun varint(): Long {
+            var shift = 0
+            var result = 0L
+            while (true) {
+                val b = bytes[pos++].toInt()
+                result = result or ((b and 0x7F).toLong() shl shift)
+                if (b and 0x80 == 0) return result
+                shift += 7
+            }
+        }
+
+        fun utf8(len: Int): String = String(bytes, pos, len, Charsets.UTF_8).also { pos += len }
+    }
+}
@@ -0,0 +1,12 @@
+package com.markrogers.journal.data.model
+
+import java.time.LocalDate
+
+/** One calendar cell's worth of activity (see JournalDao.monthSummary). */
+data class DaySummary(
+    val date: LocalDate,
+    val entryCount: Int,
+    val moodAvg: Float? = null,
+    val sleepHours: Float = 0f,
+    val openTodos: Int = 0
+)
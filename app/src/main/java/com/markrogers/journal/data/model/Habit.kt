@@ -0,0 +1,35 @@
+package com.markrogers.journal.data.model
+
+/**
+ * A user-defined habit. [bit] is its position in JournalEntry.habitMask (0..63);
+ * [color] is ARGB, the same value Compose's Color(Long) takes.
+ */
+data class Habit(val bit: Int, val name: String, val color: Long) {
+    val mask: Long get() = 1L shl bit
+}
+
+object Habits {
+    const val MAX = 64
+
+    /**
+     * Bit 0 doubles as a todo's "done" flag (it was toggleX before habits were configurable).
+     * It is reserved: [freeBit] never hands it out and its habit can't be deleted, since that
+     * would clear every todo's done flag.
+     */
+    const val DONE_BIT = 0
+    const val DONE_MASK = 1L shl DONE_BIT
+
+    /** The four fixed toggles (X, Y, Z, W) the app used to have, in their old colors. */
+    val DEFAULTS = listOf(
+        Habit(0, "X", 0xFF6EE7B7), // green
+        Habit(1, "Y", 0xFFF8D477), // yellow
+        Habit(2, "Z", 0xFFFF6B6B), // red
+        Habit(3, "W", 0xFF60A5FA) // blue
+    )
+
+    /** Lowest bit above [DONE_BIT] no habit in [habits] uses, or null when all are taken. */
+    fun freeBit(habits: List<Habit>): Int? {
+        val used = habits.fold(0L) { m, h -> m or h.mask }
+        return (DONE_BIT + 1 until MAX).firstOrNull { used and (1L shl it) == 0L }
+    }
+}
@@ -9,12 +9,12 @@ data class JournalEntry(
     val body: String,
     val moodEmojis: List<String> = emptyList(),
     val moodRating: Int? = null,
-    val toggleX: Boolean = false,
-    val toggleY: Boolean = false,
-    val toggleZ: Boolean = false,
-    val toggleW: Boolean = false,
+    /** Bit n set = habit n done (see Habit.bit). */
+    val habitMask: Long = 0L,
     val sleepHours: Float = 0f,
     val isPinned: Boolean = false,
     /** Mark entries that were auto-generated or imported as “test” so we can clear them. */
     val isTest: Boolean = false
-)
+) {
+    fun has(habit: Habit): Boolean = habitMask and habit.mask != 0L
+}
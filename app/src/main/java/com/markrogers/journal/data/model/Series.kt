@@ -0,0 +1,7 @@
+package com.markrogers.journal.data.model
+
+/** A user-defined numeric series (weight, steps, ...); [color] is ARGB. */
+data class Series(val id: Long, val name: String, val unit: String, val color: Long)
+
+/** One sample of a series; [time] is epoch seconds. */
+data class SeriesPoint(val time: Long, val value: Double)
@@ -22,7 +22,16 @@ data class AppPrefs(
     val openAiKey: String = "",
     val geminiKey: String = "",
     val provider: AiProvider = AiProvider.NONE,
-    val quickEmojis: List<String> = listOf("😀","🙂","😐","🙁","😴")
+    /** "Fastest wins": hedge to the other provider when both keys are set. */
+    val hedgeProviders: Boolean = false,
+    val quickEmojis: List<String> = listOf("😀","🙂","😐","🙁","😴"),
+    /** Watermark (epoch millis) of the last binary backup; 0 = never. */
+    val lastBackupAt: Long = 0L,
+    /**
+     * Full years kept in the hot database before older ones are archived; 0 = never archive.
+     * Opt-in: archived entries are read-only and only show in Calendar, Metrics and exports.
+     */
+    val archiveAfterYears: Int = 0
 )
 
 class PreferencesRepository(private val context: Context) {
@@ -32,6 +41,9 @@ class PreferencesRepository(private val context: Context) {
         val OPENAI = stringPreferencesKey("openai_key")
         val GEMINI = stringPreferencesKey("gemini_key")
         val PROVIDER = intPreferencesKey("provider")
+        val HEDGE = booleanPreferencesKey("hedge_providers")
+        val LAST_BACKUP = longPreferencesKey("last_backup_at")
+        val ARCHIVE_YEARS = intPreferencesKey("archive_after_years")
         val EM1 = stringPreferencesKey("emoji_1")
         val EM2 = stringPreferencesKey("emoji_2")
         val EM3 = stringPreferencesKey("emoji_3")
@@ -46,13 +58,16 @@ class PreferencesRepository(private val context: Context) {
             openAiKey = p[Keys.OPENAI] ?: "",
             geminiKey = p[Keys.GEMINI] ?: "",
             provider = AiProvider.values().getOrElse(p[Keys.PROVIDER] ?: 0) { AiProvider.NONE },
+            hedgeProviders = p[Keys.HEDGE] ?: false,
             quickEmojis = listOf(
                 p[Keys.EM1] ?: "😀",
                 p[Keys.EM2] ?: "🙂",
                 p[Keys.EM3] ?: "😐",
                 p[Keys.EM4] ?: "🙁",
                 p[Keys.EM5] ?: "😴"
-            )
+            ),
+            lastBackupAt = p[Keys.LAST_BACKUP] ?: 0L,
+            archiveAfterYears = p[Keys.ARCHIVE_YEARS] ?: 0
         )
     }
 
@@ -61,6 +76,9 @@ class PreferencesRepository(private val context: Context) {
     suspend fun setOpenAiKey(key: String) { context.dataStore.edit { it[Keys.OPENAI] = key } }
     suspend fun setGeminiKey(key: String) { context.dataStore.edit { it[Keys.GEMINI] = key } }
     suspend fun setProvider(p: AiProvider) { context.dataStore.edit { it[Keys.PROVIDER] = p.ordinal } }
+    suspend fun setLastBackupAt(millis: Long) { context.dataStore.edit { it[Keys.LAST_BACKUP] = millis } }
+    suspend fun setHedgeProviders(enabled: Boolean) { context.dataStore.edit { it[Keys.HEDGE] = enabled } }
+    suspend fun setArchiveAfterYears(years: Int) { context.dataStore.edit { it[Keys.ARCHIVE_YEARS] = years } }
 
     /** Update one of the 5 quick emoji slots (0..4). */
     suspend fun setQuickEmoji(index: Int, emoji: String) {
@@ -0,0 +1,147 @@
+package com.markrogers.journal.data.repo
+
+import com.markrogers.journal.data.db.DraftDao
+import com.markrogers.journal.data.db.DraftEntity
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.math.roundToInt
+
+/** Editor state as the autosaver sees it. */
+data class Draft(
+    val title: String = "",
+    val body: String = "",
+    val moodEmojis: List<String> = emptyList(),
+    val habitMask: Long = 0L,
+    val sleepHours: Float? = null
+) {
+    /** Nothing the user typed or picked (sleep alone is prefilled, so it doesn't count). */
+    val isBlank: Boolean
+        get() = title.isBlank() && body.isBlank() && moodEmojis.isEmpty() && habitMask == 0L
+}
+
+/**
+ * Persists one editor's [Draft] to the drafts table in the background.
+ * - [onChange] is safe to call per keystroke: it only swaps a reference and pokes a conflated channel.
+ * - A save happens after [idleMs] without changes, or at the latest [maxMs] after the first
+ *   unsaved change, and only if the content hash differs from the last save.
+ * - Hashing and the write run on Dispatchers.IO, never on the UI thread ([scope] and the
+ *   millisecond clock [now] are only replaced by tests, which run the timer in virtual time).
+ * - Content equal to the baseline given to [restore] (the entry being edited, as loaded) isn't
+ *   a draft: it is never written, and reverting to it deletes the stored draft.
+ * - [close] writes anything still pending; [discard] deletes the draft (entry was saved).
+ */
+class DraftAutosaver(
+    private val dao: DraftDao,
+    private val key: String,
+    private val idleMs: Long = 750,
+    private val maxMs: Long = 5_000,
+    private val scope: CoroutineScope = background,
+    private val now: () -> Long = { System.nanoTime() / 1_000_000 }
+) {
+    private val latest = AtomicReference<Draft?>(null)
+    private val changed = Channel<Unit>(Channel.CONFLATED)
+    private val writeLock = Mutex()
+    private var lastSavedHash: Long? = null
+    private var baselineHash: Long? = null
+    @Volatile private var discarded = false
+
+    private val loop = scope.launch {
+        while (true) {
+            changed.receive() // first unsaved change
+            val firstAt = now()
+            while (true) {
+                val leftMs = maxMs - (now() - firstAt)
+                if (leftMs <= 0) break
+                withTimeoutOrNull(minOf(idleMs, leftMs)) { changed.receive() } ?: break
+            }
+            save()
+        }
+    }
+
+    /**
+     * The stored draft, if any. Call before the first [onChange]; [baseline] is what the editor
+     * shows when there is no draft (null for a new entry, where blank is the baseline).
+     */
+    suspend fun restore(baseline: Draft? = null): Draft? = writeLock.withLock {
+        baselineHash = baseline?.contentHash()
+        lastSavedHash = baselineHash
+        val row = dao.get(key) ?: return@withLock null
+        lastSavedHash = row.contentHash
+        Draft(
+            title = row.title,
+            body = row.body,
+            moodEmojis = if (row.moodEmojisCsv.isBlank()) emptyList() else row.moodEmojisCsv.split(","),
+            habitMask = row.habitMask,
+            sleepHours = row.sleepMinutes?.let { it / 60f }
+        )
+    }
+
+    fun onChange(draft: Draft) {
+        if (discarded) return
+        latest.set(draft)
+        changed.trySend(Unit)
+    }
+
+    /** Stops the timer and writes whatever is pending (editor left without saving). */
+    fun close() {
+        loop.cancel()
+        scope.launch { save() }
+    }
+
+    /** The entry was saved for real: drop the draft and ignore later changes. */
+    fun discard() {
+        discarded = true
+        loop.cancel()
+        scope.launch { writeLock.withLock { dao.delete(key) } }
+    }
+
+    private suspend fun save() = writeLock.withLock {
+        if (discarded) return@withLock
+        val d = latest.get() ?: return@withLock
+        val hash = d.contentHash()
+        if (hash == lastSavedHash) return@withLock
+        // Cleared editor, or back to the entry as loaded: nothing worth restoring
+        if (d.isBlank || hash == baselineHash) dao.delete(key)
+        else dao.upsert(
+            DraftEntity(
+                key = key,
+                title = d.title,
+                body = d.body,
+                moodEmojisCsv = d.moodEmojis.joinToString(","),
+                habitMask = d.habitMask,
+                sleepMinutes = d.sleepHours?.let { (it * 60).roundToInt() },
+                contentHash = hash
+            )
+        )
+        lastSavedHash = hash
+    }
+
+    companion object {
+        const val KEY_NEW = "new"
+
+        /** Draft slot for the editor: one for a new entry, one per entry being edited. */
+        fun keyFor(entryId: Long?): String = entryId?.let { "edit:$it" } ?: KEY_NEW
+
+        // Outlives the editor's composition so close() can still flush.
+        private val background = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+        /** 64-bit FNV-1a over every field; a collision only costs one skipped autosave. */
+        private fun Draft.contentHash(): Long {
+            var h = -0x340d631b7bdddcdbL
+            fun mix(s: String) {
+                for (c in s) { h = (h xor c.code.toLong()) * 0x100000001b3L }
+                h = (h xor 0x1FL) * 0x100000001b3L // field separator
+            }
+            mix(title); mix(body); mix(moodEmojis.joinToString(","))
+            mix("$habitMask$sleepHours")
+            return h
+        }
+    }
+}
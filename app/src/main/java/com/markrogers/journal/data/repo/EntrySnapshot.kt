@@ -0,0 +1,156 @@
+package com.markrogers.journal.data.repo
+
+import com.markrogers.journal.data.model.JournalEntry
+import kotlinx.collections.immutable.PersistentList
+import kotlinx.collections.immutable.PersistentMap
+import kotlinx.collections.immutable.persistentHashMapOf
+import kotlinx.collections.immutable.persistentListOf
+import kotlinx.collections.immutable.toPersistentList
+
+/** One row-level change between two [EntrySnapshot] versions. */
+sealed interface EntryChange {
+    val version: Long
+
+    data class Upserted(override val version: Long, val entry: JournalEntry) : EntryChange
+    data class Removed(override val version: Long, val id: Long) : EntryChange
+}
+
+/**
+ * Immutable, versioned view of the timeline.
+ * - [list] (newest first) and [byId] are persistent: a new version shares every untouched
+ *   node with the previous one, so an edit or delete copies O(log n), not the whole list.
+ * - [changesSince] answers "what changed after version v" from a bounded log; null means
+ *   v is too old (or from before an eviction) and the caller should take [list] wholesale.
+ */
+class EntrySnapshot private constructor(
+    val version: Long,
+    val list: PersistentList<JournalEntry>,
+    val byId: PersistentMap<Long, JournalEntry>,
+    private val log: PersistentList<EntryChange>,
+    // changesSince(v) is complete for any v >= this
+    private val oldestKnownVersion: Long
+) {
+    operator fun get(id: Long): JournalEntry? = byId[id]
+
+    fun changesSince(v: Long): List<EntryChange>? = when {
+        v == version -> emptyList()
+        v < oldestKnownVersion || v > version -> null
+        else -> log.filter { it.version > v }
+    }
+
+    /**
+     * Next version for Room's latest [rows] (same order as [list]).
+     * Only rows that differ are touched; returns this when nothing changed.
+     */
+    fun rebase(rows: List<JournalEntry>): EntrySnapshot {
+        val next = version + 1
+        val live = HashSet<Long>(rows.size * 2)
+        rows.forEach { live += it.id }
+
+        val changes = ArrayList<EntryChange>()
+        val ids = byId.builder()
+        rows.forEach { e ->
+            if (byId[e.id] != e) {
+                changes += EntryChange.Upserted(next, e)
+                ids[e.id] = e
+            }
+        }
+        byId.keys.forEach { id ->
+            if (id !in live) {
+                changes += EntryChange.Removed(next, id)
+                ids.remove(id)
+            }
+        }
+        if (changes.isEmpty()) return this
+
+        // Walk the new order and patch the old list in place wherever it disagrees,
+        // keeping [0, idx) equal to rows[0, idx).
+        val b = list.builder()
+        val placed = HashSet<Long>(rows.size * 2)
+        rows.forEachIndexed { idx, e ->
+            while (idx < b.size && b[idx].id != e.id && (b[idx].id !in live || b[idx].id in placed)) {
+                b.removeAt(idx) // deleted, or the stale slot of a row that moved up
+            }
+            if (idx < b.size && b[idx].id == e.id) {
+                if (b[idx] != e) b[idx] = e
+            } else {
+                b.add(idx, e) // inserted, or moved here from further down
+            }
+            placed += e.id
+        }
+        while (b.size > rows.size) b.removeAt(b.size - 1)
+
+        return advance(b.build(), ids.build(), changes)
+    }
+
+    /**
+     * Next version with only the rows in [changed] rewritten (id -> value, null = removed);
+     * each moves by binary search, so nothing else in the list is compared or copied.
+     * The list must be in [WriteOverlay.ORDER], as Room returns it.
+     */
+    fun patch(changed: Map<Long, JournalEntry?>): EntrySnapshot {
+        val next = version + 1
+        val changes = ArrayList<EntryChange>()
+        val b = list.builder()
+        val ids = byId.builder()
+        changed.forEach { (id, e) ->
+            val old = byId[id]
+            if (old == e) return@forEach
+            if (old != null) {
+                val i = b.binarySearch(old, WriteOverlay.ORDER).takeIf { it >= 0 && b[it].id == id }
+                    ?: b.indexOfFirst { it.id == id }
+                if (i >= 0) b.removeAt(i)
+            }
+            if (e != null) {
+                val i = b.binarySearch(e, WriteOverlay.ORDER)
+                b.add(if (i < 0) -(i + 1) else i, e)
+                ids[id] = e
+                changes += EntryChange.Upserted(next, e)
+            } else {
+                ids.remove(id)
+                changes += EntryChange.Removed(next, id)
+            }
+        }
+        if (changes.isEmpty()) return this
+        return advance(b.build(), ids.build(), changes)
+    }
+
+    private fun advance(
+        list: PersistentList<JournalEntry>,
+        byId: PersistentMap<Long, JournalEntry>,
+        changes: List<EntryChange>
+    ): EntrySnapshot {
+        val next = version + 1
+        var newLog = log.addAll(changes)
+        var oldest = oldestKnownVersion
+        if (newLog.size > MAX_LOG) {
+            // Drop whole versions from the front so a partial version is never reported.
+            val cut = newLog[newLog.size - MAX_LOG].version
+            newLog = newLog.removeAll { it.version < cut }
+            oldest = cut - 1
+            if (newLog.size > MAX_LOG) { newLog = persistentListOf(); oldest = next } // one huge version
+        }
+        return EntrySnapshot(next, list, byId, newLog, oldest)
+    }
+
+    /** Keeps only the first [n] rows (memory pressure); history is dropped. */
+    fun truncated(n: Int): EntrySnapshot {
+        if (list.size <= n) return this
+        val head = list.subList(0, n).toPersistentList()
+        return EntrySnapshot(
+            version + 1, head, head.associateByPersistent(), persistentListOf(), version + 1
+        )
+    }
+
+    companion object {
+        private const val MAX_LOG = 512
+
+        val EMPTY = EntrySnapshot(0, persistentListOf(), persistentHashMapOf(), persistentListOf(), 0)
+
+        /** A fresh snapshot of [rows] (e.g. from the on-disk TimelineSnapshot). */
+        fun of(rows: List<JournalEntry>): EntrySnapshot = EMPTY.rebase(rows)
+
+        private fun List<JournalEntry>.associateByPersistent(): PersistentMap<Long, JournalEntry> =
+            persistentHashMapOf<Long, JournalEntry>().builder().also { b -> forEach { b[it.id] = it } }.build()
+    }
+}
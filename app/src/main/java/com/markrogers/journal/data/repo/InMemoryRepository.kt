@@ -1,101 +1,385 @@
 package com.markrogers.journal.data.repo
 
 import android.content.Context
+import android.util.Log
+import androidx.room.InvalidationTracker
+import com.markrogers.journal.analysis.IncrementalSummarizer
+import com.markrogers.journal.data.archive.ArchiveStore
+import com.markrogers.journal.data.cache.CacheGovernor
+import com.markrogers.journal.data.cache.GovernedCache
 import com.markrogers.journal.data.db.AppDatabase
 import com.markrogers.journal.data.db.JournalRepository
+import com.markrogers.journal.data.db.RevisionHeader
+import com.markrogers.journal.data.db.DraftDao
+import com.markrogers.journal.data.db.Hashtags
+import com.markrogers.journal.data.db.SummaryDao
+import com.markrogers.journal.data.db.TagCount
+import com.markrogers.journal.data.db.TagDayCount
+import com.markrogers.journal.data.model.DaySummary
+import com.markrogers.journal.data.model.Habit
+import com.markrogers.journal.data.model.Habits
 import com.markrogers.journal.data.model.JournalEntry
+import com.markrogers.journal.data.model.Series
+import com.markrogers.journal.data.model.SeriesPoint
 import com.markrogers.journal.data.model.TodoItem
+import com.markrogers.journal.data.prefs.PreferencesRepository
+import com.markrogers.journal.data.series.SeriesRepository
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
-import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.onCompletion
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.flow.onStart
+import kotlinx.coroutines.flow.stateIn
+import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.time.Duration
 import java.time.Instant
 import java.time.LocalDate
+import java.time.YearMonth
 import java.time.ZoneId
 import kotlin.random.Random
 
 /**
  * Room-backed facade the UI already uses.
- * - Call initialize(appContext) once (done from AppRoot).
- * - UI reads [entries].
+ * - Call initialize(appContext) once (done by JournalInitializer at startup, and again from AppRoot).
+ * - [entries] is the full timeline; it queries Room only while someone collects it
+ *   (plus 5 s grace for configuration changes). Until Room answers it holds the [TimelineSnapshot].
+ * - Screens that need less subscribe to [entry], [entriesBetween] or [todosOn] instead.
  * - Calendar/Timeline helpers return your app's models.
  */
+@OptIn(ExperimentalCoroutinesApi::class)
 object InMemoryRepository {
     private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
 
     private lateinit var repo: JournalRepository
+    private lateinit var summaryDao: SummaryDao
+    private lateinit var draftDao: DraftDao
+    private lateinit var seriesRepo: SeriesRepository
+    private lateinit var snapshot: TimelineSnapshot
+    private var snapshotJob: Job? = null
 
-    private val _entries = MutableStateFlow<List<JournalEntry>>(emptyList())
-    val entries: StateFlow<List<JournalEntry>> = _entries
+    // Optimistic writes shown before Room confirms them; every read flow applies it.
+    private val overlay = WriteOverlay(scope)
+
+    // Set once initialize() has wired Room; the shared flows wait on it.
+    private val ready = MutableStateFlow<JournalRepository?>(null)
+
+    // Last snapshot we know of (on-disk, then Room); replayed when observation restarts and
+    // rebased onto each Room result. Governed: under memory pressure it's cut to the first
+    // screenful, then dropped. While [snapshots] is being observed its StateFlow holds the same
+    // list, so dropping ours would free nothing: the region reports 0 bytes and refuses to evict.
+    // Once observation stops (replayExpirationMillis = 0) this is the only reference left.
+    @Volatile private var lastKnown: EntrySnapshot = EntrySnapshot.EMPTY
+    @Volatile private var lastKnownBytes = 0L
+    @Volatile private var observed = false
+
+    private val lastKnownCache = object : GovernedCache {
+        override fun estimatedBytes() = if (observed) 0L else lastKnownBytes
+        override fun evictOne(): Boolean {
+            val cur = lastKnown
+            if (observed || cur.list.isEmpty()) return false
+            setLastKnown(cur.truncated(if (cur.list.size > HEAD_ROWS) HEAD_ROWS else 0))
+            return true
+        }
+        override fun clear() {
+            if (!observed) setLastKnown(lastKnown.truncated(0))
+        }
+    }
+    private val lastKnownGovernor = CacheGovernor.register("timeline_entries", lastKnownCache, weight = 4)
+
+    private fun setLastKnown(s: EntrySnapshot) {
+        lastKnown = s
+        lastKnownBytes = s.list.sumOf { 96L + 2L * (it.title.length + it.body.length) + 16L * it.moodEmojis.size }
+    }
+
+    /**
+     * Versioned timeline: consecutive versions share structure, and
+     * [EntrySnapshot.changesSince] tells a collector what changed since the version it last saw.
+     * replayExpirationMillis = 0: once stopped, the StateFlow lets go of its snapshot too.
+     */
+    val snapshots: StateFlow<EntrySnapshot> = ready.filterNotNull()
+        .flatMapLatest { r ->
+            val rows = r.observeAll().onStart {
+                val cached = lastKnown
+                if (cached.list.isNotEmpty()) { lastKnownGovernor.hit(); emit(cached.list) } else lastKnownGovernor.miss()
+            }
+            // A new Room result is diffed in full; an op alone only rewrites the ids it names.
+            var room: List<JournalEntry>? = null
+            var roomById: Map<Long, JournalEntry>? = null
+            var applied: Map<Long, WriteOverlay.Op> = emptyMap()
+            combine(rows, overlay.ops) { list, ops ->
+                val next = if (list !== room) {
+                    room = list
+                    roomById = null
+                    lastKnown.rebase(overlay.applyTo(list, ops.values))
+                } else {
+                    val base = roomById ?: list.associateBy { it.id }.also { roomById = it }
+                    lastKnown.patch(overlay.changedRows(applied, ops) { base[it] })
+                }
+                applied = ops
+                next
+            }
+        }
+        .onEach { s ->
+            setLastKnown(s)
+            saveSnapshot(s.list)
+            lastKnownGovernor.enforce()
+        }
+        .onStart { observed = true }
+        .onCompletion { observed = false }
+        .stateIn(scope, SharingStarted.WhileSubscribed(5_000, replayExpirationMillis = 0), EntrySnapshot.EMPTY)
+
+    /** The timeline list (a PersistentList, newest first). The 5 s grace lives on [snapshots]. */
+    val entries: StateFlow<List<JournalEntry>> = snapshots
+        .map { it.list }
+        .stateIn(scope, SharingStarted.WhileSubscribed(0, replayExpirationMillis = 0), emptyList())
+
+    private val _entriesVersion = MutableStateFlow(0)
+    /** Bumped on every write to the entries table; a cheap change signal that runs no query. */
+    val entriesVersion: StateFlow<Int> = _entriesVersion
 
     @Volatile private var initialized = false
 
+    private val monthSummaries = MonthSummaryCache(scope) { repo.monthSummary(it) }
+
+    /**
+     * Reads the snapshot synchronously, so call it off the main thread when possible.
+     * No query runs here; Room is only observed while a screen collects a flow.
+     */
     fun initialize(appContext: Context) {
         if (initialized) return
         synchronized(this) {
             if (initialized) return
-            val dao = AppDatabase.get(appContext).journalDao()
-            repo = JournalRepository(dao)
-            scope.launch {
-                repo.observeAll().collectLatest { list ->
-                    _entries.value = list
+            val db = AppDatabase.get(appContext)
+            repo = JournalRepository(db, ArchiveStore.get(appContext))
+            summaryDao = db.summaryDao()
+            draftDao = db.draftDao()
+            seriesRepo = SeriesRepository(db)
+            snapshot = TimelineSnapshot(appContext.filesDir)
+            setLastKnown(EntrySnapshot.of(snapshot.read()))
+            // Table-level invalidation is free (no query), so cached month summaries stay correct
+            // even while nobody observes the entries.
+            db.invalidationTracker.addObserver(object : InvalidationTracker.Observer("entries") {
+                override fun onInvalidated(tables: Set<String>) {
+                    monthSummaries.invalidate()
+                    _entriesVersion.update { it + 1 }
                 }
-            }
+            })
             initialized = true
+            ready.value = repo
+            scope.launch {
+                repo.purgeDeleted(TOMBSTONE_RETENTION)
+                archive(PreferencesRepository(appContext).prefsFlow.first().archiveAfterYears)
+            }
+        }
+    }
+
+    /**
+     * Moves entries from before the last [years] full years into the per-year archives (0 = off).
+     * Whole years only, so each archive file is complete once written.
+     */
+    fun archiveOlderThan(years: Int) {
+        scope.launch { archive(years) }
+    }
+
+    private suspend fun archive(years: Int) {
+        if (years <= 0) return
+        val r = ready.filterNotNull().first()
+        archiveLock.withLock {
+            try {
+                val moved = r.archiveBefore(ArchiveStore.cutoffFor(years))
+                if (moved > 0) Log.i(TAG, "Archived $moved entries")
+            } catch (e: Exception) {
+                Log.w(TAG, "Archiving failed; will retry next start", e)
+            }
+        }
+    }
+
+    /** Rewrites the snapshot once the list has been quiet for a moment (bulk imports emit a lot). */
+    private fun saveSnapshot(list: List<JournalEntry>) {
+        synchronized(this) {
+            snapshotJob?.cancel()
+            snapshotJob = scope.launch {
+                delay(SNAPSHOT_DEBOUNCE_MS)
+                snapshot.write(list)
+            }
+        }
+    }
+
+    private const val TAG = "InMemoryRepository"
+    private const val SNAPSHOT_DEBOUNCE_MS = 1_000L
+    private const val HEAD_ROWS = 30 // TimelineSnapshot's default limit
+
+    private val archiveLock = Mutex() // startup run vs. a Settings change
+
+    /** How long soft-deleted entries are kept before the startup purge removes them. */
+    private val TOMBSTONE_RETENTION: Duration = Duration.ofDays(30)
+
+    /** One entry, or null once it's deleted. */
+    fun entry(id: Long): Flow<JournalEntry?> =
+        ready.filterNotNull().flatMapLatest { r ->
+            combine(r.observeById(id), overlay.ops) { row, ops ->
+                overlay.applyTo(listOfNotNull(row), ops.values) { it.id == id }.firstOrNull()
+            }
+        }
+
+    /** Earlier versions of entry [id], newest first (EntryDetail history). */
+    fun revisions(id: Long): Flow<List<RevisionHeader>> =
+        ready.filterNotNull().flatMapLatest { it.observeRevisions(id) }
+
+    /** Body of one past version, rebuilt on demand; null if it can't be reconstructed. */
+    suspend fun revisionBody(id: Long, revision: Int): String? =
+        ready.filterNotNull().first().revisionBody(id, revision)
+
+    /** Entries tagged [tag] (Timeline filter), with pending writes applied. */
+    fun entriesTagged(tag: String): Flow<List<JournalEntry>> =
+        ready.filterNotNull().flatMapLatest { r ->
+            combine(r.observeTagged(tag), overlay.ops) { rows, ops ->
+                overlay.applyTo(rows, ops.values) { tag in Hashtags.extract(it.title, it.body) }
+            }
+        }
+
+    /** Most used tags, most used first (Timeline chips). */
+    fun topTags(limit: Int = 12): Flow<List<TagCount>> =
+        ready.filterNotNull().flatMapLatest { it.observeTopTags(limit) }
+
+    /** Per-tag, per-day counts for local dates [from]..[to] (Metrics). */
+    fun tagCountsBetween(from: LocalDate, to: LocalDate): Flow<List<TagDayCount>> {
+        val zone = ZoneId.systemDefault()
+        val start = from.atStartOfDay(zone).toInstant()
+        val end = to.plusDays(1).atStartOfDay(zone).toInstant()
+        return ready.filterNotNull().flatMapLatest { it.observeTagDayCounts(start, end) }
+    }
+
+    /** Entries created on local dates [from]..[to] (inclusive), newest first. */
+    fun entriesBetween(from: LocalDate, to: LocalDate): Flow<List<JournalEntry>> {
+        val zone = ZoneId.systemDefault()
+        val start = from.atStartOfDay(zone).toInstant()
+        val end = to.plusDays(1).atStartOfDay(zone).toInstant()
+        return ready.filterNotNull().flatMapLatest { r ->
+            combine(r.observeBetween(start, end), overlay.ops) { rows, ops ->
+                overlay.applyTo(rows, ops.values) { it.createdAt >= start && it.createdAt < end }
+            }
+        }
+    }
+
+    /**
+     * Shows [op] immediately, runs [write] on the repository scope, then swaps in the real id
+     * [write] returns (new rows) or rolls the op back if the write throws.
+     */
+    private fun optimistic(op: WriteOverlay.Op, write: suspend () -> Long?) {
+        val token = overlay.begin(op)
+        scope.launch {
+            try {
+                overlay.confirm(token, write())
+            } catch (e: Exception) {
+                Log.w(TAG, "Write failed; rolling back", e)
+                overlay.rollback(token)
+            }
         }
     }
 
+    // A row shown under a temp id (its insert still pending) is written once Room has its real id
+    private suspend fun roomId(id: Long): Long =
+        overlay.resolve(id) ?: throw IllegalStateException("Entry $id was never saved")
+
+    /** One-shot read of entries created at or after [since] (Analyze). */
+    suspend fun entriesSince(since: Instant): List<JournalEntry> =
+        ready.filterNotNull().first().getBetween(since, Instant.MAX)
+
+    /** One-shot read of every entry (export). */
+    suspend fun allEntries(): List<JournalEntry> = ready.filterNotNull().first().getAllOnce()
+
+    /** Local dates of the oldest and newest entry, or null for an empty journal. */
+    suspend fun dateRange(): ClosedRange<LocalDate>? = ready.filterNotNull().first().dateRange()
+
     fun addEntry(
         title: String,
         body: String,
         moodEmojis: List<String>,
         moodRating: Int?,
-        toggleX: Boolean,
-        toggleY: Boolean,
-        toggleZ: Boolean,
-        toggleW: Boolean,
+        habitMask: Long,
         sleepHours: Float
     ) {
-        scope.launch {
-            repo.upsert(
-                JournalEntry(
-                    id = 0L, // 0L => auto-generate in Room
-                    createdAt = Instant.now(),
-                    title = title,
-                    body = body,
-                    moodEmojis = moodEmojis,
-                    moodRating = moodRating,
-                    toggleX = toggleX,
-                    toggleY = toggleY,
-                    toggleZ = toggleZ,
-                    toggleW = toggleW,
-                    sleepHours = sleepHours
-                )
-            )
+        val entry = JournalEntry(
+            id = overlay.tempId(), // shown under a temp id; Room assigns the real one
+            createdAt = Instant.now(),
+            title = title,
+            body = body,
+            moodEmojis = moodEmojis,
+            moodRating = moodRating,
+            habitMask = habitMask,
+            sleepHours = sleepHours
+        )
+        optimistic(WriteOverlay.Op.Put(entry)) {
+            repo.upsert(entry.copy(id = 0L)) // 0L => auto-generate in Room
         }
     }
 
     fun clearAll() {
-        scope.launch { repo.clearAll() }
+        scope.launch {
+            repo.clearAll()
+            summaryDao.clearAll() // cached AI summaries quote entry content
+            draftDao.clearAll()
+            seriesRepo.clearPoints()
+        }
+    }
+
+    /**
+     * Saves [edited] over [original] (same id). Only the columns that differ are written,
+     * both to Room and to the overlay, so the row is updated in place rather than replaced.
+     */
+    fun editEntry(original: JournalEntry, edited: JournalEntry) {
+        if (edited == original) return
+        optimistic(WriteOverlay.Op.Patch.edit(original, edited)) {
+            val id = roomId(original.id)
+            repo.applyEdit(original.copy(id = id), edited.copy(id = id)); null
+        }
     }
 
-    /** Permanently deletes an entry by id (used by Timeline swipe-to-dismiss). */
+    /**
+     * Soft-deletes an entry by id (Timeline swipe-to-dismiss); purged after [TOMBSTONE_RETENTION].
+     * An unsaved edit of it goes too: the editor can't reopen a deleted entry to resume it.
+     */
     fun deleteEntry(id: Long) {
-        scope.launch { repo.deleteById(id) }
+        optimistic(WriteOverlay.Op.Remove(id)) {
+            val realId = roomId(id)
+            val day = repo.getById(realId)?.createdAt?.atZone(ZoneId.systemDefault())?.toLocalDate()
+            repo.markDeleted(realId)
+            draftDao.delete(DraftAutosaver.keyFor(realId))
+            // Cached AI summaries quoting the entry go with it
+            if (day != null) summaryDao.deleteAll(IncrementalSummarizer.keysFor(day))
+            null
+        }
     }
 
     /**
      * Restores an entry after delete (Snackbar “Undo”).
-     * Reinserts the same content; using id = 0L so Room auto-generates a new PK.
-     * The original createdAt is preserved.
+     * Clears the tombstone, so the row comes back with its original id (stable list keys).
      */
     fun restoreEntry(e: JournalEntry) {
-        scope.launch {
-            repo.upsert(e.copy(id = 0L))
-        }
+        optimistic(WriteOverlay.Op.Put(e)) { repo.undelete(roomId(e.id)); null }
+    }
+
+    /** Inserts [list] as new rows in one transaction; returns once written (throws if it wasn't). */
+    suspend fun importEntries(list: List<JournalEntry>): Int {
+        ready.filterNotNull().first().upsertAll(list.map { it.copy(id = 0L) })
+        return list.size
     }
 
     /** Demo data generator (used by Metrics) */
@@ -106,6 +390,7 @@ object InMemoryRepository {
                 .toList()
 
             val zone = ZoneId.systemDefault()
+            val defined = repo.observeHabits().first().fold(0L) { m, h -> m or h.mask }
             val list = days.map { d ->
                 val hrs = 4.5f + Random.nextFloat() * 4.5f
                 val created = d.atStartOfDay(zone).toInstant()
@@ -116,10 +401,7 @@ object InMemoryRepository {
                     body = "",
                     moodEmojis = emptyList(),
                     moodRating = listOf(1, 2, 3, 4, 5).random(),
-                    toggleX = Random.nextBoolean(),
-                    toggleY = Random.nextBoolean(),
-                    toggleZ = Random.nextBoolean(),
-                    toggleW = Random.nextBoolean(),
+                    habitMask = Random.nextLong() and defined,
                     sleepHours = hrs
                 )
             }
@@ -130,52 +412,108 @@ object InMemoryRepository {
     // -------------------- Calendar / Timeline helpers (use your app models) --------------------
 
     /**
-     * Returns todos for a given date using your TodoItem model.
-     * Rule: any entry with a non-blank title is considered a todo; toggleX = done.
+     * Todos for a given date using your TodoItem model (observes that day only).
+     * Rule: any entry with a non-blank title is considered a todo; habit bit 0 = done.
      */
-    fun todosOn(date: LocalDate): List<TodoItem> {
-        val zone = ZoneId.systemDefault()
-        return _entries.value
-            .filter { it.createdAt.atZone(zone).toLocalDate() == date && it.title.isNotBlank() }
-            .map { e ->
-                TodoItem(
-                    id = e.id,
-                    date = date,
-                    text = e.title,
-                    done = e.toggleX
-                )
-            }
+    fun todosOn(date: LocalDate): Flow<List<TodoItem>> =
+        entriesBetween(date, date).map { list ->
+            list.filter { it.title.isNotBlank() }
+                .map { e ->
+                    TodoItem(
+                        id = e.id,
+                        date = date,
+                        text = e.title,
+                        done = e.habitMask and Habits.DONE_MASK != 0L
+                    )
+                }
+        }
+
+    /** Cached per-day summary for [month], or null if it hasn't been loaded yet. */
+    fun cachedMonthSummary(month: YearMonth): Map<LocalDate, DaySummary>? =
+        monthSummaries.peek(month)
+
+    /**
+     * Per-day summary for [month] (one grouped query, cached).
+     * Also prefetches the neighbouring months so paging feels instant.
+     */
+    suspend fun monthSummary(month: YearMonth): Map<LocalDate, DaySummary> {
+        val result = monthSummaries.get(month)
+        monthSummaries.prefetchAround(month)
+        return result
     }
 
     /** Adds a todo on the specified date (stored as a JournalEntry). */
     fun addTodo(date: LocalDate, text: String) {
         val created = date.atStartOfDay(ZoneId.systemDefault()).toInstant()
-        scope.launch {
-            repo.upsert(
-                JournalEntry(
-                    id = 0L,
-                    createdAt = created,
-                    title = text,
-                    body = "",
-                    moodEmojis = emptyList(),
-                    moodRating = null,
-                    toggleX = false, // not done yet
-                    toggleY = false,
-                    toggleZ = false,
-                    toggleW = false,
-                    sleepHours = 0f
-                )
-            )
+        val entry = JournalEntry(
+            id = overlay.tempId(),
+            createdAt = created,
+            title = text,
+            body = "",
+            moodEmojis = emptyList(),
+            moodRating = null,
+            habitMask = 0L, // not done yet
+            sleepHours = 0f
+        )
+        optimistic(WriteOverlay.Op.Put(entry)) { repo.upsert(entry.copy(id = 0L)) }
+    }
+
+    /** Sets the todo's done state (habit bit 0). Absolute, so a repeated tap can't double-flip. */
+    fun toggleTodo(id: Long, done: Boolean) {
+        val change: (JournalEntry) -> JournalEntry = {
+            it.copy(habitMask = if (done) it.habitMask or Habits.DONE_MASK else it.habitMask and Habits.DONE_MASK.inv())
+        }
+        optimistic(WriteOverlay.Op.Patch(id, change)) {
+            repo.setHabits(roomId(id), Habits.DONE_MASK, done); null
         }
     }
 
-    /** Toggles the todo's done state (maps to toggleX). */
-    fun toggleTodo(id: Long) {
-        val current = _entries.value.firstOrNull { it.id == id } ?: return
+    // -------------------- Habits --------------------
+
+    /** Habit definitions (name, color, bit), in bit order. */
+    fun habits(): Flow<List<Habit>> = ready.filterNotNull().flatMapLatest { it.observeHabits() }
+
+    /** Adds or renames/recolors a habit; its bit is its identity. */
+    fun saveHabit(habit: Habit) {
+        require(habit.bit in 0 until Habits.MAX) { "habit bit out of range: ${habit.bit}" }
+        scope.launch { ready.filterNotNull().first().saveHabit(habit) }
+    }
+
+    /**
+     * Deletes a habit and clears its bit on every entry, so the bit is free for a new one.
+     * [Habits.DONE_BIT] can't be deleted: clearing it would reopen every todo.
+     */
+    fun deleteHabit(bit: Int) {
+        require(bit != Habits.DONE_BIT) { "bit ${Habits.DONE_BIT} is the todo done flag" }
+        scope.launch { ready.filterNotNull().first().deleteHabit(bit) }
+    }
+
+    // -------------------- Numeric series (weight, steps, ...) --------------------
+
+    fun series(): Flow<List<Series>> = ready.filterNotNull().flatMapLatest { seriesRepo.observeSeries() }
+
+    /** Id of the new series, or null if the name is taken. */
+    suspend fun createSeries(name: String, unit: String, color: Long): Long? {
+        ready.filterNotNull().first()
+        return seriesRepo.createSeries(name.trim(), unit.trim(), color)
+    }
+
+    /** Records [value] for local [date] (one point per day; logging again replaces it). */
+    fun logValue(seriesId: Long, date: LocalDate, value: Double) {
+        val time = date.atStartOfDay(ZoneId.systemDefault()).toEpochSecond()
         scope.launch {
-            repo.upsert(current.copy(toggleX = !current.toggleX))
+            ready.filterNotNull().first()
+            seriesRepo.append(seriesId, time, value)
         }
     }
 
+    /** Points of [seriesId] on local dates [from]..[to], oldest first. */
+    fun seriesBetween(seriesId: Long, from: LocalDate, to: LocalDate): Flow<List<SeriesPoint>> {
+        val zone = ZoneId.systemDefault()
+        val start = from.atStartOfDay(zone).toEpochSecond()
+        val end = to.plusDays(1).atStartOfDay(zone).toEpochSecond()
+        return ready.filterNotNull().flatMapLatest { seriesRepo.observe(seriesId, start, end) }
+    }
+
     // -------------------------------------------------------------------------------
 }
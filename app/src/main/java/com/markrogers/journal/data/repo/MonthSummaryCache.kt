@@ -0,0 +1,98 @@
+package com.markrogers.journal.data.repo
+
+import com.markrogers.journal.data.cache.CacheGovernor
+import com.markrogers.journal.data.cache.GovernedCache
+import com.markrogers.journal.data.model.DaySummary
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+import java.time.LocalDate
+import java.time.YearMonth
+
+/**
+ * Small LRU of calendar month summaries.
+ * - [peek] is synchronous so the grid can paint a cached month on the first frame.
+ * - [get] loads through [loader] once; concurrent callers share the same in-flight load.
+ * - [prefetchAround] warms the previous/next month so Prev/Next are hits.
+ * - [invalidate] drops everything (called whenever the entries table changes).
+ * - Registered with [CacheGovernor], which may evict the LRU month under memory pressure.
+ */
+class MonthSummaryCache(
+    private val scope: CoroutineScope,
+    private val capacity: Int = 6,
+    private val loader: suspend (YearMonth) -> Map<LocalDate, DaySummary>
+) : GovernedCache {
+    private val months = object : LinkedHashMap<YearMonth, Map<LocalDate, DaySummary>>(capacity, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<YearMonth, Map<LocalDate, DaySummary>>?) =
+            size > capacity
+    }
+    private val inFlight = HashMap<YearMonth, Deferred<Map<LocalDate, DaySummary>>>()
+
+    // Bumped on invalidate so a load that started before it can't repopulate stale data.
+    private var generation = 0
+
+    private val governor = CacheGovernor.register("month_summaries", this, weight = 2)
+
+    fun peek(month: YearMonth): Map<LocalDate, DaySummary>? =
+        synchronized(this) { months[month] }
+
+    suspend fun get(month: YearMonth): Map<LocalDate, DaySummary> {
+        peek(month)?.let { governor.hit(); return it }
+        governor.miss()
+        return load(month).await()
+    }
+
+    fun prefetchAround(month: YearMonth) {
+        listOf(month.minusMonths(1), month.plusMonths(1)).forEach { m ->
+            if (peek(m) == null) load(m)
+        }
+    }
+
+    fun invalidate() {
+        synchronized(this) {
+            generation++
+            months.clear()
+            inFlight.clear()
+        }
+    }
+
+    // ~ LocalDate key + DaySummary + map node per day, plus the month's own map.
+    override fun estimatedBytes(): Long =
+        synchronized(this) { months.values.sumOf { 96L + it.size * 160L } }
+
+    override fun evictOne(): Boolean {
+        synchronized(this) {
+            val eldest = months.keys.firstOrNull() ?: return false
+            months.remove(eldest)
+            return true
+        }
+    }
+
+    // Unlike invalidate(), in-flight loads may still land: their data isn't stale.
+    override fun clear() {
+        synchronized(this) { months.clear() }
+    }
+
+    private fun load(month: YearMonth): Deferred<Map<LocalDate, DaySummary>> {
+        synchronized(this) {
+            inFlight[month]?.let { return it }
+            val gen = generation
+            val job = scope.async {
+                try {
+                    loader(month).also { result ->
+                        synchronized(this@MonthSummaryCache) {
+                            if (gen == generation) months[month] = result
+                        }
+                        governor.enforce() // outside our lock; the governor calls back into evictOne
+                    }
+                } finally {
+                    synchronized(this@MonthSummaryCache) {
+                        if (gen == generation) inFlight.remove(month)
+                    }
+                }
+            }
+            inFlight[month] = job
+            return job
+        }
+    }
+}
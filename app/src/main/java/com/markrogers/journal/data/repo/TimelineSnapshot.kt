@@ -0,0 +1,106 @@
+package com.markrogers.journal.data.repo
+
+import android.util.AtomicFile
+import com.markrogers.journal.data.model.JournalEntry
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.time.Instant
+
+/**
+ * Tiny on-disk copy of the newest timeline rows, so the first frame isn't empty
+ * while Room opens and runs its first query.
+ * - [read] is synchronous; call it off the main thread.
+ * - [write] goes through AtomicFile, so a crash mid-write leaves the previous snapshot.
+ * - A missing, old-format or corrupt file reads as empty; Room is always the source of truth.
+ */
+class TimelineSnapshot(dir: File, private val limit: Int = 30) {
+    private val file = AtomicFile(File(dir, "timeline.snapshot"))
+
+    // What we last wrote, so unchanged head rows don't rewrite the file.
+    @Volatile private var lastWritten: List<JournalEntry>? = null
+
+    fun read(): List<JournalEntry> {
+        return try {
+            // In memory (it's a few rows), so string lengths can be checked against what's left
+            DataInputStream(ByteArrayInputStream(file.readFully())).use { input ->
+                if (input.readInt() != MAGIC) return emptyList()
+                val n = input.readInt().coerceIn(0, limit)
+                List(n) { input.readEntry() }.also { lastWritten = it }
+            }
+        } catch (e: Exception) {
+            emptyList() // missing on first launch, or truncated/corrupt
+        }
+    }
+
+    /** Persists the first [limit] of [entries] (already newest-first). */
+    fun write(entries: List<JournalEntry>) {
+        val head = entries.take(limit)
+        if (head == lastWritten) return
+        val fos = try { file.startWrite() } catch (e: IOException) { return }
+        try {
+            val out = DataOutputStream(fos.buffered())
+            out.writeInt(MAGIC)
+            out.writeInt(head.size)
+            head.forEach { out.writeEntry(it) }
+            out.flush()
+            file.finishWrite(fos)
+            lastWritten = head
+        } catch (e: IOException) {
+            file.failWrite(fos)
+        }
+    }
+
+    private fun DataOutputStream.writeEntry(e: JournalEntry) {
+        writeLong(e.id)
+        writeLong(e.createdAt.epochSecond)
+        writeString(e.title)
+        writeString(e.body)
+        writeString(e.moodEmojis.joinToString(","))
+        writeInt(e.moodRating ?: 0)
+        writeLong(e.habitMask)
+        writeFloat(e.sleepHours)
+    }
+
+    private fun DataInputStream.readEntry(): JournalEntry {
+        val id = readLong()
+        val created = Instant.ofEpochSecond(readLong())
+        val title = readString()
+        val body = readString()
+        val emojis = readString().let { if (it.isBlank()) emptyList() else it.split(",") }
+        val mood = readInt().takeIf { it != 0 }
+        val habits = readLong()
+        return JournalEntry(
+            id = id,
+            createdAt = created,
+            title = title,
+            body = body,
+            moodEmojis = emojis,
+            moodRating = mood,
+            habitMask = habits,
+            sleepHours = readFloat()
+        )
+    }
+
+    // writeUTF caps strings at 64 KB; bodies can be longer.
+    private fun DataOutputStream.writeString(s: String) {
+        val bytes = s.toByteArray(Charsets.UTF_8)
+        writeInt(bytes.size)
+        write(bytes)
+    }
+
+    // A corrupt length must fail as an IOException here, not as an OutOfMemoryError in ByteArray
+    private fun DataInputStream.readString(): String {
+        val len = readInt()
+        if (len < 0 || len > available()) throw IOException("Corrupt snapshot: string of $len bytes")
+        val bytes = ByteArray(len)
+        readFully(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    private companion object {
+        const val MAGIC = 0x4A54_5302 // "JTS" + format version 2 (64-bit habit mask)
+    }
+}
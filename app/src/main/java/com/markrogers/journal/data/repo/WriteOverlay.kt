@@ -0,0 +1,191 @@
+package com.markrogers.journal.data.repo
+
+import com.markrogers.journal.data.model.JournalEntry
+import kotlinx.collections.immutable.PersistentMap
+import kotlinx.collections.immutable.persistentMapOf
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.launch
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Pending writes laid over Room results, so a save shows up on the next frame instead of
+ * after commit + invalidation + re-query.
+ * - [begin] registers an op; new rows get a negative [tempId] until Room assigns one.
+ * - [confirm] swaps the temp id for the real one in a single state update (in every pending op
+ *   naming it, so a toggle or delete made before the insert landed still applies), then keeps
+ *   the op for [graceMs] so there's no gap before Room re-emits; [rollback] drops it at once.
+ * - Writes to a row the UI only knows by its temp id wait in [resolve] for the real one.
+ * - Ops are absolute (set this row to X), so applying one to a row Room already updated is harmless.
+ */
+class WriteOverlay(private val scope: CoroutineScope, private val graceMs: Long = 2_000) {
+    sealed interface Op {
+        /** The row this op writes. */
+        val id: Long
+
+        /** The same op, aimed at row [id]. */
+        fun withId(id: Long): Op = when (this) {
+            is Put -> Put(entry.copy(id = id))
+            is Patch -> Patch(id, change)
+            is Remove -> Remove(id)
+        }
+
+        /** Insert or replace a whole row. */
+        data class Put(val entry: JournalEntry) : Op {
+            override val id: Long get() = entry.id
+        }
+
+        /** Rewrite a row Room already has (e.g. set done = true); skipped if the row isn't in view. */
+        class Patch(override val id: Long, val change: (JournalEntry) -> JournalEntry) : Op {
+            companion object {
+                /**
+                 * The overlay side of JournalDao.applyEdit: only the fields [edited] changed from
+                 * [original] are set (habits bit by bit), so a write to any other field that lands
+                 * while the edit is pending still shows.
+                 */
+                fun edit(original: JournalEntry, edited: JournalEntry) = Patch(original.id) { cur ->
+                    val turnedOn = edited.habitMask and original.habitMask.inv()
+                    val turnedOff = original.habitMask and edited.habitMask.inv()
+                    val moodChanged = edited.moodEmojis != original.moodEmojis || edited.moodRating != original.moodRating
+                    cur.copy(
+                        title = if (edited.title != original.title) edited.title else cur.title,
+                        body = if (edited.body != original.body) edited.body else cur.body,
+                        moodEmojis = if (moodChanged) edited.moodEmojis else cur.moodEmojis,
+                        moodRating = if (moodChanged) edited.moodRating else cur.moodRating,
+                        habitMask = (cur.habitMask or turnedOn) and turnedOff.inv(),
+                        sleepHours = if (edited.sleepHours != original.sleepHours) edited.sleepHours else cur.sleepHours
+                    )
+                }
+            }
+        }
+
+        data class Remove(override val id: Long) : Op
+    }
+
+    private val nextTempId = AtomicLong(-1)
+    private val nextToken = AtomicLong()
+
+    // Temp id -> real id (null: the insert failed), completed by confirm/rollback of its Put
+    private val realIds = ConcurrentHashMap<Long, CompletableDeferred<Long?>>()
+
+    // Insertion-ordered, so ops replay in the order they were made.
+    private val _ops = MutableStateFlow<PersistentMap<Long, Op>>(persistentMapOf())
+    val ops: StateFlow<PersistentMap<Long, Op>> = _ops
+
+    fun tempId(): Long = nextTempId.getAndDecrement().also { realIds[it] = CompletableDeferred() }
+
+    fun begin(op: Op): Long {
+        val token = nextToken.incrementAndGet()
+        // A temp id confirmed since the caller read it is already replaced everywhere else
+        _ops.update { it.put(token, realIdOf(op.id)?.let(op::withId) ?: op) }
+        return token
+    }
+
+    /** Room's id for [id]: itself unless it's a temp id, else once its insert lands (null if it failed). */
+    suspend fun resolve(id: Long): Long? = if (id >= 0) id else realIds[id]?.await()
+
+    fun confirm(token: Long, realId: Long?) {
+        val put = _ops.value[token] as? Op.Put
+        val tempId = put?.id?.takeIf { it < 0 }
+        if (tempId != null && realId != null) {
+            realIds[tempId]?.complete(realId)
+            _ops.update { m ->
+                var out = m
+                m.forEach { (t, op) -> if (op.id == tempId) out = out.put(t, op.withId(realId)) } // keeps order
+                out
+            }
+        } else if (tempId != null) {
+            realIds[tempId]?.complete(null)
+        }
+        scope.launch {
+            delay(graceMs)
+            _ops.update { it.remove(token) }
+        }
+    }
+
+    fun rollback(token: Long) {
+        (_ops.value[token] as? Op.Put)?.id?.takeIf { it < 0 }?.let { realIds[it]?.complete(null) }
+        _ops.update { it.remove(token) }
+    }
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private fun realIdOf(id: Long): Long? =
+        if (id >= 0) null else realIds[id]?.takeIf { it.isCompleted }?.getCompleted()
+
+    /**
+     * [rows] (newest first) with [ops] applied. [include] is the query's own filter, so an op
+     * that moves a row out of (or into) a narrow query's range is honoured.
+     * Ops are folded per id first, so the list is walked once to find the touched rows and once
+     * more to merge the results back in, however many ops there are.
+     */
+    fun applyTo(
+        rows: List<JournalEntry>,
+        ops: Collection<Op>,
+        include: (JournalEntry) -> Boolean = { true }
+    ): List<JournalEntry> {
+        if (ops.isEmpty()) return rows
+        val byId = ops.groupBy { it.id }
+        val base = HashMap<Long, JournalEntry>(byId.size * 2)
+        rows.forEach { if (it.id in byId) base[it.id] = it }
+
+        val changed = HashMap<Long, JournalEntry?>(byId.size * 2)
+        byId.forEach { (id, idOps) ->
+            val before = base[id]
+            val after = fold(before, idOps, include)
+            if (after != before) changed[id] = after
+        }
+        if (changed.isEmpty()) return rows
+
+        val inserts = changed.values.filterNotNull().sortedWith(ORDER)
+        val out = ArrayList<JournalEntry>(rows.size + inserts.size)
+        var j = 0
+        for (e in rows) {
+            if (e.id in changed) continue
+            while (j < inserts.size && ORDER.compare(inserts[j], e) < 0) out += inserts[j++]
+            out += e
+        }
+        while (j < inserts.size) out += inserts[j++]
+        return out
+    }
+
+    /**
+     * Rows whose overlaid value differs between op sets [before] and [after] over the same
+     * Room result: id -> new value, null = not in view. [base] looks a row up in that result.
+     * Only ids named by an added, removed or replaced op are recomputed.
+     */
+    fun changedRows(
+        before: Map<Long, Op>,
+        after: Map<Long, Op>,
+        base: (Long) -> JournalEntry?
+    ): Map<Long, JournalEntry?> {
+        val ids = HashSet<Long>()
+        before.forEach { (token, op) -> if (after[token] != op) ids += op.id }
+        after.forEach { (token, op) -> if (before[token] != op) ids += op.id }
+        if (ids.isEmpty()) return emptyMap()
+        val byId = after.values.filter { it.id in ids }.groupBy { it.id }
+        return ids.associateWith { id -> fold(base(id), byId[id].orEmpty()) { true } }
+    }
+
+    // [row] after [ops] (all naming its id, in the order they were made).
+    private fun fold(row: JournalEntry?, ops: List<Op>, include: (JournalEntry) -> Boolean): JournalEntry? {
+        var cur = row
+        for (op in ops) cur = when (op) {
+            is Op.Put -> op.entry.takeIf(include)
+            is Op.Patch -> cur?.let(op.change)?.takeIf(include)
+            is Op.Remove -> null
+        }
+        return cur
+    }
+
+    companion object {
+        /** The DAO's order: createdAt DESC, id DESC. */
+        val ORDER: Comparator<JournalEntry> =
+            compareByDescending<JournalEntry> { it.createdAt }.thenByDescending { it.id }
+    }
+}
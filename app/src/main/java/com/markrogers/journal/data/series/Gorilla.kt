@@ -0,0 +1,154 @@
+package com.markrogers.journal.data.series
+
+import kotlin.math.min
+
+/**
+ * Gorilla-style compression (Facebook's in-memory TSDB) for one chunk of time-ordered points.
+ * - Timestamps (epoch seconds) are delta-of-delta coded in prefix buckets: a steady cadence
+ *   (one value per day at the same time) costs 1 bit per point.
+ * - Values (doubles) are XORed with the previous one: an unchanged value costs 1 bit, a changed
+ *   one only its meaningful bits, reusing the previous leading/trailing-zero window when it fits.
+ * - The stream doesn't carry its point count; the chunk row does (SeriesChunkEntity.pointCount).
+ */
+object Gorilla {
+    /** Encodes the first [n] points; [times] must be non-decreasing. */
+    fun encode(times: LongArray, values: DoubleArray, n: Int = times.size): ByteArray {
+        if (n == 0) return ByteArray(0)
+        val w = BitWriter(16 + n * 2)
+        w.write(times[0], 64)
+        w.write(values[0].toRawBits(), 64)
+
+        var prevTime = times[0]
+        var prevDelta = 0L
+        var prevBits = values[0].toRawBits()
+        var prevLead = -1 // no window yet
+        var prevTrail = 0
+        for (i in 1 until n) {
+            val delta = times[i] - prevTime
+            val dod = delta - prevDelta
+            when (dod) {
+                0L -> w.write(0, 1)
+                in -63L..64L -> { w.write(0b10, 2); w.write(dod + 63, 7) }
+                in -255L..256L -> { w.write(0b110, 3); w.write(dod + 255, 9) }
+                in -2047L..2048L -> { w.write(0b1110, 4); w.write(dod + 2047, 12) }
+                in Int.MIN_VALUE.toLong()..Int.MAX_VALUE.toLong() -> { w.write(0b11110, 5); w.write(dod, 32) }
+                else -> { w.write(0b11111, 5); w.write(dod, 64) }
+            }
+            prevDelta = delta
+            prevTime = times[i]
+
+            val bits = values[i].toRawBits()
+            val xor = bits xor prevBits
+            if (xor == 0L) {
+                w.write(0, 1)
+            } else {
+                w.write(1, 1)
+                val lead = min(xor.countLeadingZeroBits(), 31) // 5-bit field
+                val trail = xor.countTrailingZeroBits()
+                if (prevLead >= 0 && lead >= prevLead && trail >= prevTrail) {
+                    w.write(0, 1)
+                    w.write(xor ushr prevTrail, 64 - prevLead - prevTrail)
+                } else {
+                    val meaningful = 64 - lead - trail // 1..64, stored as 0..63
+                    w.write(1, 1)
+                    w.write(lead.toLong(), 5)
+                    w.write((meaningful - 1).toLong(), 6)
+                    w.write(xor ushr trail, meaningful)
+                    prevLead = lead
+                    prevTrail = trail
+                }
+            }
+            prevBits = bits
+        }
+        return w.toByteArray()
+    }
+
+    /** Reads [count] points one at a time; [time] and [value] hold the current one after [next]. */
+    class Decoder(bytes: ByteArray, private val count: Int) {
+        private val r = BitReader(bytes)
+        private var read = 0
+        private var delta = 0L
+        private var bits = 0L
+        private var lead = 0
+        private var trail = 0
+
+        var time = 0L
+            private set
+        var value = 0.0
+            private set
+
+        fun next(): Boolean {
+            if (read >= count) return false
+            if (read == 0) {
+                time = r.read(64)
+                bits = r.read(64)
+            } else {
+                val dod = when {
+                    r.read(1) == 0L -> 0L
+                    r.read(1) == 0L -> r.read(7) - 63
+                    r.read(1) == 0L -> r.read(9) - 255
+                    r.read(1) == 0L -> r.read(12) - 2047
+                    r.read(1) == 0L -> r.read(32).toInt().toLong() // sign-extend
+                    else -> r.read(64)
+                }
+                delta += dod
+                time += delta
+                if (r.read(1) == 1L) {
+                    if (r.read(1) == 1L) {
+                        lead = r.read(5).toInt()
+                        trail = 64 - lead - (r.read(6).toInt() + 1)
+                    }
+                    bits = bits xor (r.read(64 - lead - trail) shl trail)
+                }
+            }
+            value = Double.fromBits(bits)
+            read++
+            return true
+        }
+    }
+
+    // ---- bit I/O, most significant bit first ----
+
+    private class BitWriter(capacity: Int) {
+        private var buf = ByteArray(capacity)
+        private var bytePos = 0
+        private var bitPos = 0 // bits used in buf[bytePos]
+
+        /** Writes the low [nBits] of [value]. */
+        fun write(value: Long, nBits: Int) {
+            var remaining = nBits
+            while (remaining > 0) {
+                if (bytePos == buf.size) buf = buf.copyOf(buf.size * 2)
+                val free = 8 - bitPos
+                val take = min(free, remaining)
+                val chunk = ((value ushr (remaining - take)) and ((1L shl take) - 1)).toInt()
+                buf[bytePos] = (buf[bytePos].toInt() or (chunk shl (free - take))).toByte()
+                bitPos += take
+                remaining -= take
+                if (bitPos == 8) { bytePos++; bitPos = 0 }
+            }
+        }
+
+        fun toByteArray(): ByteArray = buf.copyOf(bytePos + if (bitPos > 0) 1 else 0)
+    }
+
+    private class BitReader(private val buf: ByteArray) {
+        private var bytePos = 0
+        private var bitPos = 0
+
+        fun read(nBits: Int): Long {
+            var result = 0L
+            var remaining = nBits
+            while (remaining > 0) {
+                val avail = 8 - bitPos
+                val take = min(avail, remaining)
+                val chunk = ((buf[bytePos].toInt() and 0xFF) ushr (avail - take)) and ((1 shl take) - 1)
+                result = (result shl take) or chunk.toLong()
+                bitPos += take
+                remaining -= take
+                if (bitPos == 8) { bytePos++; bitPos = 0 }
+            }
+            return result
+        }
+    }
+}
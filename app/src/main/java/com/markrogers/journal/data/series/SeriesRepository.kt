@@ -0,0 +1,91 @@
+package com.markrogers.journal.data.series
+
+import androidx.room.withTransaction
+import com.markrogers.journal.data.db.AppDatabase
+import com.markrogers.journal.data.db.SeriesChunkEntity
+import com.markrogers.journal.data.db.SeriesEntity
+import com.markrogers.journal.data.model.Series
+import com.markrogers.journal.data.model.SeriesPoint
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
+
+/**
+ * Append and range-scan for numeric series, stored as Gorilla-compressed chunks of at most
+ * [CHUNK_POINTS] points (see SeriesChunkEntity).
+ * - [append] rewrites only the chunk the point lands in (a tail append re-encodes the last,
+ *   partly filled chunk); a full chunk splits, so chunks never grow past [CHUNK_POINTS].
+ * - A point at an existing timestamp replaces its value, so "today's weight" can be corrected.
+ * - [scan] fetches the overlapping chunks (a few hundred bytes each) and decodes lazily,
+ *   stopping at the end of the range.
+ */
+class SeriesRepository(private val db: AppDatabase) {
+    private val dao = db.seriesDao()
+
+    fun observeSeries(): Flow<List<Series>> =
+        dao.observeSeries().map { list -> list.map { Series(it.id, it.name, it.unit, it.color) } }
+
+    /** New series id, or null if [name] is already taken. */
+    suspend fun createSeries(name: String, unit: String, color: Long): Long? =
+        dao.insertSeries(SeriesEntity(name = name, unit = unit, color = color)).takeIf { it != -1L }
+
+    suspend fun deleteSeries(id: Long) = dao.deleteSeries(id)
+
+    suspend fun clearPoints() = dao.clearPoints()
+
+    suspend fun append(seriesId: Long, time: Long, value: Double) = db.withTransaction {
+        val chunk = dao.chunkAtOrBefore(seriesId, time) ?: dao.firstChunk(seriesId)
+        val times: LongArray
+        val values: DoubleArray
+        if (chunk == null) {
+            times = longArrayOf(time)
+            values = doubleArrayOf(value)
+        } else {
+            val d = Gorilla.Decoder(chunk.data, chunk.pointCount)
+            val old = ArrayList<SeriesPoint>(chunk.pointCount + 1)
+            while (d.next()) old += SeriesPoint(d.time, d.value)
+            val at = old.binarySearchBy(time) { it.time }
+            if (at >= 0) old[at] = SeriesPoint(time, value) else old.add(-at - 1, SeriesPoint(time, value))
+            times = LongArray(old.size) { old[it].time }
+            values = DoubleArray(old.size) { old[it].value }
+            dao.deleteChunk(seriesId, chunk.startTime)
+        }
+        dao.insertChunks(
+            (times.indices step CHUNK_POINTS).map { from ->
+                val to = minOf(from + CHUNK_POINTS, times.size)
+                SeriesChunkEntity(
+                    seriesId = seriesId,
+                    startTime = times[from],
+                    endTime = times[to - 1],
+                    pointCount = to - from,
+                    data = Gorilla.encode(times.copyOfRange(from, to), values.copyOfRange(from, to))
+                )
+            }
+        )
+    }
+
+    /** Points with time in [from, until), oldest first, decoded as the sequence is consumed. */
+    suspend fun scan(seriesId: Long, from: Long, until: Long): Sequence<SeriesPoint> =
+        decode(dao.chunksBetween(seriesId, from, until), from, until)
+
+    /** Same range as [scan], re-read whenever the series changes. */
+    fun observe(seriesId: Long, from: Long, until: Long): Flow<List<SeriesPoint>> =
+        dao.observeChunksBetween(seriesId, from, until)
+            .map { decode(it, from, until).toList() }
+            .flowOn(Dispatchers.Default)
+
+    private fun decode(chunks: List<SeriesChunkEntity>, from: Long, until: Long): Sequence<SeriesPoint> = sequence {
+        for (chunk in chunks) {
+            val d = Gorilla.Decoder(chunk.data, chunk.pointCount)
+            while (d.next()) {
+                if (d.time >= until) return@sequence
+                if (d.time >= from) yield(SeriesPoint(d.time, d.value))
+            }
+        }
+    }
+
+    companion object {
+        const val CHUNK_POINTS = 120
+    }
+}
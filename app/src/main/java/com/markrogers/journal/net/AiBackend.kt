@@ -0,0 +1,61 @@
+package com.markrogers.journal.net
+
+import com.markrogers.journal.data.prefs.AiProvider
+import com.markrogers.journal.data.prefs.AppPrefs
+import kotlinx.coroutines.flow.Flow
+
+private const val SYSTEM_PROMPT = "You are a concise journaling assistant."
+
+/** One prompt in, text out. Hides which provider (and which Retrofit service) is behind it. */
+interface AiBackend {
+    val provider: AiProvider
+    /** Provider, model and API key: equal identities answer a prompt the same way. Holds the key; never log it. */
+    val identity: String get() = provider.name
+    suspend fun complete(prompt: String): String
+    fun stream(prompt: String): Flow<String>
+}
+
+class OpenAiBackend(private val apiKey: String) : AiBackend {
+    override val provider = AiProvider.OPENAI
+    override val identity = "$provider/$OPENAI_MODEL/$apiKey"
+
+    private fun request(prompt: String) =
+        OpenAiRequest(messages = listOf(Message("system", SYSTEM_PROMPT), Message("user", prompt)))
+
+    override suspend fun complete(prompt: String): String =
+        openAiRetrofit(apiKey).chat(request(prompt)).choices.firstOrNull()?.message?.content.orEmpty()
+
+    override fun stream(prompt: String): Flow<String> = openAiStream(apiKey, request(prompt))
+}
+
+class GeminiBackend(private val apiKey: String) : AiBackend {
+    override val provider = AiProvider.GEMINI
+    override val identity = "$provider/$GEMINI_MODEL/$apiKey"
+
+    private fun request(prompt: String) =
+        GeminiRequest(contents = listOf(GeminiContent(parts = listOf(GeminiPart("$SYSTEM_PROMPT\n\n$prompt")))))
+
+    override suspend fun complete(prompt: String): String =
+        geminiRetrofit().generate(apiKey, request(prompt))
+            .candidates.firstOrNull()?.content?.parts?.joinToString("") { it.text }.orEmpty()
+
+    override fun stream(prompt: String): Flow<String> = geminiStream(apiKey, request(prompt))
+}
+
+/**
+ * Backend for the selected provider, or null if none is selected or its key is missing.
+ * Each provider goes through [ResilientBackend] (retries, rate limit, breaker); batch callers
+ * (map-reduce summarization) pass [RateLimit.BATCH] so their fan-out yields to interactive calls.
+ * With [AppPrefs.hedgeProviders] and both keys set, the other provider is the hedge.
+ */
+fun AppPrefs.aiBackend(rateLimit: RateLimit = RateLimit.INTERACTIVE): AiBackend? {
+    val openAi = openAiKey.takeIf { it.isNotBlank() }?.let { ResilientBackend(OpenAiBackend(it), rateLimit) }
+    val gemini = geminiKey.takeIf { it.isNotBlank() }?.let { ResilientBackend(GeminiBackend(it), rateLimit) }
+    val (primary, other) = when (provider) {
+        AiProvider.OPENAI -> openAi to gemini
+        AiProvider.GEMINI -> gemini to openAi
+        AiProvider.NONE -> return null
+    }
+    if (primary == null) return null
+    return if (hedgeProviders && other != null) HedgedBackend(primary, other) else primary
+}
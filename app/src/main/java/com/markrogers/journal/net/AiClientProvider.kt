@@ -0,0 +1,117 @@
+package com.markrogers.journal.net
+
+import com.markrogers.journal.BuildConfig
+import okhttp3.ConnectionPool
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import okhttp3.Interceptor
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.Response
+import okhttp3.logging.HttpLoggingInterceptor
+import okio.Buffer
+import okio.GzipSink
+import okio.buffer
+import retrofit2.Retrofit
+import retrofit2.converter.kotlinx.serialization.asConverterFactory
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Process-wide home for the AI HTTP stack.
+ * - One OkHttpClient, so the connection pool, TLS sessions and HTTP/2 streams survive between Analyze taps.
+ * - Per-key clients are derived with newBuilder(), which shares that pool and dispatcher.
+ * - One Retrofit service per provider; a new key replaces the old instance instead of adding one.
+ * - No HTTP response cache: every AI call is a POST, which OkHttp never caches.
+ * - Request lines are logged in debug builds only, with the Gemini `key` parameter redacted.
+ */
+object AiClientProvider {
+    private const val OPENAI_URL = "https://api.openai.com/"
+    private const val GEMINI_URL = "https://generativelanguage.googleapis.com/"
+
+    /** Bodies at least this big are gzip-compressed on the way out. */
+    private const val GZIP_MIN_BYTES = 8 * 1024L
+
+    // Base URLs are swappable so a MockWebServer can stand in for the real APIs.
+    @Volatile private var openAiBaseUrl: HttpUrl = OPENAI_URL.toHttpUrl()
+    @Volatile private var geminiBaseUrl: HttpUrl = GEMINI_URL.toHttpUrl()
+
+    /** The service built for a provider and the key it was built with. */
+    private class Keyed(val apiKey: String, val service: Any)
+
+    private val services = ConcurrentHashMap<String, Keyed>()
+
+    val client: OkHttpClient by lazy {
+        OkHttpClient.Builder()
+            .connectionPool(ConnectionPool(4, 5, TimeUnit.MINUTES))
+            .connectTimeout(15, TimeUnit.SECONDS)
+            // Generation can legitimately take a while; the default 10 s read timeout is too tight.
+            .readTimeout(90, TimeUnit.SECONDS)
+            .writeTimeout(30, TimeUnit.SECONDS)
+            .addInterceptor(GzipRequestInterceptor(GZIP_MIN_BYTES))
+            .apply {
+                if (BuildConfig.DEBUG) {
+                    addInterceptor(HttpLoggingInterceptor { HttpLoggingInterceptor.Logger.DEFAULT.log(redactKey(it)) }
+                        .apply { level = HttpLoggingInterceptor.Level.BASIC })
+                }
+            }
+            .build()
+    }
+
+    private val converter by lazy { aiJson.asConverterFactory("application/json".toMediaType()) }
+
+    fun openAi(apiKey: String): OpenAiService =
+        service("openai", apiKey) {
+            val auth = Interceptor { chain ->
+                chain.proceed(chain.request().newBuilder().header("Authorization", "Bearer $apiKey").build())
+            }
+            // Derived client: same pool, dispatcher and cache as the shared one.
+            val keyed = client.newBuilder().addInterceptor(auth).build()
+            Retrofit.Builder().baseUrl(openAiBaseUrl).client(keyed).addConverterFactory(converter).build()
+                .create(OpenAiService::class.java)
+        }
+
+    /** Gemini passes its key as a query parameter, so one instance serves every key. */
+    fun gemini(): GeminiService =
+        service("gemini", "") {
+            Retrofit.Builder().baseUrl(geminiBaseUrl).client(client).addConverterFactory(converter).build()
+                .create(GeminiService::class.java)
+        }
+
+    /** Points both providers at a local server (e.g. MockWebServer) and drops cached services. */
+    fun overrideBaseUrls(openAi: HttpUrl, gemini: HttpUrl) {
+        openAiBaseUrl = openAi
+        geminiBaseUrl = gemini
+        services.clear()
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun <T : Any> service(provider: String, apiKey: String, create: () -> T): T =
+        services.compute(provider) { _, old -> if (old?.apiKey == apiKey) old else Keyed(apiKey, create()) }!!.service as T
+
+    private val KEY_PARAM = Regex("([?&]key=)[^&\\s]*")
+
+    /** Log-safe copy of an OkHttp log line: the value of any `key` query parameter is masked. */
+    internal fun redactKey(line: String): String = line.replace(KEY_PARAM, "$1██")
+}
+
+/** gzip-encodes large request bodies (long prompts compress well). */
+private class GzipRequestInterceptor(private val minBytes: Long) : Interceptor {
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        val body = request.body
+        if (body == null || request.header("Content-Encoding") != null || body.contentLength() < minBytes) {
+            return chain.proceed(request)
+        }
+        val buffer = Buffer()
+        GzipSink(buffer).buffer().use { body.writeTo(it) }
+        val gzipped = buffer.readByteArray().toRequestBody(body.contentType())
+        return chain.proceed(
+            request.newBuilder()
+                .header("Content-Encoding", "gzip")
+                .method(request.method, gzipped)
+                .build()
+        )
+    }
+}
@@ -1,28 +1,81 @@
 package com.markrogers.journal.net
-import com.google.gson.annotations.SerializedName
-import okhttp3.Interceptor
-import okhttp3.OkHttpClient
-import okhttp3.logging.HttpLoggingInterceptor
-import retrofit2.Retrofit
-import retrofit2.converter.gson.GsonConverterFactory
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.launch
+import kotlinx.serialization.SerialName
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.Json
+import okhttp3.ResponseBody
 import retrofit2.http.Body
 import retrofit2.http.Headers
 import retrofit2.http.POST
 import retrofit2.http.Query
+import retrofit2.http.Streaming
 
-interface OpenAiService { @Headers("Content-Type: application/json") @POST("v1/chat/completions") suspend fun chat(@Body body: OpenAiRequest): OpenAiResponse }
-data class OpenAiRequest(val model: String = "gpt-4o-mini", val messages: List<Message>, val temperature: Double = 0.2)
-data class Message(val role: String, val content: String)
-data class OpenAiResponse(val choices: List<Choice>) { data class Choice(val message: Message) }
-fun openAiRetrofit(apiKey: String): OpenAiService {
-    val log = HttpLoggingInterceptor().apply { level = HttpLoggingInterceptor.Level.BASIC }
-    val auth = Interceptor { chain -> chain.proceed(chain.request().newBuilder().addHeader("Authorization", "Bearer " + apiKey).build()) }
-    val client = OkHttpClient.Builder().addInterceptor(auth).addInterceptor(log).build()
-    return Retrofit.Builder().baseUrl("https://api.openai.com/").client(client).addConverterFactory(GsonConverterFactory.create()).build().create(OpenAiService::class.java)
+interface OpenAiService {
+    @Headers("Content-Type: application/json") @POST("v1/chat/completions") suspend fun chat(@Body body: OpenAiRequest): OpenAiResponse
+    /** Same endpoint with stream=true; the body is a text/event-stream of [OpenAiStreamChunk]s. */
+    @Streaming @Headers("Content-Type: application/json") @POST("v1/chat/completions") suspend fun chatStream(@Body body: OpenAiRequest): ResponseBody
+}
+/** Shared codec for the AI DTOs: unknown response fields are skipped, defaults (model, temperature) are sent. */
+val aiJson = Json { ignoreUnknownKeys = true; encodeDefaults = true; explicitNulls = false }
+
+const val OPENAI_MODEL = "gpt-4o-mini"
+const val GEMINI_MODEL = "gemini-pro"
+
+@Serializable data class OpenAiRequest(val model: String = OPENAI_MODEL, val messages: List<Message>, val temperature: Double = 0.2, val stream: Boolean = false)
+@Serializable data class Message(val role: String, val content: String)
+@Serializable data class OpenAiResponse(val choices: List<Choice> = emptyList()) { @Serializable data class Choice(val message: Message) }
+@Serializable data class OpenAiStreamChunk(val choices: List<Choice> = emptyList()) { @Serializable data class Choice(val delta: Delta? = null) ; @Serializable data class Delta(val content: String? = null) }
+/** Cached service backed by the shared client (see [AiClientProvider]). */
+fun openAiRetrofit(apiKey: String): OpenAiService = AiClientProvider.openAi(apiKey)
+interface GeminiService {
+    @Headers("Content-Type: application/json") @POST("v1beta/models/$GEMINI_MODEL:generateContent") suspend fun generate(@Query("key") key: String, @Body body: GeminiRequest): GeminiResponse
+    /** alt=sse makes Gemini emit one `data:` line per partial [GeminiResponse]. */
+    @Streaming @Headers("Content-Type: application/json") @POST("v1beta/models/$GEMINI_MODEL:streamGenerateContent") suspend fun generateStream(@Query("key") key: String, @Query("alt") alt: String, @Body body: GeminiRequest): ResponseBody
+}
+@Serializable data class GeminiRequest(val contents: List<GeminiContent>)
+@Serializable data class GeminiContent(val parts: List<GeminiPart> = emptyList())
+@Serializable data class GeminiPart(val text: String = "")
+@Serializable data class GeminiResponse(@SerialName("candidates") val candidates: List<Candidate> = emptyList()) { @Serializable data class Candidate(@SerialName("content") val content: GeminiContent? = null) }
+fun geminiRetrofit(): GeminiService = AiClientProvider.gemini()
+
+// -------------------- Streaming --------------------
+
+/** Token deltas from an OpenAI chat completion, emitted as they arrive. */
+fun openAiStream(apiKey: String, request: OpenAiRequest): Flow<String> =
+    sseFlow({ openAiRetrofit(apiKey).chatStream(request.copy(stream = true)) }) { data ->
+        aiJson.decodeFromString(OpenAiStreamChunk.serializer(), data).choices.firstOrNull()?.delta?.content
+    }
+
+/** Text deltas from Gemini's streamGenerateContent, emitted as they arrive. */
+fun geminiStream(key: String, request: GeminiRequest): Flow<String> =
+    sseFlow({ geminiRetrofit().generateStream(key, "sse", request) }) { data ->
+        aiJson.decodeFromString(GeminiResponse.serializer(), data)
+            .candidates.firstOrNull()?.content?.parts?.joinToString("") { it.text }
+    }
+
+/**
+ * Minimal text/event-stream reader: each `data:` payload goes through [parse], non-empty results
+ * are emitted; `[DONE]` ends the stream. The blocking line reads run on Dispatchers.IO and don't
+ * see coroutine cancellation, so cancelling the collector (e.g. a hedge loser) closes the body,
+ * which fails the pending read and releases the connection right away.
+ */
+private fun sseFlow(open: suspend () -> ResponseBody, parse: (String) -> String?): Flow<String> = callbackFlow {
+    val body = open()
+    launch(Dispatchers.IO) {
+        val source = body.source()
+        while (true) {
+            val line = source.readUtf8Line() ?: break
+            if (!line.startsWith("data:")) continue
+            val data = line.removePrefix("data:").trim()
+            if (data == "[DONE]") break
+            val text = parse(data)
+            if (!text.isNullOrEmpty()) send(text)
+        }
+        close()
+    }
+    awaitClose { body.close() }
 }
-interface GeminiService { @Headers("Content-Type: application/json") @POST("v1beta/models/gemini-pro:generateContent") suspend fun generate(@Query("key") key: String, @Body body: GeminiRequest): GeminiResponse }
-data class GeminiRequest(val contents: List<GeminiContent>)
-data class GeminiContent(val parts: List<GeminiPart>)
-data class GeminiPart(val text: String)
-data class GeminiResponse(@SerializedName("candidates") val candidates: List<Candidate>) { data class Candidate(@SerializedName("content") val content: GeminiContent?) }
-fun geminiRetrofit(): GeminiService = Retrofit.Builder().baseUrl("https://generativelanguage.googleapis.com/").addConverterFactory(GsonConverterFactory.create()).build().create(GeminiService::class.java)
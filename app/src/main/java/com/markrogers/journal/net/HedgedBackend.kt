@@ -0,0 +1,104 @@
+package com.markrogers.journal.net
+
+import com.markrogers.journal.data.prefs.AiProvider
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.cancelChildren
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicInteger
+
+class EmptyResponseException(provider: AiProvider) : IOException("$provider sent an empty response")
+
+/**
+ * "Fastest wins": sends to [primary]; if it hasn't answered within its p90 latency
+ * (see [AiLatency]) or fails, sends the same prompt to [secondary]. The first success is
+ * used and the other request is cancelled. For streams the race is on the first token.
+ * - Attempts that lose the race or fail are timed too, as lower bounds; timing only the
+ *   finishers would leave the slow tail (the requests worth hedging) out of the p90.
+ * - [now] (a millisecond clock) is only replaced by tests, which run the race in virtual time.
+ */
+class HedgedBackend(
+    private val primary: AiBackend,
+    private val secondary: AiBackend,
+    private val now: () -> Long = { System.nanoTime() / 1_000_000 }
+) : AiBackend {
+    override val provider = primary.provider
+    override val identity = "${primary.identity}|${secondary.identity}"
+
+    override suspend fun complete(prompt: String): String = race(AiLatency.Mode.COMPLETE) { it.complete(prompt) }
+
+    override fun stream(prompt: String): Flow<String> = channelFlow {
+        val outer = this
+        val (first, rest) = race<Pair<String, Channel<String>>>(AiLatency.Mode.FIRST_TOKEN, discard = { it.second.cancel() }) { b ->
+            // Each candidate streams into its own channel; the race only waits for the first delta.
+            val ch = Channel<String>(Channel.UNLIMITED)
+            val job = outer.launch {
+                try {
+                    b.stream(prompt).collect { ch.send(it) }
+                    ch.close()
+                } catch (e: Throwable) {
+                    ch.close(e)
+                }
+            }
+            try {
+                // A stream that ends without a delta is a failed attempt, not a "Channel was closed"
+                val head = ch.receiveCatching()
+                if (head.isClosed) throw head.exceptionOrNull() ?: EmptyResponseException(b.provider)
+                head.getOrThrow() to ch
+            } catch (e: Throwable) {
+                job.cancel()
+                throw e
+            }
+        }
+        send(first)
+        for (delta in rest) send(delta)
+    }
+
+    /**
+     * [mode] picks the latency histogram the attempt is timed into and hedged by.
+     * [discard] releases a result that finished after the winner (e.g. a loser's open stream).
+     */
+    private suspend fun <T> race(
+        mode: AiLatency.Mode,
+        discard: (T) -> Unit = {},
+        attempt: suspend (AiBackend) -> T
+    ): T = coroutineScope {
+        val winner = CompletableDeferred<T>()
+        val hedgeNow = CompletableDeferred<Unit>()
+        val failures = AtomicInteger()
+
+        fun start(b: AiBackend) = launch {
+            val t0 = now()
+            try {
+                val value = attempt(b)
+                AiLatency.record(b.provider, mode, now() - t0)
+                if (!winner.complete(value)) discard(value)
+            } catch (e: CancellationException) {
+                // Lost the race: it would have taken at least this long. (Not when the caller gave up.)
+                if (winner.isCompleted) AiLatency.record(b.provider, mode, now() - t0)
+                throw e
+            } catch (e: Exception) {
+                AiLatency.record(b.provider, mode, now() - t0)
+                if (failures.incrementAndGet() == 2) winner.completeExceptionally(e)
+                else hedgeNow.complete(Unit) // don't wait out the delay if the primary already failed
+            }
+        }
+
+        start(primary)
+        launch {
+            withTimeoutOrNull(AiLatency.hedgeDelayMs(primary.provider, mode)) { hedgeNow.await() }
+            if (!winner.isCompleted) start(secondary)
+        }
+        try {
+            winner.await()
+        } finally {
+            coroutineContext.cancelChildren()
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.markrogers.journal.net
+
+import com.markrogers.journal.data.prefs.AiProvider
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.ln
+import kotlin.math.pow
+
+/**
+ * Log-bucketed latency histogram (50 ms … ~2 min, 25% wide buckets).
+ * Counts are halved once [maxSamples] is reached, so percentiles follow recent behaviour.
+ */
+class LatencyHistogram(private val maxSamples: Int = 200) {
+    private val counts = IntArray(BUCKETS)
+    private var total = 0
+
+    @Synchronized fun record(millis: Long) {
+        counts[bucketOf(millis)]++
+        if (++total >= maxSamples) {
+            total = 0
+            for (i in counts.indices) { counts[i] = counts[i] / 2; total += counts[i] }
+        }
+    }
+
+    @Synchronized fun count(): Int = total
+
+    /** Upper bound of the bucket holding quantile [q], or null without data. */
+    @Synchronized fun percentile(q: Double): Long? {
+        if (total == 0) return null
+        val target = (q * total).coerceAtLeast(1.0)
+        var seen = 0
+        for (i in counts.indices) {
+            seen += counts[i]
+            if (seen >= target) return upperBound(i)
+        }
+        return upperBound(BUCKETS - 1)
+    }
+
+    private companion object {
+        const val BUCKETS = 35
+        const val MIN_MS = 50.0
+        const val GROWTH = 1.25
+
+        fun bucketOf(ms: Long): Int =
+            if (ms <= MIN_MS) 0 else (ln(ms / MIN_MS) / ln(GROWTH)).toInt().coerceIn(0, BUCKETS - 1)
+
+        fun upperBound(i: Int): Long = (MIN_MS * GROWTH.pow(i + 1)).toLong()
+    }
+}
+
+/**
+ * Process-wide latency per provider and [Mode]. Time to first token and full-response time have
+ * very different distributions, so each gets its own histogram and hedge delay.
+ */
+object AiLatency {
+    enum class Mode { FIRST_TOKEN, COMPLETE }
+
+    private const val DEFAULT_HEDGE_MS = 2_500L
+    private const val MIN_SAMPLES = 5
+
+    private val histograms = ConcurrentHashMap<Pair<AiProvider, Mode>, LatencyHistogram>()
+
+    fun of(provider: AiProvider, mode: Mode): LatencyHistogram =
+        histograms.getOrPut(provider to mode) { LatencyHistogram() }
+
+    fun record(provider: AiProvider, mode: Mode, millis: Long) = of(provider, mode).record(millis)
+
+    /** Forgets every sample; tests only. */
+    internal fun reset() = histograms.clear()
+
+    /** Hedge after the provider's p90 for [mode], or a fixed default until there's enough data. */
+    fun hedgeDelayMs(provider: AiProvider, mode: Mode): Long {
+        val h = of(provider, mode)
+        return if (h.count() < MIN_SAMPLES) DEFAULT_HEDGE_MS
+        else (h.percentile(0.9) ?: DEFAULT_HEDGE_MS).coerceIn(250L, 30_000L)
+    }
+}
@@ -0,0 +1,242 @@
+package com.markrogers.journal.net
+
+import com.markrogers.journal.data.prefs.AiProvider
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import retrofit2.HttpException
+import java.io.IOException
+import java.time.Duration
+import java.time.ZonedDateTime
+import java.time.format.DateTimeFormatter
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.min
+import kotlin.random.Random
+
+/** Thrown without touching the network while a provider's breaker is open. */
+class CircuitOpenException(provider: AiProvider, retryInMs: Long) :
+    IOException("$provider is failing right now; try again in ${(retryInMs + 999) / 1000} s")
+
+/**
+ * Token bucket: [capacity] burst, refilled at one token per [refillMs].
+ * [acquire] suspends until a token is available instead of failing; a caller passing a
+ * `reserve` only takes a token while more than that many are left.
+ */
+class TokenBucket(
+    private val capacity: Int,
+    private val refillMs: Long,
+    private val now: () -> Long = { System.nanoTime() / 1_000_000 }
+) {
+    private val mutex = Mutex()
+    private var tokens = capacity.toDouble()
+    private var last = now()
+
+    suspend fun acquire(reserve: Int = 0) {
+        val needed = 1.0 + reserve
+        while (true) {
+            val waitMs = mutex.withLock {
+                val t = now()
+                tokens = min(capacity.toDouble(), tokens + (t - last).toDouble() / refillMs)
+                last = t
+                if (tokens >= needed) { tokens -= 1.0; 0L } else ((needed - tokens) * refillMs).toLong() + 1
+            }
+            if (waitMs == 0L) return
+            delay(waitMs)
+        }
+    }
+}
+
+/**
+ * Classic three-state breaker. Opens after [failureThreshold] consecutive failures,
+ * fails fast for [openMs], then lets a single trial call through (half-open).
+ * [beforeCall] says whether the caller holds that trial permit; only the holder's outcome
+ * releases it, so a call that started before the breaker opened can't let a second trial in.
+ */
+class CircuitBreaker(
+    private val provider: AiProvider,
+    private val failureThreshold: Int = 4,
+    private val openMs: Long = 30_000,
+    private val now: () -> Long = { System.nanoTime() / 1_000_000 }
+) {
+    private var failures = 0
+    private var openedAt = -1L
+    private var trialInFlight = false
+
+    /** Throws [CircuitOpenException] while open; true if this call is the half-open trial. */
+    @Synchronized fun beforeCall(): Boolean {
+        if (openedAt < 0) return false
+        val elapsed = now() - openedAt
+        if (elapsed < openMs || trialInFlight) throw CircuitOpenException(provider, (openMs - elapsed).coerceAtLeast(0))
+        trialInFlight = true // half-open: this call decides
+        return true
+    }
+
+    @Synchronized fun onSuccess() {
+        failures = 0
+        openedAt = -1L
+        trialInFlight = false
+    }
+
+    /** The call ended without telling us anything about provider health (cancelled, 4xx). */
+    @Synchronized fun onNeutral(trial: Boolean) {
+        if (trial) trialInFlight = false
+    }
+
+    @Synchronized fun onFailure(trial: Boolean) {
+        if (trial) trialInFlight = false
+        if (++failures >= failureThreshold || openedAt >= 0) openedAt = now()
+    }
+}
+
+/**
+ * How a caller draws on its provider's one [TokenBucket] (so the provider never sees more than
+ * that bucket's rate, whoever calls). Batch summarization fans out up to
+ * SummarizationEngine.maxConcurrency requests but leaves [reserve] tokens for interactive calls,
+ * so a user waiting on an answer isn't queued behind it.
+ */
+enum class RateLimit(val reserve: Int) {
+    INTERACTIVE(reserve = 0),
+    BATCH(reserve = 4)
+}
+
+/** Per-provider breaker and bucket shared by every backend instance. */
+object AiGuards {
+    const val BUCKET_CAPACITY = 16
+    const val BUCKET_REFILL_MS = 250L
+
+    private val breakers = ConcurrentHashMap<AiProvider, CircuitBreaker>()
+    private val buckets = ConcurrentHashMap<AiProvider, TokenBucket>()
+
+    fun breaker(p: AiProvider) = breakers.getOrPut(p) { CircuitBreaker(p) }
+    fun bucket(p: AiProvider) = buckets.getOrPut(p) { TokenBucket(BUCKET_CAPACITY, BUCKET_REFILL_MS) }
+}
+
+/**
+ * Call layer around a provider backend:
+ * - token-bucket rate limit per provider; [rateLimit] only sets this caller's priority on it;
+ * - fail fast while the provider's circuit breaker is open;
+ * - retries for 408/429/5xx and I/O errors with jittered exponential backoff,
+ *   honouring Retry-After when the server sends one (streams only retry before the first token);
+ * - identical in-flight [complete] prompts share one request. The request runs in its own scope,
+ *   not the first caller's: a cancelled caller just stops waiting, and the request is only
+ *   cancelled once nobody waits for it. Waiters only ever see its result or a real failure.
+ *   "Identical" means same prompt and same [AiBackend.identity] (model, API key).
+ */
+class ResilientBackend(
+    private val delegate: AiBackend,
+    private val rateLimit: RateLimit = RateLimit.INTERACTIVE,
+    private val maxAttempts: Int = 3,
+    private val baseDelayMs: Long = 500,
+    private val maxDelayMs: Long = 8_000,
+    private val breaker: CircuitBreaker = AiGuards.breaker(delegate.provider),
+    private val bucket: TokenBucket = AiGuards.bucket(delegate.provider)
+) : AiBackend {
+    override val provider = delegate.provider
+    override val identity = delegate.identity
+
+    /** One in-flight request and how many callers are waiting for it; guarded by [inFlight]. */
+    private class Shared(val result: Deferred<String>) {
+        var waiters = 1
+    }
+
+    override suspend fun complete(prompt: String): String {
+        val key = identity to prompt
+        val shared = synchronized(inFlight) {
+            inFlight[key]?.also { it.waiters++ } ?: run {
+                val call = requests.async(start = CoroutineStart.LAZY) { withRetries { delegate.complete(prompt) } }
+                Shared(call).also { s ->
+                    inFlight[key] = s
+                    call.invokeOnCompletion { synchronized(inFlight) { inFlight.remove(key, s) } }
+                    call.start()
+                }
+            }
+        }
+        try {
+            return shared.result.await()
+        } finally {
+            synchronized(inFlight) {
+                // Last waiter gone (cancelled): nobody wants the answer any more
+                if (--shared.waiters == 0 && !shared.result.isCompleted) {
+                    inFlight.remove(key, shared)
+                    shared.result.cancel()
+                }
+            }
+        }
+    }
+
+    override fun stream(prompt: String): Flow<String> = flow {
+        var attempt = 0
+        while (true) {
+            var emitted = false
+            bucket.acquire(rateLimit.reserve)
+            val trial = breaker.beforeCall()
+            try {
+                delegate.stream(prompt).collect { emitted = true; emit(it) }
+                breaker.onSuccess()
+                return@flow
+            } catch (e: CancellationException) {
+                breaker.onNeutral(trial)
+                throw e
+            } catch (e: Exception) {
+                if (isRetryable(e)) breaker.onFailure(trial) else breaker.onNeutral(trial)
+                if (emitted || !isRetryable(e) || ++attempt >= maxAttempts) throw e
+                delay(backoffMs(attempt, e))
+            }
+        }
+    }
+
+    private suspend fun <T> withRetries(call: suspend () -> T): T {
+        var attempt = 0
+        while (true) {
+            bucket.acquire(rateLimit.reserve)
+            val trial = breaker.beforeCall()
+            try {
+                return call().also { breaker.onSuccess() }
+            } catch (e: CancellationException) {
+                breaker.onNeutral(trial)
+                throw e
+            } catch (e: Exception) {
+                if (isRetryable(e)) breaker.onFailure(trial) else breaker.onNeutral(trial)
+                if (!isRetryable(e) || ++attempt >= maxAttempts) throw e
+                delay(backoffMs(attempt, e))
+            }
+        }
+    }
+
+    private fun isRetryable(e: Exception): Boolean = when (e) {
+        is CircuitOpenException -> false
+        is HttpException -> e.code() == 408 || e.code() == 429 || e.code() in 500..599
+        is IOException -> true
+        else -> false
+    }
+
+    /** Retry-After if present (seconds or HTTP date), else a random delay in [cap/2, cap]. */
+    private fun backoffMs(attempt: Int, e: Exception): Long {
+        retryAfterMs(e)?.let { return it.coerceIn(0, maxDelayMs * 4) }
+        val cap = min(maxDelayMs, baseDelayMs shl (attempt - 1))
+        return Random.nextLong(cap / 2, cap + 1)
+    }
+
+    private fun retryAfterMs(e: Exception): Long? {
+        val value = (e as? HttpException)?.response()?.headers()?.get("Retry-After") ?: return null
+        value.trim().toLongOrNull()?.let { return it * 1000 }
+        return runCatching {
+            Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME)).toMillis()
+        }.getOrNull()
+    }
+
+    private companion object {
+        val inFlight = HashMap<Pair<String, String>, Shared>()
+        // Coalesced requests outlive whichever caller started them
+        val requests = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    }
+}
@@ -1,49 +1,91 @@
 package com.markrogers.journal.ui.analyze
 import androidx.compose.foundation.layout.*
+import androidx.compose.foundation.rememberScrollState
+import androidx.compose.foundation.verticalScroll
 import androidx.compose.material3.*
 import androidx.compose.runtime.*
 import androidx.compose.ui.Modifier
+import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.unit.dp
+import com.markrogers.journal.analysis.IncrementalSummarizer
+import com.markrogers.journal.analysis.LocalInsightEngine
+import com.markrogers.journal.analysis.SummarizationEngine
+import com.markrogers.journal.analysis.SummaryEvent
+import com.markrogers.journal.data.db.AppDatabase
 import com.markrogers.journal.data.prefs.*
 import com.markrogers.journal.data.repo.InMemoryRepository
 import com.markrogers.journal.net.*
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.launch
-import java.time.Instant
+import java.time.LocalDate
 import java.time.ZoneId
-import java.time.temporal.ChronoUnit
 
 @Composable
 fun AnalyzeScreen(prefsRepo: PreferencesRepository) {
     val scope = rememberCoroutineScope()
     val prefs by prefsRepo.prefsFlow.collectAsState(initial = AppPrefs())
+    val ctx = LocalContext.current
+    val summaryDao = remember(ctx) { AppDatabase.get(ctx).summaryDao() }
     var days by remember { mutableStateOf(7) }
+    // On-device analysis: instant, offline; the default when no cloud provider is chosen.
+    var onDevice by remember(prefs.provider) { mutableStateOf(prefs.provider == AiProvider.NONE) }
     var result by remember { mutableStateOf<String?>(null) }
     var loading by remember { mutableStateOf(false) }
-    Column(Modifier.fillMaxSize().padding(16.dp), verticalArrangement = Arrangement.spacedBy(12.dp)) {
+    // Map-phase summaries as chunks finish (only for windows too big for one request), shown in
+    // chunk order: (phase, chunk index) -> summary, a phase starting again at done = 1
+    var partials by remember { mutableStateOf<Map<Pair<Int, Int>, String>>(emptyMap()) }
+    var phase by remember { mutableStateOf(0) }
+    var progress by remember { mutableStateOf<String?>(null) }
+    Column(Modifier.fillMaxSize().padding(16.dp).verticalScroll(rememberScrollState()), verticalArrangement = Arrangement.spacedBy(12.dp)) {
         Text("Analyze journal with AI")
         Row(horizontalArrangement = Arrangement.spacedBy(8.dp)) { listOf(7,14,30).forEach { d -> FilterChip(selected = days==d, onClick={ days=d }, label={ Text("Last $d days") }) } }
+        FilterChip(selected = onDevice, onClick = { onDevice = !onDevice }, label = { Text("On-device (offline)") })
         Button(onClick={
-            loading=true; result=null
+            loading=true; result=null; partials=emptyMap(); phase=0; progress=null
             scope.launch {
-                val until = Instant.now(); val since = until.minus(days.toLong(), ChronoUnit.DAYS)
-                val entries = InMemoryRepository.entries.value.filter { it.createdAt.isAfter(since) }
-                val text = buildString {
-                    appendLine("Summarize these journal entries and produce insights and 5 todos:")
-                    entries.forEach { val ts = it.createdAt.atZone(ZoneId.systemDefault()); appendLine("- [${ts}] ${it.title}: ${it.body.take(500)}") }
-                }
+                // Whole local days, so the oldest day (and week) is never cached half-covered
+                val zone = ZoneId.systemDefault()
+                val today = LocalDate.now(zone)
+                val from = today.minusDays(days - 1L)
                 try {
-                    result = when (prefs.provider) {
-                        AiProvider.OPENAI -> if (prefs.openAiKey.isBlank()) "Set your OpenAI key in Settings." else {
-                            val s = openAiRetrofit(prefs.openAiKey); val r = s.chat(OpenAiRequest(messages=listOf(Message("system","You are a concise journaling assistant."), Message("user", text)))); r.choices.firstOrNull()?.message?.content ?: "No response"
+                    val entries = InMemoryRepository.entriesSince(from.atStartOfDay(zone).toInstant())
+                    val backend = prefs.aiBackend(RateLimit.BATCH) // feeds the map-reduce fan-out
+                    if (onDevice) {
+                        result = LocalInsightEngine.analyze(
+                            entries,
+                            habits = InMemoryRepository.habits().first()
+                        ).toText()
+                    } else if (backend == null) {
+                        result = when (prefs.provider) {
+                            AiProvider.OPENAI -> "Set your OpenAI key in Settings."
+                            AiProvider.GEMINI -> "Set your Gemini key in Settings."
+                            AiProvider.NONE -> "Choose a provider in Settings."
                         }
-                        AiProvider.GEMINI -> if (prefs.geminiKey.isBlank()) "Set your Gemini key in Settings." else {
-                            val s = geminiRetrofit(); val r = s.generate(prefs.geminiKey, GeminiRequest(contents=listOf(GeminiContent(parts=listOf(GeminiPart(text)))))); r.candidates.firstOrNull()?.content?.parts?.firstOrNull()?.text ?: "No response"
+                    } else {
+                        // Only days whose content changed are re-summarized; the rest come from Room.
+                        // Deltas stream in at time-to-first-token.
+                        val engine = SummarizationEngine(backend, finalBackend = prefs.aiBackend() ?: backend)
+                        IncrementalSummarizer(engine, summaryDao).summarize(entries, from, today).collect { ev ->
+                            when (ev) {
+                                is SummaryEvent.ChunkDone -> {
+                                    if (ev.done == 1) phase++
+                                    partials = partials + ((phase to ev.index) to ev.summary)
+                                    progress = "Summarized ${ev.done}/${ev.total} parts"
+                                }
+                                is SummaryEvent.Delta -> result = result.orEmpty() + ev.text
+                            }
                         }
-                        AiProvider.NONE -> "Choose a provider in Settings."
+                        if (result.isNullOrEmpty()) result = "No response"
                     }
                 } catch (e: Exception) { result = "Error: " + e.message } finally { loading=false }
             }
-        }) { Text(if (loading) "Analyzing..." else "Analyze") }
+        }, enabled = !loading) { Text(if (loading) "Analyzing..." else "Analyze") }
         if (result!=null) { Divider(); Text(result!!) }
+        else if (partials.isNotEmpty()) {
+            Divider()
+            progress?.let { Text(it, style = MaterialTheme.typography.labelMedium) }
+            partials.toSortedMap(compareBy<Pair<Int, Int>> { it.first }.thenBy { it.second }).values
+                .forEach { Text(it, style = MaterialTheme.typography.bodySmall) }
+        }
     }
 }
@@ -7,14 +7,18 @@ import androidx.compose.foundation.layout.*
 import androidx.compose.foundation.lazy.grid.GridCells
 import androidx.compose.foundation.lazy.grid.LazyVerticalGrid
 import androidx.compose.foundation.lazy.grid.items
+import androidx.compose.foundation.shape.CircleShape
 import androidx.compose.material3.*
 import androidx.compose.runtime.*
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
+import androidx.compose.ui.graphics.Color
 import androidx.compose.ui.graphics.RectangleShape
 import androidx.compose.ui.text.style.TextAlign
 import androidx.compose.ui.unit.dp
+import com.markrogers.journal.data.model.DaySummary
 import com.markrogers.journal.data.model.TodoItem
+import androidx.lifecycle.compose.collectAsStateWithLifecycle
 import com.markrogers.journal.data.repo.InMemoryRepository
 import java.time.DayOfWeek
 import java.time.LocalDate
@@ -27,11 +31,20 @@ fun CalendarScreen() {
     var month by remember { mutableStateOf(YearMonth.now()) }
     var selectedDate by remember { mutableStateOf(LocalDate.now()) }
 
-    // Simple invalidation key so we can recompute todos after add/toggle.
-    var refreshKey by remember { mutableStateOf(0) }
-    val todos: List<TodoItem> = remember(selectedDate, refreshKey) {
-        InMemoryRepository.todosOn(selectedDate)
+    // Observes the selected day only; add/toggle show up as Room re-emits.
+    val todos: List<TodoItem> by remember(selectedDate) { InMemoryRepository.todosOn(selectedDate) }
+        .collectAsStateWithLifecycle(initialValue = emptyList())
+
+    // Month heatmap: cached summary paints immediately; re-read when the table changes.
+    val version by InMemoryRepository.entriesVersion.collectAsStateWithLifecycle()
+    val summary by produceState(
+        initialValue = InMemoryRepository.cachedMonthSummary(month).orEmpty(),
+        month, version
+    ) {
+        InMemoryRepository.cachedMonthSummary(month)?.let { value = it }
+        value = InMemoryRepository.monthSummary(month)
     }
+    val maxCount = remember(summary) { summary.values.maxOfOrNull { it.entryCount } ?: 0 }
 
     Column(
         modifier = Modifier
@@ -90,6 +103,7 @@ fun CalendarScreen() {
                         .aspectRatio(1f)
                         .clickable(enabled = isInMonth) { selectedDate = day }
                 ) {
+                    val daySummary = if (isInMonth) summary[day] else null
                     Box(
                         modifier = Modifier
                             .fillMaxSize()
@@ -98,7 +112,8 @@ fun CalendarScreen() {
                                     MaterialTheme.colorScheme.surfaceVariant.copy(alpha = 0.15f)
                                 else
                                     MaterialTheme.colorScheme.surface
-                            ),
+                            )
+                            .background(heatColor(daySummary, maxCount)),
                         contentAlignment = Alignment.Center
                     ) {
                         Text(
@@ -109,6 +124,15 @@ fun CalendarScreen() {
                             else
                                 MaterialTheme.colorScheme.onSurfaceVariant
                         )
+                        if ((daySummary?.openTodos ?: 0) > 0) {
+                            Box(
+                                modifier = Modifier
+                                    .align(Alignment.BottomCenter)
+                                    .padding(bottom = 4.dp)
+                                    .size(5.dp)
+                                    .background(MaterialTheme.colorScheme.tertiary, CircleShape)
+                            )
+                        }
                     }
                 }
             }
@@ -142,7 +166,6 @@ fun CalendarScreen() {
                     if (text.isNotEmpty()) {
                         InMemoryRepository.addTodo(selectedDate, text)
                         newTodo = ""
-                        refreshKey++ // refresh list
                     }
                 }
             ) { Text("Add") }
@@ -173,8 +196,7 @@ fun CalendarScreen() {
                             Checkbox(
                                 checked = t.done,
                                 onCheckedChange = {
-                                    InMemoryRepository.toggleTodo(t.id)
-                                    refreshKey++ // refresh list
+                                    InMemoryRepository.toggleTodo(t.id, done = !t.done)
                                 }
                             )
                             Spacer(Modifier.width(8.dp))
@@ -190,6 +212,16 @@ fun CalendarScreen() {
     }
 }
 
+/** Heatmap tint: more entries → stronger primary; transparent for empty days. */
+@Composable
+private fun heatColor(day: DaySummary?, maxCount: Int) =
+    if (day == null || day.entryCount == 0 || maxCount == 0)
+        Color.Transparent
+    else
+        MaterialTheme.colorScheme.primary.copy(
+            alpha = 0.12f + 0.48f * (day.entryCount.toFloat() / maxCount)
+        )
+
 /** Build a 6-row grid (42 cells) including leading/trailing days to fill weeks. */
 private fun daysForMonth(ym: YearMonth): List<LocalDate> {
     val first = ym.atDay(1)
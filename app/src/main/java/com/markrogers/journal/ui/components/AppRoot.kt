@@ -27,14 +27,17 @@ import androidx.compose.runtime.remember
 import androidx.compose.runtime.setValue
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.graphics.vector.ImageVector
+import androidx.navigation.NavType
 import androidx.navigation.compose.NavHost
 import androidx.navigation.compose.composable
 import androidx.navigation.compose.currentBackStackEntryAsState
 import androidx.navigation.compose.rememberNavController
+import androidx.navigation.navArgument
 import com.markrogers.journal.data.prefs.PreferencesRepository
 import com.markrogers.journal.data.prefs.ThemeMode
 import com.markrogers.journal.ui.analyze.AnalyzeScreen
 import com.markrogers.journal.ui.calendar.CalendarScreen
+import com.markrogers.journal.ui.detail.EntryDetailScreen
 import com.markrogers.journal.ui.editor.EditorScreen
 import com.markrogers.journal.ui.metrics.MetricsScreen
 import com.markrogers.journal.ui.settings.SettingsScreen
@@ -68,7 +71,10 @@ fun AppRoot(appContext: Context) {
 
         var currentTab by remember { mutableStateOf(Tab.JOURNAL) }
         androidx.compose.runtime.LaunchedEffect(Unit) {
-            com.markrogers.journal.data.repo.InMemoryRepository.initialize(appContext)
+            // Normally already done by JournalInitializer; no-op then. Kept off the main thread.
+            kotlinx.coroutines.withContext(kotlinx.coroutines.Dispatchers.IO) {
+                com.markrogers.journal.data.repo.InMemoryRepository.initialize(appContext)
+            }
         }
         Scaffold(
             topBar = {
@@ -120,12 +126,27 @@ fun AppRoot(appContext: Context) {
                 startDestination = Tab.JOURNAL.route,
                 modifier = Modifier.fillMaxSize().padding(pad)
             ) {
-                composable(Tab.JOURNAL.route) { TimelineScreen(onNewEntry = { nav.navigate("editor") }) }
+                composable(Tab.JOURNAL.route) {
+                    TimelineScreen(
+                        onNewEntry = { nav.navigate("editor") },
+                        onOpenEntry = { id -> nav.navigate("entry/$id") }
+                    )
+                }
                 composable(Tab.METRICS.route) { MetricsScreen() }
                 composable(Tab.CALENDAR.route) { CalendarScreen() }
                 composable(Tab.ANALYZE.route) { AnalyzeScreen(prefsRepo = prefsRepo) }
                 composable("settings") { SettingsScreen(prefsRepo) }
                 composable("editor") { EditorScreen(onBack = { nav.popBackStack() }) }
+                composable("entry/{id}", arguments = listOf(navArgument("id") { type = NavType.LongType })) { back ->
+                    EntryDetailScreen(
+                        id = back.arguments!!.getLong("id"),
+                        onBack = { nav.popBackStack() },
+                        onEdit = { id -> nav.navigate("editor/$id") }
+                    )
+                }
+                composable("editor/{id}", arguments = listOf(navArgument("id") { type = NavType.LongType })) { back ->
+                    EditorScreen(entryId = back.arguments!!.getLong("id"), onBack = { nav.popBackStack() })
+                }
             }
         }
     }
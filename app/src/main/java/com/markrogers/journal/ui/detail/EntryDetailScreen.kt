@@ -1,14 +1,16 @@
 package com.markrogers.journal.ui.detail
 
 import androidx.compose.foundation.background
+import androidx.compose.foundation.clickable
 import androidx.compose.foundation.layout.*
+import androidx.compose.foundation.rememberScrollState
 import androidx.compose.foundation.shape.CircleShape
+import androidx.compose.foundation.verticalScroll
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.automirrored.filled.ArrowBack
+import androidx.compose.material.icons.filled.Edit
 import androidx.compose.material3.*
-import androidx.compose.runtime.Composable
-import androidx.compose.runtime.collectAsState
-import androidx.compose.runtime.getValue
+import androidx.compose.runtime.*
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
@@ -16,25 +18,29 @@ import androidx.compose.ui.graphics.Color
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.style.TextOverflow
 import androidx.compose.ui.unit.dp
+import androidx.lifecycle.compose.collectAsStateWithLifecycle
+import com.markrogers.journal.data.db.RevisionHeader
+import com.markrogers.journal.data.model.Habit
 import com.markrogers.journal.data.model.JournalEntry
 import com.markrogers.journal.data.repo.InMemoryRepository
+import java.time.Instant
 import java.time.ZoneId
 import java.time.format.DateTimeFormatter
 
-// Same palette as Metrics
-private val colorX = Color(0xFF6EE7B7) // green
-private val colorY = Color(0xFFF8D477) // amber
-private val colorZ = Color(0xFFFF6B6B) // red
-private val colorW = Color(0xFF60A5FA) // blue
-
 @OptIn(ExperimentalMaterial3Api::class)
 @Composable
 fun EntryDetailScreen(
     id: Long,
-    onBack: () -> Unit
+    onBack: () -> Unit,
+    onEdit: (Long) -> Unit = {}
 ) {
-    val entries by InMemoryRepository.entries.collectAsState()
-    val entry = entries.firstOrNull { it.id == id }
+    // Observe just this row; seed from the timeline list so there's no "not found" flash
+    val entry = remember(id) { InMemoryRepository.entry(id) }
+        .collectAsStateWithLifecycle(
+            initialValue = remember(id) { InMemoryRepository.snapshots.value[id] }
+        ).value
+    val habits by remember { InMemoryRepository.habits() }
+        .collectAsStateWithLifecycle(initialValue = emptyList())
 
     Scaffold(
         topBar = {
@@ -44,6 +50,13 @@ fun EntryDetailScreen(
                     IconButton(onClick = onBack) {
                         Icon(Icons.AutoMirrored.Filled.ArrowBack, contentDescription = "Back")
                     }
+                },
+                actions = {
+                    if (entry != null) {
+                        IconButton(onClick = { onEdit(entry.id) }) {
+                            Icon(Icons.Filled.Edit, contentDescription = "Edit")
+                        }
+                    }
                 }
             )
         }
@@ -58,9 +71,11 @@ fun EntryDetailScreen(
         } else {
             EntryDetailContent(
                 entry = entry,
+                habits = habits,
                 modifier = Modifier
                     .fillMaxSize()
                     .padding(pad)
+                    .verticalScroll(rememberScrollState())
                     .padding(16.dp)
             )
         }
@@ -68,7 +83,7 @@ fun EntryDetailScreen(
 }
 
 @Composable
-private fun EntryDetailContent(entry: JournalEntry, modifier: Modifier = Modifier) {
+private fun EntryDetailContent(entry: JournalEntry, habits: List<Habit>, modifier: Modifier = Modifier) {
     val fmt = DateTimeFormatter.ofPattern("MMM d, h:mm a")
 
     Column(modifier, verticalArrangement = Arrangement.spacedBy(16.dp)) {
@@ -110,10 +125,7 @@ private fun EntryDetailContent(entry: JournalEntry, modifier: Modifier = Modifie
                 horizontalArrangement = Arrangement.spacedBy(10.dp),
                 modifier = Modifier.weight(1f)
             ) {
-                ToggleDot(entry.toggleX, colorX)
-                ToggleDot(entry.toggleY, colorY)
-                ToggleDot(entry.toggleZ, colorZ)
-                ToggleDot(entry.toggleW, colorW)
+                habits.forEach { h -> HabitDot(entry.has(h), Color(h.color)) }
 
                 Text(
                     text = "Sleep: ${"%.1f".format(entry.sleepHours)}h",
@@ -127,11 +139,80 @@ private fun EntryDetailContent(entry: JournalEntry, modifier: Modifier = Modifie
                 color = MaterialTheme.colorScheme.onSurfaceVariant
             )
         }
+
+        HistorySection(entry.id)
+    }
+}
+
+/** Earlier versions of the entry; a body is only rebuilt when its row is opened. */
+@Composable
+private fun HistorySection(entryId: Long) {
+    val revisions by remember(entryId) { InMemoryRepository.revisions(entryId) }
+        .collectAsStateWithLifecycle(initialValue = emptyList())
+    if (revisions.isEmpty()) return
+
+    var open by remember(entryId) { mutableStateOf<Int?>(null) }
+
+    Column {
+        HorizontalDivider()
+        Spacer(Modifier.height(8.dp))
+        Text("History", style = MaterialTheme.typography.titleMedium)
+        revisions.forEach { r ->
+            RevisionRow(
+                entryId = entryId,
+                r = r,
+                expanded = open == r.revision,
+                onClick = { open = if (open == r.revision) null else r.revision }
+            )
+        }
+    }
+}
+
+@Composable
+private fun RevisionRow(entryId: Long, r: RevisionHeader, expanded: Boolean, onClick: () -> Unit) {
+    val fmt = DateTimeFormatter.ofPattern("MMM d, h:mm a")
+
+    Column(
+        Modifier
+            .fillMaxWidth()
+            .clickable(onClick = onClick)
+            .padding(vertical = 8.dp)
+    ) {
+        Row(verticalAlignment = Alignment.CenterVertically) {
+            Text(
+                text = if (r.title.isNotBlank()) r.title else "(untitled)",
+                style = MaterialTheme.typography.bodyLarge,
+                modifier = Modifier.weight(1f),
+                maxLines = 1,
+                overflow = TextOverflow.Ellipsis
+            )
+            Text(
+                text = "v${r.revision} · " + Instant.ofEpochMilli(r.replacedAt).atZone(ZoneId.systemDefault()).format(fmt),
+                style = MaterialTheme.typography.labelMedium,
+                color = MaterialTheme.colorScheme.onSurfaceVariant
+            )
+        }
+
+        if (expanded) {
+            // Rebuilt from the nearest keyframe each time the row is opened
+            val body by produceState<String?>(initialValue = null, entryId, r.revision) {
+                value = InMemoryRepository.revisionBody(entryId, r.revision) ?: UNAVAILABLE
+            }
+            Spacer(Modifier.height(6.dp))
+            when (val b = body) {
+                null -> LinearProgressIndicator(Modifier.fillMaxWidth())
+                UNAVAILABLE -> Text(b, color = MaterialTheme.colorScheme.onSurfaceVariant)
+                "" -> Text("(No body text)", color = MaterialTheme.colorScheme.onSurfaceVariant)
+                else -> Text(b, style = MaterialTheme.typography.bodyMedium)
+            }
+        }
     }
 }
 
+private const val UNAVAILABLE = "(This version can't be rebuilt)"
+
 @Composable
-private fun ToggleDot(checked: Boolean, color: Color) {
+private fun HabitDot(checked: Boolean, color: Color) {
     val fill = if (checked) color else color.copy(alpha = 0.25f)
     Box(
         Modifier
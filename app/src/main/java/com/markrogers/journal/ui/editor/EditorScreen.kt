@@ -28,24 +28,24 @@ import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.text.input.TextFieldValue
 import androidx.compose.ui.unit.Dp
 import androidx.compose.ui.unit.dp
+import com.markrogers.journal.data.db.AppDatabase
+import com.markrogers.journal.data.model.JournalEntry
 import com.markrogers.journal.data.prefs.AppPrefs
 import com.markrogers.journal.data.prefs.PreferencesRepository
+import androidx.lifecycle.compose.collectAsStateWithLifecycle
+import com.markrogers.journal.data.repo.Draft
+import com.markrogers.journal.data.repo.DraftAutosaver
 import com.markrogers.journal.data.repo.InMemoryRepository
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.launch
 import androidx.compose.foundation.Canvas
 import java.time.LocalDate
-import java.time.ZoneId
 
 
-// Keep these in sync with Metrics colors
-private val colorX = Color(0xFF6EE7B7) // green
-private val colorY = Color(0xFFF8D477) // yellow
-private val colorZ = Color(0xFFFF6B6B) // red
-private val colorW = Color(0xFF60A5FA) // blue
-
 @OptIn(ExperimentalMaterial3Api::class, ExperimentalFoundationApi::class)
 @Composable
 fun EditorScreen(
+    entryId: Long? = null, // null = new entry, otherwise edit that entry
     onBack: () -> Unit
 ) {
     val scope = rememberCoroutineScope()
@@ -60,22 +60,21 @@ fun EditorScreen(
 
     var title by remember { mutableStateOf(TextFieldValue("")) }
     var body by remember { mutableStateOf(TextFieldValue("")) }
-    var x by remember { mutableStateOf(false) }
-    var y by remember { mutableStateOf(false) }
-    var z by remember { mutableStateOf(false) }
-    var w by remember { mutableStateOf(false) } // fourth toggle
+    var habitMask by remember { mutableStateOf(0L) }
+    val habits by remember { InMemoryRepository.habits() }
+        .collectAsStateWithLifecycle(initialValue = emptyList())
 
 
     var showPickerFor by remember { mutableStateOf<Int?>(null) }
-    // All entries so we can look up today's sleep value
-    val allEntries by InMemoryRepository.entries.collectAsState()
+    // Today's entries only, so we can look up today's sleep value
+    val today = remember { LocalDate.now() }
+    val todaysEntries by remember(today) { InMemoryRepository.entriesBetween(today, today) }
+        .collectAsStateWithLifecycle(initialValue = emptyList())
 
     // Prefill sleep with today's latest non-zero value (if any)
-    val today = remember { LocalDate.now() }
-    val todaysSleep = remember(allEntries, today) {
-        allEntries
+    val todaysSleep = remember(todaysEntries) {
+        todaysEntries
             .asSequence()
-            .filter { it.createdAt.atZone(ZoneId.systemDefault()).toLocalDate() == today }
             .sortedBy { it.createdAt }     // oldest -> newest
             .map { it.sleepHours }
             .filter { it > 0f }
@@ -83,7 +82,44 @@ fun EditorScreen(
     }
 
     // <-- This replaces the old sleep declaration
-    var sleep by remember(todaysSleep) { mutableStateOf(todaysSleep ?: 7f) }
+    // (editing keeps the entry's own sleep, loaded below)
+    val sleepSeed = if (entryId == null) todaysSleep else null
+    var sleep by remember(sleepSeed) { mutableStateOf(sleepSeed ?: 7f) }
+
+    // The entry being edited, as loaded; Save diffs against it so only changed columns are written
+    var original by remember { mutableStateOf<JournalEntry?>(null) }
+
+    // ---- draft autosave: restore on open, then persist on a debounce (off the UI thread) ----
+    val autosaver = remember(context) {
+        DraftAutosaver(AppDatabase.get(context).draftDao(), DraftAutosaver.keyFor(entryId))
+    }
+    DisposableEffect(autosaver) { onDispose { autosaver.close() } }
+    LaunchedEffect(autosaver) {
+        var loaded: Draft? = null
+        if (entryId != null) {
+            val e = InMemoryRepository.entry(entryId).first()
+            if (e == null) { autosaver.discard(); onBack(); return@LaunchedEffect } // deleted meanwhile
+            title = TextFieldValue(e.title)
+            body = TextFieldValue(e.body)
+            moods = e.moodEmojis
+            habitMask = e.habitMask
+            sleep = e.sleepHours
+            original = e
+            loaded = Draft(e.title, e.body, e.moodEmojis, e.habitMask, e.sleepHours)
+        }
+        // The first emission below is the loaded entry itself; the baseline keeps it from
+        // being saved as an edit:<id> draft
+        autosaver.restore(baseline = loaded)?.let { d ->
+            title = TextFieldValue(d.title)
+            body = TextFieldValue(d.body)
+            moods = d.moodEmojis
+            habitMask = d.habitMask
+            d.sleepHours?.let { sleep = it }
+        }
+        // Per keystroke this only builds a small object; hashing and I/O happen in the autosaver
+        snapshotFlow { Draft(title.text, body.text, moods, habitMask, sleep) }
+            .collect { autosaver.onChange(it) }
+    }
 
     Text(
         if (todaysSleep != null) "Sleep is per-day. Editing updates today’s value."
@@ -95,27 +131,44 @@ fun EditorScreen(
     Scaffold(
         topBar = {
             TopAppBar(
-                title = { Text("New Entry") },
+                title = { Text(if (entryId == null) "New Entry" else "Edit Entry") },
                 navigationIcon = {
                     IconButton(onClick = onBack) {
                         Icon(Icons.AutoMirrored.Filled.ArrowBack, contentDescription = "Back")
                     }
                 },
                 actions = {
-                    TextButton(onClick = {
-                        InMemoryRepository.addEntry(
-                            title = title.text,
-                            body = body.text,
-                            moodEmojis = moods,
-                            moodRating = moodRatingFromEmojis(moods),
-                            toggleX = x,
-                            toggleY = y,
-                            toggleZ = z,
-                            toggleW = w,
-                            sleepHours = sleep
-                        )
-                        onBack()
-                    }) { Text("Save") }
+                    TextButton(
+                        enabled = entryId == null || original != null,
+                        onClick = {
+                            val o = original
+                            if (o == null) {
+                                InMemoryRepository.addEntry(
+                                    title = title.text,
+                                    body = body.text,
+                                    moodEmojis = moods,
+                                    moodRating = moodRatingFromEmojis(moods),
+                                    habitMask = habitMask,
+                                    sleepHours = sleep
+                                )
+                            } else {
+                                InMemoryRepository.editEntry(
+                                    o,
+                                    o.copy(
+                                        title = title.text,
+                                        body = body.text,
+                                        moodEmojis = moods,
+                                        // keep a rating that didn't come from the emojis (e.g. imported)
+                                        moodRating = if (moods == o.moodEmojis) o.moodRating else moodRatingFromEmojis(moods),
+                                        habitMask = habitMask,
+                                        sleepHours = sleep
+                                    )
+                                )
+                            }
+                            autosaver.discard()
+                            onBack()
+                        }
+                    ) { Text("Save") }
                 }
             )
         }
@@ -169,41 +222,31 @@ fun EditorScreen(
                 minLines = 6
             )
 
-            // --- Toggles (keep colors mapped to metrics balls) ---
-            Text("Toggles", style = MaterialTheme.typography.titleMedium)
-            Row(
-                modifier = Modifier.fillMaxWidth(),
-                verticalAlignment = Alignment.CenterVertically,
-                horizontalArrangement = Arrangement.SpaceEvenly
-            ) {
-                Switch(
-                    checked = x, onCheckedChange = { x = it },
-                    colors = SwitchDefaults.colors(
-                        checkedThumbColor = colorX,
-                        checkedTrackColor = colorX.copy(alpha = 0.45f)
-                    )
-                )
-                Switch(
-                    checked = y, onCheckedChange = { y = it },
-                    colors = SwitchDefaults.colors(
-                        checkedThumbColor = colorY,
-                        checkedTrackColor = colorY.copy(alpha = 0.45f)
-                    )
-                )
-                Switch(
-                    checked = z, onCheckedChange = { z = it },
-                    colors = SwitchDefaults.colors(
-                        checkedThumbColor = colorZ,
-                        checkedTrackColor = colorZ.copy(alpha = 0.45f)
-                    )
-                )
-                Switch(
-                    checked = w, onCheckedChange = { w = it },
-                    colors = SwitchDefaults.colors(
-                        checkedThumbColor = colorW,
-                        checkedTrackColor = colorW.copy(alpha = 0.45f)
-                    )
-                )
+            // --- Habits (colors match the metrics balls), a row of four switches at a time ---
+            if (habits.isNotEmpty()) {
+                Text("Habits", style = MaterialTheme.typography.titleMedium)
+                habits.chunked(4).forEach { row ->
+                    Row(
+                        modifier = Modifier.fillMaxWidth(),
+                        verticalAlignment = Alignment.CenterVertically,
+                        horizontalArrangement = Arrangement.SpaceEvenly
+                    ) {
+                        row.forEach { h ->
+                            val color = Color(h.color)
+                            Column(horizontalAlignment = Alignment.CenterHorizontally) {
+                                Switch(
+                                    checked = habitMask and h.mask != 0L,
+                                    onCheckedChange = { on -> habitMask = if (on) habitMask or h.mask else habitMask and h.mask.inv() },
+                                    colors = SwitchDefaults.colors(
+                                        checkedThumbColor = color,
+                                        checkedTrackColor = color.copy(alpha = 0.45f)
+                                    )
+                                )
+                                Text(h.name, style = MaterialTheme.typography.labelSmall, maxLines = 1)
+                            }
+                        }
+                    }
+                }
             }
 
             Spacer(Modifier.height(20.dp))
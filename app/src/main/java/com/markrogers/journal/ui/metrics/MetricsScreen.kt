@@ -4,10 +4,16 @@ import androidx.compose.foundation.Canvas
 import androidx.compose.foundation.background
 import androidx.compose.foundation.border
 import androidx.compose.foundation.clickable
+import androidx.compose.foundation.horizontalScroll
 import androidx.compose.foundation.layout.*
+import androidx.compose.foundation.rememberScrollState
+import androidx.compose.foundation.shape.CircleShape
 import androidx.compose.foundation.shape.RoundedCornerShape
+import androidx.compose.foundation.text.KeyboardOptions
+import androidx.compose.foundation.verticalScroll
 import androidx.compose.material3.*
 import androidx.compose.runtime.*
+import androidx.compose.runtime.saveable.rememberSaveable
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
@@ -19,22 +25,30 @@ import androidx.compose.ui.graphics.drawscope.DrawScope
 import androidx.compose.ui.graphics.drawscope.Stroke
 import androidx.compose.ui.graphics.drawscope.drawIntoCanvas
 import androidx.compose.ui.text.font.FontWeight
+import androidx.compose.ui.text.input.KeyboardType
 import androidx.compose.ui.unit.Dp
 import androidx.compose.ui.unit.dp
-import com.markrogers.journal.data.model.JournalEntry
+import com.markrogers.journal.analysis.EntryAggregates
+import com.markrogers.journal.analysis.EntrySummary
+import com.markrogers.journal.data.db.TagDayCount
+import com.markrogers.journal.data.model.Habit
+import com.markrogers.journal.data.model.Habits
+import com.markrogers.journal.data.model.Series
+import androidx.lifecycle.compose.collectAsStateWithLifecycle
 import com.markrogers.journal.data.repo.InMemoryRepository
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.launch
 import java.time.Instant
 import java.time.LocalDate
 import java.time.ZoneId
 import java.time.format.DateTimeFormatter
+import java.time.temporal.ChronoUnit
 import kotlin.math.max
 import kotlin.math.min
 
 @OptIn(ExperimentalMaterial3Api::class)
 @Composable
 fun MetricsScreen() {
-    val entries by InMemoryRepository.entries.collectAsState()
-
     // Date range (initialized from DB once)
     var start by remember { mutableStateOf<LocalDate?>(null) }
     var end by remember { mutableStateOf<LocalDate?>(null) }
@@ -45,13 +59,13 @@ fun MetricsScreen() {
     // Tab
     var tab by remember { mutableStateOf(ChartTab.Sleep) }
 
-    // Initialize range once from DB (first entry -> latest entry)
-    LaunchedEffect(entries) {
+    // Initialize range once from DB (first entry -> latest entry), via MIN/MAX instead of a full load
+    LaunchedEffect(Unit) {
         if (start == null || end == null) {
-            if (entries.isNotEmpty()) {
-                val dates = entries.map { it.createdAt.atZone(ZoneId.systemDefault()).toLocalDate() }
-                start = dates.minOrNull()
-                end = dates.maxOrNull()
+            val range = InMemoryRepository.dateRange()
+            if (range != null) {
+                start = range.start
+                end = range.endInclusive
             } else {
                 // fallback if there are no entries yet
                 start = LocalDate.now().minusDays(14)
@@ -64,10 +78,45 @@ fun MetricsScreen() {
     val s = start ?: return
     val e = end ?: return
 
-    val days = remember(s, e, entries, compact) {
-        aggregateDays(entries, s, e, compact)
+    // Only the selected range is observed
+    val entries by remember(s, e) { InMemoryRepository.entriesBetween(s, e) }
+        .collectAsStateWithLifecycle(initialValue = emptyList())
+
+    val habits by remember { InMemoryRepository.habits() }
+        .collectAsStateWithLifecycle(initialValue = emptyList())
+
+    // Per-day and range stats are folded in parallel chunks off the main thread
+    val summary by produceState<EntrySummary?>(null, entries, habits) {
+        value = EntryAggregates.summarize(entries, habitsMask = habits.fold(0L) { m, h -> m or h.mask })
+    }
+    val days = remember(s, e, summary, compact) {
+        summary?.let { aggregateDays(it, s, e, compact) } ?: emptyList()
     }
 
+    // One numeric series (weight, steps, ...) can be overlaid on the chart
+    val allSeries by remember { InMemoryRepository.series() }
+        .collectAsStateWithLifecycle(initialValue = emptyList())
+    var seriesId by rememberSaveable { mutableStateOf<Long?>(null) }
+    val selectedSeries = allSeries.firstOrNull { it.id == seriesId }
+    val points by remember(seriesId, s, e) {
+        seriesId?.let { InMemoryRepository.seriesBetween(it, s, e) } ?: flowOf(emptyList())
+    }.collectAsStateWithLifecycle(initialValue = emptyList())
+    val overlay = remember(selectedSeries, points) {
+        selectedSeries?.let { sel ->
+            val zone = ZoneId.systemDefault()
+            SeriesOverlay(
+                color = Color(sel.color),
+                unit = sel.unit,
+                byDate = points.associate { Instant.ofEpochSecond(it.time).atZone(zone).toLocalDate() to it.value }
+            )
+        }
+    }
+
+    // Tag counts come pre-grouped from the tag index; only bucketing happens here
+    val tagDays by remember(s, e) { InMemoryRepository.tagCountsBetween(s, e) }
+        .collectAsStateWithLifecycle(initialValue = emptyList())
+    val trends = remember(s, e, tagDays) { tagTrends(tagDays, s, e) }
+
     // Date range picker state
     var showRangeDialog by remember { mutableStateOf(false) }
     val rangeState = rememberDateRangePickerState(
@@ -98,6 +147,7 @@ fun MetricsScreen() {
     Column(
         modifier = Modifier
             .fillMaxSize()
+            .verticalScroll(rememberScrollState())
             .padding(16.dp),
         verticalArrangement = Arrangement.spacedBy(16.dp)
     ) {
@@ -130,9 +180,203 @@ fun MetricsScreen() {
         }
 
         GlowCard(title = "Sleep hours") {
-            UnifiedChart(days = days, mode = tab)
+            UnifiedChart(days = days, habits = habits, mode = tab, overlay = overlay)
+        }
+
+        summary?.takeIf { it.days.isNotEmpty() }?.let { sum ->
+            GlowCard(title = "Summary") {
+                SummaryStats(sum)
+            }
+        }
+
+        GlowCard(title = "Series") {
+            SeriesCard(
+                series = allSeries,
+                selected = selectedSeries,
+                onSelect = { seriesId = it }
+            )
+        }
+
+        if (trends.isNotEmpty()) {
+            GlowCard(title = "Tags") {
+                TagTrends(trends)
+            }
+        }
+    }
+}
+
+/* ---------- tag counts over time ---------- */
+
+private class TagTrend(val name: String, val total: Int, val buckets: IntArray)
+
+/** Top [top] tags in [s]..[e] with their counts per week (per month past ~6 months). */
+private fun tagTrends(rows: List<TagDayCount>, s: LocalDate, e: LocalDate, top: Int = 5): List<TagTrend> {
+    if (rows.isEmpty()) return emptyList()
+    val weeks = (ChronoUnit.DAYS.between(s, e) / 7).toInt() + 1
+    val monthly = weeks > 26
+    val firstMonth = s.withDayOfMonth(1)
+    val n = if (monthly) ChronoUnit.MONTHS.between(firstMonth, e.withDayOfMonth(1)).toInt() + 1 else weeks
+    fun bucket(d: LocalDate): Int =
+        (if (monthly) ChronoUnit.MONTHS.between(firstMonth, d.withDayOfMonth(1)) else ChronoUnit.DAYS.between(s, d) / 7)
+            .toInt().coerceIn(0, n - 1)
+
+    return rows.groupBy { it.name }
+        .map { (name, days) ->
+            val buckets = IntArray(n)
+            days.forEach { buckets[bucket(LocalDate.parse(it.day))] += it.entryCount }
+            TagTrend(name, days.sumOf { it.entryCount }, buckets)
+        }
+        .sortedWith(compareByDescending<TagTrend> { it.total }.thenBy { it.name })
+        .take(top)
+}
+
+@Composable
+private fun TagTrends(trends: List<TagTrend>) {
+    val bar = remember { Brush.verticalGradient(listOf(Color(0xFF05D2FF), Color(0xFF7C6BFF))) }
+    Column(verticalArrangement = Arrangement.spacedBy(10.dp)) {
+        trends.forEach { t ->
+            Row(verticalAlignment = Alignment.CenterVertically) {
+                Text(
+                    "#${t.name}",
+                    style = MaterialTheme.typography.bodyMedium,
+                    maxLines = 1,
+                    modifier = Modifier.width(96.dp)
+                )
+                // One bar per bucket, scaled to this tag's busiest bucket
+                Canvas(
+                    Modifier
+                        .weight(1f)
+                        .height(24.dp)
+                ) {
+                    val peak = t.buckets.maxOrNull()?.takeIf { it > 0 } ?: return@Canvas
+                    val slot = size.width / t.buckets.size
+                    val barW = max(1f, slot * 0.7f)
+                    t.buckets.forEachIndexed { i, c ->
+                        if (c == 0) return@forEachIndexed
+                        val h = size.height * c / peak
+                        drawRoundRect(
+                            brush = bar,
+                            topLeft = Offset(i * slot + (slot - barW) / 2, size.height - h),
+                            size = Size(barW, h),
+                            cornerRadius = CornerRadius(barW / 3)
+                        )
+                    }
+                }
+                Text(
+                    "${t.total}",
+                    style = MaterialTheme.typography.labelLarge,
+                    color = MaterialTheme.colorScheme.onSurfaceVariant,
+                    modifier = Modifier.padding(start = 8.dp)
+                )
+            }
+        }
+    }
+}
+
+/* ---------- numeric series ---------- */
+
+/** A series' points keyed by local date, drawn over the chart on its own scale. */
+private class SeriesOverlay(val color: Color, val unit: String, val byDate: Map<LocalDate, Double>)
+
+private val SERIES_COLORS = listOf(0xFFF472B6, 0xFFFB923C, 0xFFA3E635, 0xFF38BDF8, 0xFFE879F9, 0xFFFACC15)
+
+@Composable
+private fun SeriesCard(series: List<Series>, selected: Series?, onSelect: (Long?) -> Unit) {
+    var showNew by remember { mutableStateOf(false) }
+    var input by remember(selected?.id) { mutableStateOf("") }
+
+    Column(verticalArrangement = Arrangement.spacedBy(10.dp)) {
+        Row(
+            modifier = Modifier.horizontalScroll(rememberScrollState()),
+            horizontalArrangement = Arrangement.spacedBy(8.dp)
+        ) {
+            series.forEach { sr ->
+                FilterChip(
+                    selected = sr.id == selected?.id,
+                    onClick = { onSelect(if (sr.id == selected?.id) null else sr.id) },
+                    label = { Text(sr.name) },
+                    leadingIcon = {
+                        Box(
+                            Modifier
+                                .size(10.dp)
+                                .background(Color(sr.color), CircleShape)
+                        )
+                    }
+                )
+            }
+            AssistChip(onClick = { showNew = true }, label = { Text("New") })
+        }
+        if (selected != null) {
+            Row(verticalAlignment = Alignment.CenterVertically) {
+                OutlinedTextField(
+                    value = input,
+                    onValueChange = { input = it },
+                    label = { Text(if (selected.unit.isBlank()) "Today" else "Today (${selected.unit})") },
+                    singleLine = true,
+                    keyboardOptions = KeyboardOptions(keyboardType = KeyboardType.Decimal),
+                    modifier = Modifier.weight(1f)
+                )
+                Spacer(Modifier.width(8.dp))
+                Button(
+                    enabled = input.toDoubleOrNull() != null,
+                    onClick = {
+                        InMemoryRepository.logValue(selected.id, LocalDate.now(), input.toDouble())
+                        input = ""
+                    }
+                ) { Text("Log") }
+            }
         }
     }
+
+    if (showNew) {
+        NewSeriesDialog(
+            color = SERIES_COLORS[series.size % SERIES_COLORS.size],
+            onDismiss = { showNew = false },
+            onCreated = { id -> showNew = false; onSelect(id) }
+        )
+    }
+}
+
+@Composable
+private fun NewSeriesDialog(color: Long, onDismiss: () -> Unit, onCreated: (Long) -> Unit) {
+    val scope = rememberCoroutineScope()
+    var name by remember { mutableStateOf("") }
+    var unit by remember { mutableStateOf("") }
+    var taken by remember { mutableStateOf(false) }
+    AlertDialog(
+        onDismissRequest = onDismiss,
+        title = { Text("New series") },
+        text = {
+            Column(verticalArrangement = Arrangement.spacedBy(8.dp)) {
+                OutlinedTextField(
+                    value = name,
+                    onValueChange = { name = it; taken = false },
+                    label = { Text("Name (e.g. Weight)") },
+                    isError = taken,
+                    supportingText = { if (taken) Text("Already exists") },
+                    singleLine = true
+                )
+                OutlinedTextField(
+                    value = unit,
+                    onValueChange = { unit = it },
+                    label = { Text("Unit (e.g. kg)") },
+                    singleLine = true
+                )
+            }
+        },
+        confirmButton = {
+            TextButton(
+                enabled = name.isNotBlank(),
+                onClick = {
+                    scope.launch {
+                        val id = InMemoryRepository.createSeries(name, unit, color)
+                        if (id == null) taken = true else onCreated(id)
+                    }
+                }
+            ) { Text("Create") }
+        },
+        dismissButton = { TextButton(onClick = onDismiss) { Text("Cancel") } }
+    )
 }
 
 /* ---------- unified chart (mood+sleep+totals) ---------- */
@@ -143,7 +387,9 @@ private data class SegOpt(val label: String, val tab: ChartTab)
 @Composable
 private fun UnifiedChart(
     days: List<DayAgg>,
+    habits: List<Habit>,
     mode: ChartTab,
+    overlay: SeriesOverlay? = null,
     height: Dp = 260.dp
 ) {
     val shape = RoundedCornerShape(24.dp)
@@ -179,7 +425,7 @@ private fun UnifiedChart(
             val xs = days.indices.map { i -> left + i * stepX }
 
             if (mode != ChartTab.Hist) {
-                val counts = days.map { it.cX + it.cY + it.cZ + it.cW }
+                val counts = days.map { it.total }
                 val maxCount = counts.maxOrNull()?.coerceAtLeast(1) ?: 1
                 val desiredBarW = min(36f, stepX * .55f)
                 val maxAllowedDiameter = (bottom - top) / maxCount
@@ -242,12 +488,30 @@ private fun UnifiedChart(
                     line(sleepPath, graphCyan, dominant = true)
                 }
                 ChartTab.Hist -> {
-                    drawTotalsStacksExact(days = days, xs = xs, top = top, bottom = bottom, stepX = stepX)
+                    drawTotalsStacksExact(days = days, habits = habits, xs = xs, top = top, bottom = bottom, stepX = stepX)
                     line(moodPath, graphPurple, dominant = false)
                     line(sleepPath, graphCyan, dominant = false)
                 }
             }
 
+            // Series overlay: own min..max scale; only days that are on the x axis are drawn
+            if (overlay != null) {
+                val pts = days.mapIndexedNotNull { i, d -> overlay.byDate[d.date]?.let { xs[i] to it } }
+                if (pts.isNotEmpty()) {
+                    val lo = pts.minOf { it.second }
+                    val hi = pts.maxOf { it.second }
+                    val span = if (hi > lo) hi - lo else 1.0
+                    val offsets = pts.map { (x, v) -> Offset(x, (bottom - ((v - lo) / span) * (bottom - top)).toFloat()) }
+                    drawPath(smoothPath(offsets), color = overlay.color.copy(alpha = 0.9f), style = Stroke(width = 4f))
+                    offsets.forEach { drawCircle(overlay.color, radius = 4f, center = it) }
+                    drawIntoCanvas { cnv ->
+                        val unit = if (overlay.unit.isBlank()) "" else " ${overlay.unit}"
+                        cnv.nativeCanvas.drawText("${"%.1f".format(hi)}$unit", right - 120f, top + 24f, labelPaint)
+                        cnv.nativeCanvas.drawText("${"%.1f".format(lo)}$unit", right - 120f, bottom - 6f, labelPaint)
+                    }
+                }
+            }
+
             // X labels (thinned)
             val labFmt = DateTimeFormatter.ofPattern("M/d")
             val stride = max(1, days.size / 8)
@@ -271,16 +535,18 @@ private fun UnifiedChart(
  * Totals view:
  *  • ballDiameter == barWidth (clamped so tallest stack fits exactly)
  *  • balls have ZERO vertical spacing
- *  • outline height == ballDiameter * (cX+cY+cZ+cW)
+ *  • outline height == ballDiameter * total habits done that day
+ *  • one color per habit, first habit on top
  */
 private fun DrawScope.drawTotalsStacksExact(
     days: List<DayAgg>,
+    habits: List<Habit>,
     xs: List<Float>,
     top: Float,
     bottom: Float,
     stepX: Float
 ) {
-    val counts = days.map { it.cX + it.cY + it.cZ + it.cW }
+    val counts = days.map { it.total }
     val maxCount = counts.maxOrNull()?.coerceAtLeast(1) ?: 1
 
     val desiredBarW = min(36f, stepX * .55f)
@@ -314,80 +580,90 @@ private fun DrawScope.drawTotalsStacksExact(
                 k++
             }
         }
-        put(d.cW, colorW)
-        put(d.cZ, colorZ)
-        put(d.cY, colorY)
-        put(d.cX, colorX)
+        habits.asReversed().forEach { h -> put(d.perBit[h.bit], Color(h.color)) }
     }
 }
 
 /* ---------- aggregation ---------- */
 
-private data class DayAgg(
+private class DayAgg(
     val date: LocalDate,
     val sleep: Float,
     val mood: Float?,
-    val cX: Int, val cY: Int, val cZ: Int, val cW: Int
+    /** Habits done that day, summed over entries. */
+    val total: Int,
+    /** Per habit bit: how many of the day's entries have it. */
+    val perBit: IntArray
 )
 
+private val NO_HABITS = IntArray(Habits.MAX)
+
 /**
  * If compact = true, we only include dates that have entries (no blanks).
  * If compact = false, we include every day from start..end.
- * Sleep is "latest non-zero per day" to avoid multiple-entry skew.
+ * The per-day numbers come from [EntryAggregates.summarize]: sleep is "latest non-zero per day"
+ * to avoid multiple-entry skew, habits of deleted definitions are already masked out.
  */
 private fun aggregateDays(
-    entries: List<JournalEntry>,
+    summary: EntrySummary,
     start: LocalDate,
     end: LocalDate,
     compact: Boolean
 ): List<DayAgg> {
     if (end.isBefore(start)) return emptyList()
-
-    val grouped = entries.groupBy { it.createdAt.atZone(ZoneId.systemDefault()).toLocalDate() }
+    val byDay = summary.days.subMap(start, end.plusDays(1))
 
     val dates: List<LocalDate> = if (compact) {
-        grouped.keys.filter { !it.isBefore(start) && !it.isAfter(end) }.sorted()
+        byDay.keys.toList()
     } else {
         generateSequence(start) { it.plusDays(1) }
             .takeWhile { !it.isAfter(end) }
             .toList()
     }
 
-    fun latestNonZeroSleep(list: List<JournalEntry>): Float {
-        return list.asSequence()
-            .sortedBy { it.createdAt }
-            .map { it.sleepHours }
-            .filter { it > 0f }
-            .lastOrNull() ?: 0f
-    }
-
     return dates.map { d ->
-        val list = grouped[d].orEmpty()
-        val sleepForDay = latestNonZeroSleep(list)
-        val moodAvg = list.mapNotNull { it.moodRating?.toFloat() }
-            .let { if (it.isEmpty()) null else it.average().toFloat() }
-        DayAgg(
+        val a = byDay[d]
+        if (a == null) DayAgg(d, sleep = 0f, mood = null, total = 0, perBit = NO_HABITS)
+        else DayAgg(
             date = d,
-            sleep = sleepForDay,
-            mood = moodAvg,
-            cX = list.count { it.toggleX },
-            cY = list.count { it.toggleY },
-            cZ = list.count { it.toggleZ },
-            cW = list.count { it.toggleW }
+            sleep = a.sleep,
+            mood = a.mood.mean?.toFloat(),
+            total = a.habitTotal,
+            perBit = a.perBit ?: NO_HABITS
         )
     }
 }
 
+/** Range-wide numbers under the chart: mean ± sd, spread, most common rating, 7-day trend. */
+@Composable
+private fun SummaryStats(summary: EntrySummary) {
+    val rolling = remember(summary) { summary.rollingMood(7) }
+    Column(verticalArrangement = Arrangement.spacedBy(6.dp)) {
+        summary.mood.mean?.let { m ->
+            val mode = summary.moodMode.mode()?.let { " · most often $it" } ?: ""
+            StatLine("Mood", "${"%.1f".format(m)} ± ${"%.1f".format(summary.mood.stdDev ?: 0.0)}$mode")
+        }
+        rolling.values.lastOrNull()?.let { StatLine("Mood, last 7 days", "%.1f".format(it)) }
+        summary.sleep.mean?.let { m ->
+            StatLine("Sleep", "${"%.1f".format(m)} h (${"%.1f".format(summary.sleep.min)}–${"%.1f".format(summary.sleep.max)})")
+        }
+        summary.sleepMood.pearson()?.let { StatLine("Sleep ↔ mood", "r = ${"%.2f".format(it)}") }
+    }
+}
+
+@Composable
+private fun StatLine(label: String, value: String) {
+    Row(Modifier.fillMaxWidth(), horizontalArrangement = Arrangement.SpaceBetween) {
+        Text(label, style = MaterialTheme.typography.bodyMedium)
+        Text(value, style = MaterialTheme.typography.bodyMedium, fontWeight = FontWeight.SemiBold)
+    }
+}
+
 /* ---------- UI bits ---------- */
 
 private val graphPurple = Color(0xFF9A7BFF)
 private val graphCyan = Color(0xFF00E6FF)
 
-private val colorX = Color(0xFF6EE7B7)
-private val colorY = Color(0xFFF8D477)
-private val colorZ = Color(0xFFFF6B6B)
-private val colorW = Color(0xFF60A5FA)
-
 @Composable
 private fun SegmentedTabs(
     options: List<SegOpt>,
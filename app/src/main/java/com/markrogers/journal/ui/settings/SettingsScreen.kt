@@ -3,18 +3,35 @@ package com.markrogers.journal.ui.settings
 import android.widget.Toast
 import androidx.activity.compose.rememberLauncherForActivityResult
 import androidx.activity.result.contract.ActivityResultContracts
+import androidx.compose.foundation.background
+import androidx.compose.foundation.clickable
 import androidx.compose.foundation.layout.*
+import androidx.compose.foundation.rememberScrollState
+import androidx.compose.foundation.shape.CircleShape
+import androidx.compose.foundation.verticalScroll
+import androidx.compose.material.icons.Icons
+import androidx.compose.material.icons.filled.Delete
 import androidx.compose.material3.*
 import androidx.compose.runtime.*
 import androidx.compose.ui.Modifier
+import androidx.compose.ui.draw.clip
+import androidx.compose.ui.focus.onFocusChanged
+import androidx.compose.ui.graphics.Color
 import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.unit.dp
-import com.google.gson.Gson
-import com.google.gson.reflect.TypeToken
+import com.markrogers.journal.data.archive.ArchiveStore
+import com.markrogers.journal.data.backup.BinaryBackup
+import com.markrogers.journal.data.backup.JsonBackup
+import com.markrogers.journal.data.backup.toEntry
+import com.markrogers.journal.data.db.AppDatabase
+import com.markrogers.journal.data.model.Habit
+import com.markrogers.journal.data.model.Habits
 import com.markrogers.journal.data.prefs.*
 import com.markrogers.journal.data.repo.InMemoryRepository
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
-import java.time.Instant
+import kotlinx.coroutines.withContext
 
 @Composable
 fun SettingsScreen(repo: PreferencesRepository) {
@@ -22,9 +39,6 @@ fun SettingsScreen(repo: PreferencesRepository) {
     val scope = rememberCoroutineScope()
     val ctx = LocalContext.current
 
-    // ---- observe entries for export ----
-    val entries by InMemoryRepository.entries.collectAsState()
-
     // ---- export/import launchers (Storage Access Framework) ----
     val exportLauncher = rememberLauncherForActivityResult(
         ActivityResultContracts.CreateDocument("application/json")
@@ -32,26 +46,14 @@ fun SettingsScreen(repo: PreferencesRepository) {
         if (uri != null) {
             scope.launch {
                 try {
-                    // Use a DTO so we don’t depend on Room-specific fields
-                    val payload = entries.map {
-                        EntryJson(
-                            createdAt = it.createdAt.toEpochMilli(),
-                            title = it.title,
-                            body = it.body,
-                            moodEmojis = it.moodEmojis,
-                            moodRating = it.moodRating,
-                            toggleX = it.toggleX,
-                            toggleY = it.toggleY,
-                            toggleZ = it.toggleZ,
-                            toggleW = it.toggleW,
-                            sleepHours = it.sleepHours
-                        )
-                    }
-                    val json = Gson().toJson(payload)
-                    ctx.contentResolver.openOutputStream(uri)?.use { os ->
-                        os.write(json.toByteArray(Charsets.UTF_8))
+                    // EntryJson DTO so we don’t depend on Room-specific fields
+                    val snapshot = InMemoryRepository.allEntries()
+                    withContext(Dispatchers.IO) {
+                        ctx.contentResolver.openOutputStream(uri)?.buffered()?.use { os ->
+                            JsonBackup.write(snapshot, os)
+                        }
                     }
-                    Toast.makeText(ctx, "Exported ${payload.size} entries", Toast.LENGTH_SHORT).show()
+                    Toast.makeText(ctx, "Exported ${snapshot.size} entries", Toast.LENGTH_SHORT).show()
                 } catch (e: Exception) {
                     Toast.makeText(ctx, "Export failed: ${e.message}", Toast.LENGTH_LONG).show()
                 }
@@ -61,46 +63,91 @@ fun SettingsScreen(repo: PreferencesRepository) {
 
     val importLauncher = rememberLauncherForActivityResult(
         ActivityResultContracts.OpenDocument()
+    ) { uri ->
+        if (uri != null) {
+            scope.launch {
+                // Decode element by element and write in batches; each batch is awaited, so the
+                // count is what actually reached the database
+                var imported = 0
+                try {
+                    withContext(Dispatchers.IO) {
+                        ctx.contentResolver.openInputStream(uri)?.buffered()?.use { input ->
+                            JsonBackup.read(input).chunked(500).forEach { batch ->
+                                imported += InMemoryRepository.importEntries(batch.map { it.toEntry() })
+                            }
+                        }
+                    }
+                    Toast.makeText(ctx, "Imported $imported entries", Toast.LENGTH_SHORT).show()
+                } catch (e: Exception) {
+                    val done = if (imported > 0) " after $imported entries" else ""
+                    Toast.makeText(ctx, "Import failed$done: ${e.message}", Toast.LENGTH_LONG).show()
+                }
+            }
+        }
+    }
+
+    // ---- binary backups: full, or only what changed since the last one ----
+    var deltaBackup by remember { mutableStateOf(false) }
+    val backupLauncher = rememberLauncherForActivityResult(
+        ActivityResultContracts.CreateDocument("application/octet-stream")
     ) { uri ->
         if (uri != null) {
             scope.launch {
                 try {
-                    val json = ctx.contentResolver.openInputStream(uri)?.use { it.readBytes().toString(Charsets.UTF_8) }
-                        ?: ""
-                    val type = object : TypeToken<List<EntryJson>>() {}.type
-                    val list: List<EntryJson> = Gson().fromJson(json, type) ?: emptyList()
-
-                    // Append imported items
-                    list.forEach { d ->
-                        InMemoryRepository.restoreEntry(
-                            com.markrogers.journal.data.model.JournalEntry(
-                                id = 0L, // new row
-                                createdAt = Instant.ofEpochMilli(d.createdAt),
-                                title = d.title ?: "",
-                                body = d.body ?: "",
-                                moodEmojis = d.moodEmojis ?: emptyList(),
-                                moodRating = d.moodRating,
-                                toggleX = d.toggleX,
-                                toggleY = d.toggleY,
-                                toggleZ = d.toggleZ,
-                                toggleW = d.toggleW,
-                                sleepHours = d.sleepHours ?: 0f
+                    val since = if (deltaBackup) prefs.lastBackupAt.takeIf { it > 0 } else null
+                    val written = withContext(Dispatchers.IO) {
+                        ctx.contentResolver.openOutputStream(uri)?.buffered()?.use { os ->
+                            BinaryBackup.write(
+                                AppDatabase.get(ctx).journalDao(), os,
+                                sinceMillis = since, archive = ArchiveStore.get(ctx)
                             )
+                        }
+                    }
+                    if (written != null) {
+                        repo.setLastBackupAt(written.untilMillis)
+                        val kind = if (since == null) "Full" else "Incremental"
+                        Toast.makeText(ctx, "$kind backup: ${written.entries} entries", Toast.LENGTH_SHORT).show()
+                    }
+                } catch (e: Exception) {
+                    Toast.makeText(ctx, "Backup failed: ${e.message}", Toast.LENGTH_LONG).show()
+                }
+            }
+        }
+    }
+
+    val restoreLauncher = rememberLauncherForActivityResult(
+        ActivityResultContracts.OpenMultipleDocuments()
+    ) { uris ->
+        if (uris.isNotEmpty()) {
+            scope.launch {
+                try {
+                    // Base + deltas can be picked together; restore orders and merges them
+                    val count = withContext(Dispatchers.IO) {
+                        val files = uris.mapNotNull { uri ->
+                            ctx.contentResolver.openInputStream(uri)?.buffered()?.use { BinaryBackup.read(it) }
+                        }
+                        BinaryBackup.restore(
+                            AppDatabase.get(ctx), ArchiveStore.get(ctx), files,
+                            archiveCutoff = prefs.archiveAfterYears.takeIf { it > 0 }?.let { ArchiveStore.cutoffFor(it) }
                         )
                     }
-                    Toast.makeText(ctx, "Imported ${list.size} entries", Toast.LENGTH_SHORT).show()
+                    Toast.makeText(ctx, "Restored $count entries", Toast.LENGTH_SHORT).show()
                 } catch (e: Exception) {
-                    Toast.makeText(ctx, "Import failed: ${e.message}", Toast.LENGTH_LONG).show()
+                    Toast.makeText(ctx, "Restore failed: ${e.message}", Toast.LENGTH_LONG).show()
                 }
             }
         }
     }
 
     var showClearConfirm by remember { mutableStateOf(false) }
+    var showRestoreConfirm by remember { mutableStateOf(false) }
+    val habits by remember { InMemoryRepository.habits() }.collectAsState(initial = emptyList())
+    var habitToDelete by remember { mutableStateOf<Habit?>(null) }
 
     Column(
         Modifier
             .fillMaxSize()
+            .verticalScroll(rememberScrollState())
             .padding(16.dp),
         verticalArrangement = Arrangement.spacedBy(12.dp)
     ) {
@@ -140,6 +187,14 @@ fun SettingsScreen(repo: PreferencesRepository) {
             modifier = Modifier.fillMaxWidth(),
             singleLine = true
         )
+        Row(verticalAlignment = androidx.compose.ui.Alignment.CenterVertically) {
+            Text("Fastest wins (uses both keys)")
+            Spacer(Modifier.width(12.dp))
+            Switch(
+                checked = prefs.hedgeProviders,
+                onCheckedChange = { v -> scope.launch { repo.setHedgeProviders(v) } }
+            )
+        }
         Divider()
 
         Text("Security", style = MaterialTheme.typography.titleMedium)
@@ -154,6 +209,27 @@ fun SettingsScreen(repo: PreferencesRepository) {
 
         Divider()
 
+        // Up to 64; each is one bit of the entry's habit mask
+        Text("Habits", style = MaterialTheme.typography.titleMedium)
+        habits.forEach { h ->
+            HabitRow(
+                habit = h,
+                onChange = { InMemoryRepository.saveHabit(it) },
+                // Bit 0 is also every todo's "done" flag, so its habit can be renamed but not deleted
+                onDelete = if (h.bit == Habits.DONE_BIT) null else ({ habitToDelete = h })
+            )
+        }
+        val freeBit = Habits.freeBit(habits)
+        TextButton(
+            enabled = freeBit != null,
+            onClick = {
+                val bit = freeBit ?: return@TextButton
+                InMemoryRepository.saveHabit(Habit(bit, "Habit ${habits.size + 1}", HABIT_COLORS[bit % HABIT_COLORS.size]))
+            }
+        ) { Text(if (freeBit != null) "Add habit" else "All ${Habits.MAX} habits in use") }
+
+        Divider()
+
         // ---------------- Data section (Export / Import / Clear all) ----------------
         Text("Data", style = MaterialTheme.typography.titleMedium)
 
@@ -175,6 +251,55 @@ fun SettingsScreen(repo: PreferencesRepository) {
             ) { Text("Import JSON") }
         }
 
+        Row(
+            horizontalArrangement = Arrangement.spacedBy(8.dp),
+            modifier = Modifier.fillMaxWidth()
+        ) {
+            Button(
+                onClick = {
+                    deltaBackup = false
+                    backupLauncher.launch("journal_full_${System.currentTimeMillis()}.jrnb")
+                },
+                modifier = Modifier.weight(1f)
+            ) { Text("Full backup") }
+
+            OutlinedButton(
+                onClick = {
+                    deltaBackup = true
+                    backupLauncher.launch("journal_delta_${System.currentTimeMillis()}.jrnb")
+                },
+                enabled = prefs.lastBackupAt > 0,
+                modifier = Modifier.weight(1f)
+            ) { Text("Incremental") }
+        }
+
+        OutlinedButton(
+            onClick = { showRestoreConfirm = true },
+            modifier = Modifier.fillMaxWidth()
+        ) { Text("Restore backups") }
+
+        // Older years move to compressed per-year files; still readable, just out of the hot database
+        Text(
+            "Archived entries leave the timeline and can't be edited; Calendar and Metrics still show them.",
+            style = MaterialTheme.typography.bodySmall
+        )
+        Row(verticalAlignment = androidx.compose.ui.Alignment.CenterVertically) {
+            Text("Archive after", modifier = Modifier.weight(1f))
+            listOf(0 to "Off", 1 to "1y", 2 to "2y", 5 to "5y").forEach { (years, label) ->
+                FilterChip(
+                    selected = prefs.archiveAfterYears == years,
+                    onClick = {
+                        scope.launch {
+                            repo.setArchiveAfterYears(years)
+                            InMemoryRepository.archiveOlderThan(years)
+                        }
+                    },
+                    label = { Text(label) },
+                    modifier = Modifier.padding(start = 6.dp)
+                )
+            }
+        }
+
         OutlinedButton(
             onClick = { showClearConfirm = true },
             colors = ButtonDefaults.outlinedButtonColors(
@@ -184,6 +309,40 @@ fun SettingsScreen(repo: PreferencesRepository) {
         ) { Text("Clear all data") }
     }
 
+    habitToDelete?.let { h ->
+        AlertDialog(
+            onDismissRequest = { habitToDelete = null },
+            title = { Text("Delete “${h.name}”?") },
+            text = { Text("It's removed from every entry, including archived ones.") },
+            confirmButton = {
+                TextButton(onClick = {
+                    habitToDelete = null
+                    InMemoryRepository.deleteHabit(h.bit)
+                }) { Text("Delete", color = MaterialTheme.colorScheme.error) }
+            },
+            dismissButton = {
+                TextButton(onClick = { habitToDelete = null }) { Text("Cancel") }
+            }
+        )
+    }
+
+    if (showRestoreConfirm) {
+        AlertDialog(
+            onDismissRequest = { showRestoreConfirm = false },
+            title = { Text("Replace this journal?") },
+            text = { Text("Restoring deletes every entry on this device, then loads the backup (pick the full backup and its incremental ones together).") },
+            confirmButton = {
+                TextButton(onClick = {
+                    showRestoreConfirm = false
+                    restoreLauncher.launch(arrayOf("application/octet-stream", "*/*"))
+                }) { Text("Choose files", color = MaterialTheme.colorScheme.error) }
+            },
+            dismissButton = {
+                TextButton(onClick = { showRestoreConfirm = false }) { Text("Cancel") }
+            }
+        )
+    }
+
     if (showClearConfirm) {
         AlertDialog(
             onDismissRequest = { showClearConfirm = false },
@@ -203,16 +362,56 @@ fun SettingsScreen(repo: PreferencesRepository) {
     }
 }
 
-/** Lightweight export/import shape (stable, not tied to Room’s internal entity). */
-private data class EntryJson(
-    val createdAt: Long,
-    val title: String? = null,
-    val body: String? = null,
-    val moodEmojis: List<String>? = null,
-    val moodRating: Int? = null,
-    val toggleX: Boolean = false,
-    val toggleY: Boolean = false,
-    val toggleZ: Boolean = false,
-    val toggleW: Boolean = false,
-    val sleepHours: Float? = 0f
+// Tapping a habit's dot steps through these; the first four are the original toggle colors
+private val HABIT_COLORS = listOf(
+    0xFF6EE7B7, 0xFFF8D477, 0xFFFF6B6B, 0xFF60A5FA,
+    0xFF9A7BFF, 0xFF00E6FF, 0xFFF472B6, 0xFFFB923C
 )
+
+// A habit's name is saved this long after the last keystroke (or when the field loses focus)
+private const val HABIT_NAME_SAVE_DELAY_MS = 600L
+
+@Composable
+private fun HabitRow(habit: Habit, onChange: (Habit) -> Unit, onDelete: (() -> Unit)?) {
+    // Local text so typing doesn't wait on a Room round trip; written once typing pauses,
+    // not per keystroke (each save re-emits every habits flow)
+    var name by remember(habit.bit) { mutableStateOf(habit.name) }
+    val current by rememberUpdatedState(habit)
+    val save by rememberUpdatedState(onChange)
+    fun commit() {
+        val trimmed = name.trim()
+        if (trimmed.isNotBlank() && trimmed != current.name) save(current.copy(name = trimmed))
+    }
+    LaunchedEffect(name) {
+        delay(HABIT_NAME_SAVE_DELAY_MS)
+        commit()
+    }
+    Row(verticalAlignment = androidx.compose.ui.Alignment.CenterVertically) {
+        Box(
+            Modifier
+                .size(24.dp)
+                .clip(CircleShape)
+                .background(Color(habit.color))
+                .clickable {
+                    val next = HABIT_COLORS[(HABIT_COLORS.indexOf(habit.color) + 1) % HABIT_COLORS.size]
+                    onChange(habit.copy(color = next))
+                }
+        )
+        Spacer(Modifier.width(12.dp))
+        OutlinedTextField(
+            value = name,
+            onValueChange = { name = it },
+            modifier = Modifier
+                .weight(1f)
+                .onFocusChanged { if (!it.isFocused) commit() },
+            singleLine = true
+        )
+        if (onDelete != null) {
+            IconButton(onClick = onDelete) {
+                Icon(Icons.Filled.Delete, contentDescription = "Delete habit")
+            }
+        } else {
+            Spacer(Modifier.size(48.dp)) // keeps the name fields aligned
+        }
+    }
+}
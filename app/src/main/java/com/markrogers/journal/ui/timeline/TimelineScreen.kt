@@ -5,12 +5,15 @@ import androidx.compose.foundation.background
 import androidx.compose.foundation.clickable
 import androidx.compose.foundation.layout.*
 import androidx.compose.foundation.lazy.LazyColumn
+import androidx.compose.foundation.lazy.LazyRow
 import androidx.compose.foundation.lazy.items
 import androidx.compose.foundation.shape.CircleShape
+import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.filled.Add
 import androidx.compose.material3.*
 import androidx.compose.runtime.*
+import androidx.compose.runtime.saveable.rememberSaveable
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.graphics.Color
@@ -21,28 +24,38 @@ import androidx.compose.ui.unit.dp
 import androidx.core.content.ContextCompat
 import androidx.fragment.app.FragmentActivity
 import androidx.biometric.BiometricPrompt
+import com.markrogers.journal.data.db.TagCount
+import com.markrogers.journal.data.model.Habit
 import com.markrogers.journal.data.model.JournalEntry
 import com.markrogers.journal.data.prefs.AppPrefs
 import com.markrogers.journal.data.prefs.PreferencesRepository
+import androidx.lifecycle.compose.collectAsStateWithLifecycle
 import com.markrogers.journal.data.repo.InMemoryRepository
+import kotlinx.coroutines.flow.flowOf
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.suspendCancellableCoroutine
 import java.time.ZoneId
 import java.time.format.DateTimeFormatter
 import kotlin.coroutines.resume
 
-// Color definitions from MetricsScreen for consistency
-private val colorX = Color(0xFF6EE7B7)
-private val colorY = Color(0xFFF8D477)
-private val colorZ = Color(0xFFFF6B6B)
-private val colorW = Color(0xFF60A5FA)
-
 @OptIn(ExperimentalMaterial3Api::class)
 @Composable
 fun TimelineScreen(
-    onNewEntry: () -> Unit = {}
+    onNewEntry: () -> Unit = {},
+    onOpenEntry: (Long) -> Unit = {}
 ) {
-    val entries by InMemoryRepository.entries.collectAsState()
+    // Stops observing Room when the app goes to the background
+    val all by InMemoryRepository.entries.collectAsStateWithLifecycle()
+
+    // Tag filter: the chips come from the tag index, and a selected tag is an index lookup
+    var tagFilter by rememberSaveable { mutableStateOf<String?>(null) }
+    val topTags by remember { InMemoryRepository.topTags() }
+        .collectAsStateWithLifecycle(initialValue = emptyList())
+    val tagged by remember(tagFilter) { tagFilter?.let { InMemoryRepository.entriesTagged(it) } ?: flowOf(null) }
+        .collectAsStateWithLifecycle(initialValue = null)
+    val entries = if (tagFilter == null) all else tagged.orEmpty()
+    val habits by remember { InMemoryRepository.habits() }
+        .collectAsStateWithLifecycle(initialValue = emptyList())
     val snackbar = remember { SnackbarHostState() }
     val scope = rememberCoroutineScope()
 
@@ -64,64 +77,80 @@ fun TimelineScreen(
             )
         }
     ) { pad ->
-        LazyColumn(
-            modifier = Modifier
-                .fillMaxSize()
-                .padding(pad)
-        ) {
-            items(entries, key = { it.id }) { e: JournalEntry ->
-                val dismissState = rememberSwipeToDismissBoxState(
-                    confirmValueChange = { false }
-//                    confirmValueChange = { value ->
-//                        if (value == SwipeToDismissBoxValue.EndToStart ||
-//                            value == SwipeToDismissBoxValue.StartToEnd
-//                        ) {
-//                            InMemoryRepository.deleteEntry(e.id)
-//                            scope.launch {
-//                                val result = snackbar.showSnackbar(
-//                                    message = "Entry deleted",
-//                                    actionLabel = "Undo",
-//                                    withDismissAction = true,
-//                                    duration = SnackbarDuration.Short
-//                                )
-//                                if (result == SnackbarResult.ActionPerformed) {
-//                                    InMemoryRepository.restoreEntry(e)
-//                                }
-//                            }
-//                            true
-//                        } else false
-//                    }
+        Column(Modifier.fillMaxSize().padding(pad)) {
+            if (topTags.isNotEmpty() || tagFilter != null) {
+                TagChips(
+                    tags = topTags,
+                    selected = tagFilter,
+                    onSelect = { tagFilter = if (tagFilter == it) null else it }
                 )
+            }
+            LazyColumn(
+                modifier = Modifier.fillMaxSize()
+            ) {
+                items(entries, key = { it.id }) { e: JournalEntry ->
+                    val dismissState = rememberSwipeToDismissBoxState(
+                        confirmValueChange = { value ->
+                            if (value == SwipeToDismissBoxValue.EndToStart ||
+                                value == SwipeToDismissBoxValue.StartToEnd
+                            ) {
+                                // Soft delete: undo brings back the same id, so the row keeps its key
+                                InMemoryRepository.deleteEntry(e.id)
+                                scope.launch {
+                                    val result = snackbar.showSnackbar(
+                                        message = "Entry deleted",
+                                        actionLabel = "Undo",
+                                        withDismissAction = true,
+                                        duration = SnackbarDuration.Short
+                                    )
+                                    if (result == SnackbarResult.ActionPerformed) {
+                                        InMemoryRepository.restoreEntry(e)
+                                    }
+                                }
+                                true
+                            } else false
+                        }
+                    )
 
-                SwipeToDismissBox(
-                    state = dismissState,
-                    backgroundContent = { /* optional red background */ }
-                ) {
-                    var expanded by remember { mutableStateOf(false) }
-
-                    val onRowClick: () -> Unit = {
-                        scope.launch {
-                            if (prefs.requireBiometric) {
-                                val ok = authenticate(activity,
-                                    title = "Unlock entry",
-                                    subtitle = "Authenticate to view details"
-                                )
-                                if (ok) {
-                                    expanded = !expanded
+                    SwipeToDismissBox(
+                        state = dismissState,
+                        backgroundContent = {
+                            Box(
+                                Modifier
+                                    .fillMaxSize()
+                                    .padding(horizontal = 16.dp, vertical = 8.dp)
+                                    .background(MaterialTheme.colorScheme.errorContainer, RoundedCornerShape(12.dp))
+                            )
+                        }
+                    ) {
+                        var expanded by remember { mutableStateOf(false) }
+
+                        val onRowClick: () -> Unit = {
+                            scope.launch {
+                                if (prefs.requireBiometric) {
+                                    val ok = authenticate(activity,
+                                        title = "Unlock entry",
+                                        subtitle = "Authenticate to view details"
+                                    )
+                                    if (ok) {
+                                        expanded = !expanded
+                                    } else {
+                                        snackbar.showSnackbar("Authentication required")
+                                    }
                                 } else {
-                                    snackbar.showSnackbar("Authentication required")
+                                    expanded = !expanded
                                 }
-                            } else {
-                                expanded = !expanded
                             }
                         }
-                    }
 
-                    TimelineRow(
-                        e = e,
-                        isExpanded = expanded,
-                        onClick = onRowClick
-                    )
+                        TimelineRow(
+                            e = e,
+                            habits = habits,
+                            isExpanded = expanded,
+                            onClick = onRowClick,
+                            onOpen = { onOpenEntry(e.id) }
+                        )
+                    }
                 }
             }
         }
@@ -165,8 +194,10 @@ private suspend fun authenticate(
 @Composable
 private fun TimelineRow(
     e: JournalEntry,
+    habits: List<Habit>,
     isExpanded: Boolean,
-    onClick: () -> Unit
+    onClick: () -> Unit,
+    onOpen: () -> Unit
 ) {
     ElevatedCard(
         modifier = Modifier
@@ -217,20 +248,18 @@ private fun TimelineRow(
                 )
             }
 
-            // Toggles + sleep summary (only when expanded)
+            // Habits + sleep summary (only when expanded)
             AnimatedVisibility(visible = isExpanded) {
                 Column {
                     Spacer(Modifier.height(12.dp))
                     Row(
+                        modifier = Modifier.fillMaxWidth(),
                         horizontalArrangement = Arrangement.spacedBy(8.dp),
                         verticalAlignment = Alignment.CenterVertically
                     ) {
-                        if (e.toggleX) ColorDot(color = colorX)
-                        if (e.toggleY) ColorDot(color = colorY)
-                        if (e.toggleZ) ColorDot(color = colorZ)
-                        if (e.toggleW) ColorDot(color = colorW)
+                        habits.forEach { h -> if (e.has(h)) ColorDot(color = Color(h.color)) }
 
-                        if (e.toggleX || e.toggleY || e.toggleZ || e.toggleW) {
+                        if (habits.any { e.has(it) }) {
                             Spacer(Modifier.width(4.dp))
                         }
 
@@ -238,6 +267,10 @@ private fun TimelineRow(
                             "Sleep: ${"%.1f".format(e.sleepHours)}h",
                             style = MaterialTheme.typography.labelMedium
                         )
+
+                        Spacer(Modifier.weight(1f))
+                        // Expanded only after the biometric check, so opening is gated too
+                        TextButton(onClick = onOpen) { Text("Open") }
                     }
                 }
             }
@@ -253,3 +286,27 @@ private fun ColorDot(color: Color, size: Dp = 12.dp) {
             .background(color, shape = CircleShape)
     )
 }
+
+@OptIn(ExperimentalMaterial3Api::class)
+@Composable
+private fun TagChips(
+    tags: List<TagCount>,
+    selected: String?,
+    onSelect: (String) -> Unit
+) {
+    // Keep the active filter visible even if it dropped out of the top list
+    val shown = if (selected == null || tags.any { it.name == selected }) tags
+    else listOf(TagCount(selected, 0)) + tags
+    LazyRow(
+        contentPadding = PaddingValues(horizontal = 16.dp),
+        horizontalArrangement = Arrangement.spacedBy(8.dp)
+    ) {
+        items(shown, key = { it.name }) { t ->
+            FilterChip(
+                selected = t.name == selected,
+                onClick = { onSelect(t.name) },
+                label = { Text(if (t.entryCount > 0) "#${t.name} · ${t.entryCount}" else "#${t.name}") }
+            )
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.markrogers.journal.analysis
+
+import com.markrogers.journal.data.model.JournalEntry
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.time.Instant
+import java.time.LocalDate
+import java.time.ZoneOffset
+import kotlin.random.Random
+
+class AggregatorTest {
+    private val zone = ZoneOffset.UTC
+
+    // Several entries a day, some in the same second, so sleep ties need the id to break them
+    private fun entries(n: Int, random: Random): List<JournalEntry> {
+        var t = 1_700_000_000L
+        return List(n) { i ->
+            t += if (random.nextInt(4) == 0) 0L else random.nextLong(1, 8 * 3_600)
+            JournalEntry(
+                id = i + 1L,
+                createdAt = Instant.ofEpochSecond(t),
+                title = "",
+                body = "",
+                moodRating = if (random.nextInt(5) == 0) null else random.nextInt(1, 6),
+                habitMask = random.nextLong() and 0xFF,
+                sleepHours = if (random.nextBoolean()) 0f else random.nextInt(8, 20) / 2f
+            )
+        }
+    }
+
+    private fun sequential(list: List<JournalEntry>): Map<LocalDate, DayStats> {
+        val days = HashMap<LocalDate, DayStats>()
+        list.forEach { e -> days.getOrPut(e.createdAt.atZone(zone).toLocalDate()) { DayStats() }.add(e, -1L) }
+        return days
+    }
+
+    // Moods are small integers, so the sums are exact in any order
+    private fun DayStats.fingerprint() = listOf(
+        entries, mood.count, mood.sum, mood.sumSq, mood.min, mood.max,
+        sleep, habitsAny, habitTotal, perBit?.toList()
+    )
+
+    private fun assertSameDays(expected: Map<LocalDate, DayStats>, actual: Map<LocalDate, DayStats>) {
+        assertEquals(expected.keys, actual.keys)
+        expected.forEach { (d, s) -> assertEquals("day $d", s.fingerprint(), actual.getValue(d).fingerprint()) }
+    }
+
+    @Test fun dayStatsMergeMatchesASequentialFoldInEitherOrder() {
+        val random = Random(50)
+        repeat(200) {
+            val list = entries(random.nextInt(2, 60), random)
+            val cut = random.nextInt(1, list.size)
+            val expected = sequential(list)
+
+            val forward = sequential(list.subList(0, cut)).toMutableMap()
+            sequential(list.subList(cut, list.size)).forEach { (d, s) -> forward.merge(d, s, DayStats::merge) }
+            assertSameDays(expected, forward)
+
+            val backward = sequential(list.subList(cut, list.size)).toMutableMap()
+            sequential(list.subList(0, cut)).forEach { (d, s) -> backward.merge(d, s, DayStats::merge) }
+            assertSameDays(expected, backward)
+        }
+    }
+
+    @Test fun sleepTieGoesToTheHigherIdWhateverTheListOrder() {
+        val at = Instant.ofEpochSecond(1_700_000_000L)
+        val a = JournalEntry(7, at, "", "", sleepHours = 6f)
+        val b = JournalEntry(9, at, "", "", sleepHours = 8f)
+
+        assertEquals(8f, sequential(listOf(a, b)).values.single().sleep, 0f)
+        assertEquals(8f, sequential(listOf(b, a)).values.single().sleep, 0f)
+    }
+
+    @Test fun chunkedSummaryMatchesASequentialFold() = runBlocking {
+        // Well past MIN_CHUNK, so the fold is split into chunks (on more than one core)
+        val list = entries(20_000, Random(500)).reversed() // newest first, like the timeline
+        val summary = EntryAggregates.summarize(list, zone)
+        val expected = sequential(list)
+
+        assertSameDays(expected, summary.days)
+        assertEquals(list.count { it.moodRating != null }.toLong(), summary.mood.count)
+        assertEquals(list.sumOf { it.moodRating ?: 0 }.toDouble(), summary.mood.sum, 0.0)
+        // Ratings 1..5: fewer distinct keys than counters, so the sketch is exact
+        val mode = list.mapNotNull { it.moodRating }.groupingBy { it }.eachCount()
+            .entries.sortedWith(compareByDescending<Map.Entry<Int, Int>> { it.value }.thenBy { it.key }).first().key
+        assertEquals(mode.toLong(), summary.moodMode.mode())
+
+        val shuffled = EntryAggregates.summarize(list.shuffled(Random(1)), zone)
+        assertSameDays(expected, shuffled.days)
+    }
+}
@@ -0,0 +1,73 @@
+package com.markrogers.journal.analysis
+
+import com.markrogers.journal.data.prefs.AiProvider
+import com.markrogers.journal.net.AiBackend
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+
+class SummarizationEngineTest {
+    /** Answers every request with [reply] characters and records the prompts. */
+    private class FakeBackend(private val reply: Int) : AiBackend {
+        override val provider = AiProvider.OPENAI
+        val prompts: MutableList<String> = Collections.synchronizedList(mutableListOf())
+
+        override suspend fun complete(prompt: String): String {
+            prompts += prompt
+            return "s".repeat(reply)
+        }
+
+        override fun stream(prompt: String): Flow<String> {
+            prompts += prompt
+            return flowOf("final")
+        }
+    }
+
+    // Tokens of a prompt's lines, without the instruction line
+    private fun lineTokens(prompt: String) =
+        prompt.lines().drop(1).filter { it.isNotEmpty() }.sumOf { SummarizationEngine.estimateTokens(it) }
+
+    @Test fun packKeepsOrderAndStaysUnderBudget() {
+        val engine = SummarizationEngine(FakeBackend(0), chunkTokens = 100)
+        val lines = List(40) { i -> "$i " + "w".repeat((i * 37) % 300) }
+
+        val chunks = engine.pack(lines)
+
+        assertEquals(lines, chunks.flatten())
+        chunks.forEach { c -> assertTrue(c.sumOf { SummarizationEngine.estimateTokens(it) } <= 100) }
+    }
+
+    @Test fun aLineLongerThanAChunkIsCut() {
+        val engine = SummarizationEngine(FakeBackend(0), chunkTokens = 50)
+        val chunk = engine.pack(listOf("x".repeat(1_000))).single()
+        assertTrue(SummarizationEngine.estimateTokens(chunk.single()) <= 50)
+        assertTrue(chunk.single().endsWith("…"))
+    }
+
+    @Test fun everyRequestFitsEvenWhenPartialsComeBackLong() = runBlocking {
+        // Each partial is ~2.5 chunks long, so no two ever pack together unless cut
+        val backend = FakeBackend(reply = 1_000)
+        val engine = SummarizationEngine(backend, chunkTokens = 100, maxConcurrency = 2)
+        val lines = List(30) { "line $it " + "w".repeat(190) }
+
+        val events = engine.summarizeLines(lines).toList()
+
+        assertEquals(30, events.filterIsInstance<SummaryEvent.ChunkDone>().size)
+        assertEquals(listOf(SummaryEvent.Delta("final")), events.filterIsInstance<SummaryEvent.Delta>())
+        backend.prompts.forEach { p -> assertTrue("${lineTokens(p)} tokens", lineTokens(p) <= 100) }
+        assertTrue(backend.prompts.last().startsWith(SummarizationEngine.REDUCE_PREFIX))
+    }
+
+    @Test fun aSmallWindowIsOneStreamedRequest() = runBlocking {
+        val backend = FakeBackend(reply = 10)
+        val events = SummarizationEngine(backend).summarizeLines(listOf("a", "b")).toList()
+
+        assertEquals(listOf<SummaryEvent>(SummaryEvent.Delta("final")), events)
+        assertEquals(1, backend.prompts.size)
+    }
+}
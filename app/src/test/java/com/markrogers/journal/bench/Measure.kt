@@ -0,0 +1,25 @@
+package com.markrogers.journal.bench
+
+import kotlinx.serialization.Serializable
+import java.lang.management.ManagementFactory
+
+/** Wall time and bytes allocated (all live threads) by one run of a block. */
+@Serializable
+data class Measurement(val millis: Double, val allocatedBytes: Long)
+
+object Measure {
+    private val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+    /** Bytes allocated so far by the live threads; threads that already ended are not counted. */
+    fun allocatedBytes(): Long = threads.getThreadAllocatedBytes(threads.allThreadIds).filter { it > 0 }.sum()
+
+    /** Runs [block] [warmup] times untimed, then once measured. */
+    inline fun <T> run(warmup: Int = 0, block: () -> T): Pair<T, Measurement> {
+        repeat(warmup) { block() }
+        val bytes0 = allocatedBytes()
+        val t0 = System.nanoTime()
+        val value = block()
+        val millis = (System.nanoTime() - t0) / 1e6
+        return value to Measurement(millis, allocatedBytes() - bytes0)
+    }
+}
@@ -0,0 +1,77 @@
+package com.markrogers.journal.data.backup
+
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.protobuf.ProtoBuf
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.util.zip.DeflaterOutputStream
+
+@OptIn(ExperimentalSerializationApi::class)
+class BinaryBackupReadTest {
+    private fun file(header: BinaryBackup.Header, vararg blocks: BinaryBackup.Block, rawFrame: ByteArray? = null): ByteArray {
+        val out = ByteArrayOutputStream()
+        out.write("JRNB".toByteArray())
+        frame(out, ProtoBuf.encodeToByteArray(BinaryBackup.Header.serializer(), header))
+        blocks.forEach { b ->
+            val deflated = ByteArrayOutputStream().also { bos ->
+                DeflaterOutputStream(bos).use { it.write(ProtoBuf.encodeToByteArray(BinaryBackup.Block.serializer(), b)) }
+            }.toByteArray()
+            frame(out, deflated)
+        }
+        rawFrame?.let { out.write(it) }
+        return out.toByteArray()
+    }
+
+    private fun frame(out: ByteArrayOutputStream, bytes: ByteArray) {
+        var n = bytes.size
+        while (n >= 0x80) { out.write((n and 0x7F) or 0x80); n = n ushr 7 }
+        out.write(n)
+        out.write(bytes)
+    }
+
+    private fun row(id: Long, emojis: List<Int> = emptyList()) =
+        BinaryBackup.Row(id = id, createdDelta = 1_700_000_000L + id, updatedAt = 1L, title = "t$id", emojis = emojis)
+
+    private fun assertCorrupt(bytes: ByteArray) {
+        try {
+            BinaryBackup.read(bytes.inputStream())
+            fail("expected IOException")
+        } catch (e: IOException) {
+            // expected
+        }
+    }
+
+    @Test fun readsAWellFormedFile() {
+        val bytes = file(
+            BinaryBackup.Header(entryCount = 2, emojis = listOf("🙂", "☕")),
+            BinaryBackup.Block(listOf(row(1, listOf(1, 0)), row(2)))
+        )
+        val (header, rows) = BinaryBackup.read(bytes.inputStream())
+        assertEquals(2, header.entryCount)
+        assertEquals(listOf(1L, 2L), rows.map { it.id })
+        assertEquals("☕,🙂", rows[0].moodEmojisCsv)
+    }
+
+    @Test fun outOfRangeEmojiIndexIsAnIOException() =
+        assertCorrupt(file(BinaryBackup.Header(emojis = listOf("🙂")), BinaryBackup.Block(listOf(row(1, listOf(5))))))
+
+    @Test fun oversizedFrameIsRejectedBeforeAllocating() {
+        // Declares a ~2 GiB frame (varint 0xFF 0xFF 0xFF 0xFF 0x07) with nothing behind it
+        val huge = byteArrayOf(0xFF.toByte(), 0xFF.toByte(), 0xFF.toByte(), 0xFF.toByte(), 0x07)
+        assertCorrupt(file(BinaryBackup.Header(), rawFrame = huge))
+    }
+
+    @Test fun overlongLengthVarintIsRejected() {
+        val endless = ByteArray(8) { 0x80.toByte() } + byteArrayOf(0x01)
+        assertCorrupt(file(BinaryBackup.Header(), rawFrame = endless))
+    }
+
+    @Test fun hostileEntryCountDoesNotPreallocate() {
+        val (_, rows) = BinaryBackup.read(file(BinaryBackup.Header(entryCount = Int.MAX_VALUE)).inputStream())
+        assertTrue(rows.isEmpty())
+    }
+}
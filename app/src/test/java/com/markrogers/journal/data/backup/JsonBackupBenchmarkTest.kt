@@ -0,0 +1,59 @@
+package com.markrogers.journal.data.backup
+
+import com.markrogers.journal.bench.Measure
+import com.markrogers.journal.data.model.JournalEntry
+import kotlinx.serialization.builtins.ListSerializer
+import kotlinx.serialization.json.Json
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.time.Instant
+
+/**
+ * Export/import throughput and allocation for the generated codecs. Prints one line per case;
+ * the assertions only check that the streamed import sees the same data as the export.
+ */
+class JsonBackupBenchmarkTest {
+    private val entries = List(N) { i ->
+        JournalEntry(
+            id = i + 1L,
+            createdAt = Instant.ofEpochSecond(1_600_000_000L + i * 3_600L),
+            title = "Entry $i",
+            body = "Walked the dog, wrote some code, felt ${if (i % 3 == 0) "great" else "tired"}. ".repeat(4),
+            moodEmojis = listOf("🙂", "☕"),
+            moodRating = i % 5 + 1,
+            habitMask = (i % 16).toLong(),
+            sleepHours = 6.5f + (i % 4) * 0.5f
+        )
+    }
+
+    @Test fun exportAndStreamingImport() {
+        val (bytes, export) = Measure.run(warmup = 2) {
+            ByteArrayOutputStream().also { JsonBackup.write(entries, it) }.toByteArray()
+        }
+        val (imported, streaming) = Measure.run(warmup = 2) {
+            ByteArrayInputStream(bytes).use { input -> JsonBackup.read(input).map { it.toEntry() }.toList() }
+        }
+        val text = bytes.toString(Charsets.UTF_8)
+        val (_, wholeDocument) = Measure.run(warmup = 2) {
+            Json { ignoreUnknownKeys = true }.decodeFromString(ListSerializer(EntryJson.serializer()), text)
+        }
+
+        report("export", export.millis, export.allocatedBytes)
+        report("import (streaming)", streaming.millis, streaming.allocatedBytes)
+        report("import (whole String)", wholeDocument.millis, wholeDocument.allocatedBytes)
+        println("file: ${bytes.size / 1024} KiB for $N entries")
+
+        assertEquals(N, imported.size)
+        assertEquals(entries.last().copy(id = 0L), imported.last())
+        assertEquals(entries.first().copy(id = 0L), imported.first())
+    }
+
+    private fun report(case: String, millis: Double, allocated: Long) =
+        println("%-22s %8.1f ms  %9.0f entries/s  %7d B/entry".format(case, millis, N / (millis / 1000), allocated / N))
+
+    private companion object {
+        const val N = 20_000
+    }
+}
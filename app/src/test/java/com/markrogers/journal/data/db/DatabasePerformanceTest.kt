@@ -0,0 +1,155 @@
+package com.markrogers.journal.data.db
+
+import android.content.Context
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.markrogers.journal.bench.Measure
+import com.markrogers.journal.bench.Measurement
+import com.markrogers.journal.data.archive.ArchiveStore
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.Json
+import org.junit.Assert.assertEquals
+import org.junit.Assert.fail
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.File
+import java.time.Instant
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Database regression suite: seeds an in-memory AppDatabase with [SIZES] synthetic entries and
+ * times (and counts allocations of) the paths the timeline, calendar and editor depend on.
+ * - Results go to build/db-bench/results.json.
+ * - Each metric is compared with src/test/resources/db-bench-baseline.json: slower or heavier
+ *   than baseline × (1 + tolerance) (+ slackMillis, for sub-millisecond ops) fails the test,
+ *   and so does a metric the baseline doesn't have, so an empty baseline can't pass.
+ * - DB_BENCH_UPDATE_BASELINE=1 rewrites the baseline from this run (do it on the reference
+ *   machine); DB_BENCH_SIZES=10000,100000 limits the sizes for a quick local run.
+ * - Not part of the default test run; see -PdbBench in app/build.gradle.kts.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34])
+class DatabasePerformanceTest {
+    @Serializable
+    data class Baseline(
+        val tolerance: Double = 0.5,
+        val slackMillis: Double = 5.0,
+        val metrics: Map<String, Measurement> = emptyMap()
+    )
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val json = Json { prettyPrint = true; ignoreUnknownKeys = true }
+    private val results = LinkedHashMap<String, Measurement>()
+
+    @Test fun databasePathsStayWithinBaseline() {
+        SIZES.forEach { n -> runSize(n) }
+
+        val out = File("build/db-bench/results.json")
+        out.parentFile?.mkdirs()
+        out.writeText(json.encodeToString(Baseline.serializer(), Baseline(metrics = results)))
+
+        val baseline = javaClass.getResourceAsStream("/db-bench-baseline.json")
+            ?.use { json.decodeFromString(Baseline.serializer(), it.readBytes().decodeToString()) }
+            ?: Baseline()
+        if (System.getenv("DB_BENCH_UPDATE_BASELINE") == "1") {
+            File("src/test/resources/db-bench-baseline.json")
+                .writeText(json.encodeToString(Baseline.serializer(), baseline.copy(metrics = results)))
+            return
+        }
+
+        val regressions = results.mapNotNull { (name, now) ->
+            val base = baseline.metrics[name] ?: return@mapNotNull "$name: not in the baseline"
+            val maxMillis = base.millis * (1 + baseline.tolerance) + baseline.slackMillis
+            val maxBytes = (base.allocatedBytes * (1 + baseline.tolerance)).toLong() + SLACK_BYTES
+            when {
+                now.millis > maxMillis -> "$name: %.1f ms > %.1f ms allowed".format(now.millis, maxMillis)
+                now.allocatedBytes > maxBytes -> "$name: ${now.allocatedBytes} B > $maxBytes B allowed"
+                else -> null
+            }
+        }
+        if (regressions.isNotEmpty()) {
+            fail(
+                "Regressions against the baseline (record new metrics with DB_BENCH_UPDATE_BASELINE=1 " +
+                    "on the reference machine):\n" + regressions.joinToString("\n")
+            )
+        }
+    }
+
+    private fun runSize(n: Int) = runBlocking {
+        val db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java).build()
+        try {
+            val dao = db.journalDao()
+            val repo = JournalRepository(db, ArchiveStore.get(context))
+            val random = Random(n)
+
+            // upsertAll: the whole table goes in as 1000-row batches; reported per batch
+            val batches = syntheticRows(n, random).chunked(BATCH)
+            val (_, seed) = Measure.run { batches.forEach { dao.upsertAll(it) } }
+            record(n, "upsertAll_per_$BATCH", seed / batches.size)
+
+            // observeAll first emission: the timeline's cold start, raw rows and mapped to the UI model
+            val (rows, observe) = Measure.run(warmup = 1) { dao.observeAll().first() }
+            assertEquals(n, rows.size)
+            record(n, "observeAll_first", observe)
+            val (mapped, mapping) = Measure.run(warmup = 1) { repo.observeAll().first() }
+            assertEquals(n, mapped.size)
+            record(n, "repository_observeAll_first", mapping)
+
+            // Day-range reads (calendar day, Metrics range edges); reported per read
+            val days = List(OPS) { START + random.nextLong(SPAN_SECONDS / DAY) * DAY }
+            val (_, dayReads) = Measure.run(warmup = 1) { days.forEach { dao.getBetween(it, it + DAY) } }
+            record(n, "day_range_read", dayReads / OPS)
+
+            // deleteById: hard deletes of single rows (purge path); reported per delete
+            val ids = rows.shuffled(random).take(OPS).map { it.id }
+            val (_, deletes) = Measure.run { ids.forEach { dao.deleteByIds(listOf(it)) } }
+            record(n, "deleteById", deletes / OPS)
+        } finally {
+            db.close()
+        }
+    }
+
+    private fun record(n: Int, metric: String, m: Measurement) {
+        results["$n/$metric"] = m
+        println("%7d %-30s %10.2f ms %12d B".format(n, metric, m.millis, m.allocatedBytes))
+    }
+
+    private operator fun Measurement.div(ops: Int) = Measurement(millis / ops, allocatedBytes / ops)
+
+    private fun syntheticRows(n: Int, random: Random): Sequence<EntryEntity> = sequence {
+        val step = SPAN_SECONDS / n
+        for (i in 0 until n) {
+            val created = START + i * step + random.nextLong(step.coerceAtLeast(1))
+            yield(
+                EntryEntity(
+                    createdAt = Instant.ofEpochSecond(created),
+                    title = if (i % 4 == 0) "" else "Day ${i % 365}",
+                    body = WORDS.shuffled(random).take(20 + random.nextInt(40)).joinToString(" "),
+                    moodRating = if (i % 3 == 0) null else 1 + random.nextInt(5),
+                    moodEmojisCsv = if (i % 2 == 0) "🙂" else "",
+                    habitMask = random.nextLong() and 0xF,
+                    sleepMinutes = if (i % 5 == 0) null else 300 + random.nextInt(240),
+                    updatedAt = created * 1000
+                )
+            )
+        }
+    }
+
+    private companion object {
+        const val BATCH = 1_000
+        const val OPS = 100
+        const val SLACK_BYTES = 64L * 1024
+        val DAY = TimeUnit.DAYS.toSeconds(1)
+        const val START = 1_577_836_800L // 2020-01-01
+        val SPAN_SECONDS = TimeUnit.DAYS.toSeconds(3 * 365)
+        val SIZES = System.getenv("DB_BENCH_SIZES")?.split(",")?.map { it.trim().toInt() }
+            ?: listOf(10_000, 100_000, 500_000)
+        val WORDS = ("walked dog coffee work meeting gym tired happy code read book rain sun family call " +
+            "dinner cooked pasta slept late early run park friends movie music wrote journal #work #gym").split(" ")
+    }
+}
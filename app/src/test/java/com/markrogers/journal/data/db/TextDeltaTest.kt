@@ -0,0 +1,67 @@
+package com.markrogers.journal.data.db
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class TextDeltaTest {
+    private val words = ("the quick brown fox jumps over a lazy dog today I walked to work and it rained " +
+        "naïve café 🙂 #gym").split(" ")
+
+    private fun text(random: Random, n: Int) = List(n) { words.random(random) }.joinToString(" ")
+
+    @Test fun randomEditsRoundTrip() {
+        val random = Random(42)
+        var encoded = 0
+        repeat(2_000) {
+            val base = text(random, random.nextInt(0, 120))
+            val target = base.split(" ").toMutableList().apply {
+                repeat(random.nextInt(0, 12)) {
+                    val at = random.nextInt(0, size + 1)
+                    when (random.nextInt(3)) {
+                        0 -> add(at, words.random(random))
+                        1 -> if (at < size) removeAt(at)
+                        else -> if (at < size) set(at, words.random(random))
+                    }
+                }
+            }.joinToString(" ")
+
+            val delta = TextDelta.encode(base, target) ?: return@repeat
+            encoded++
+            assertEquals(target, TextDelta.apply(base, delta))
+        }
+        assertTrue("only $encoded deltas were smaller than their target", encoded > 1_000)
+    }
+
+    @Test fun smallEditOfALongBodyIsASmallDelta() {
+        val base = text(Random(1), 400)
+        val target = base.replaceFirst(" dog ", " cat, then a dog ") + "\nPS: 🙂 done."
+
+        val delta = TextDelta.encode(base, target)!!
+        assertTrue("${delta.size} bytes", delta.size < 96)
+        assertEquals(target, TextDelta.apply(base, delta))
+    }
+
+    @Test fun whitespaceOnlyChangesRoundTrip() {
+        val base = "one two  three\nfour\tfive six seven eight nine ten eleven twelve"
+        val target = "one two three\n\nfour five  six seven eight nine ten eleven twelve "
+
+        val delta = TextDelta.encode(base, target) ?: return
+        assertEquals(target, TextDelta.apply(base, delta))
+    }
+
+    @Test(expected = TextDelta.MismatchedBaseException::class)
+    fun applyingToAnotherBaseIsRefused() {
+        val base = text(Random(2), 100)
+        val delta = TextDelta.encode(base, base + " and one more")!!
+        TextDelta.apply(base.replaceFirst("the", "The"), delta)
+    }
+
+    @Test fun rewritesAreLeftToTheCaller() {
+        val base = List(600) { "a$it" }.joinToString(" ")
+        val target = List(600) { "b$it" }.joinToString(" ")
+        assertNull(TextDelta.encode(base, target))
+    }
+}
@@ -0,0 +1,31 @@
+package com.markrogers.journal.data.model
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class HabitsTest {
+    private fun habits(vararg bits: Int) = bits.map { Habit(it, "h$it", 0xFF000000) }
+
+    @Test fun defaultsLeaveBitFourFree() {
+        assertEquals(4, Habits.freeBit(Habits.DEFAULTS))
+    }
+
+    @Test fun theDoneBitIsNeverHandedOut() {
+        assertEquals(1, Habits.freeBit(emptyList()))
+        assertEquals(1, Habits.freeBit(habits(2, 3))) // habit on bit 0 deleted by an older version
+    }
+
+    @Test fun fillsTheLowestGap() {
+        assertEquals(5, Habits.freeBit(habits(0, 1, 2, 3, 4, 6, 63)))
+    }
+
+    @Test fun bitSixtyThreeIsUsable() {
+        assertEquals(63, Habits.freeBit(habits(*(0 until 63).toList().toIntArray())))
+    }
+
+    @Test fun nullOnceEveryBitIsTaken() {
+        assertNull(Habits.freeBit(habits(*(0 until Habits.MAX).toList().toIntArray())))
+        assertNull(Habits.freeBit(habits(*(1 until Habits.MAX).toList().toIntArray())))
+    }
+}
@@ -0,0 +1,128 @@
+package com.markrogers.journal.data.repo
+
+import com.markrogers.journal.data.db.DraftDao
+import com.markrogers.journal.data.db.DraftEntity
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class DraftAutosaverTest {
+    private class FakeDraftDao : DraftDao {
+        val rows = HashMap<String, DraftEntity>()
+        var upserts = 0
+        var deletes = 0
+
+        override suspend fun get(key: String) = rows[key]
+        override suspend fun upsert(row: DraftEntity) { upserts++; rows[row.key] = row }
+        override suspend fun delete(key: String) { deletes++; rows.remove(key) }
+        override suspend fun clearAll() = rows.clear()
+    }
+
+    private val dao = FakeDraftDao()
+
+    private fun TestScope.autosaver() = DraftAutosaver(
+        dao, DraftAutosaver.KEY_NEW, idleMs = 750, maxMs = 5_000,
+        scope = backgroundScope, now = { testScheduler.currentTime }
+    )
+
+    @Test fun savesOnceTypingPausesForIdleMs() = runTest {
+        val a = autosaver()
+        a.onChange(Draft(body = "h"))
+        advanceTimeBy(300)
+        a.onChange(Draft(body = "he"))
+        advanceTimeBy(300)
+        a.onChange(Draft(body = "hel")) // t = 600: the save is due at 1350
+
+        advanceTimeBy(700)
+        assertEquals(0, dao.upserts)
+        advanceTimeBy(100)
+        assertEquals(1, dao.upserts)
+        assertEquals("hel", dao.rows.getValue(DraftAutosaver.KEY_NEW).body)
+    }
+
+    @Test fun steadyTypingStillSavesAfterMaxMs() = runTest {
+        val a = autosaver()
+        // A change every 400 ms never leaves a 750 ms pause
+        repeat(13) { i ->
+            a.onChange(Draft(body = "v$i"))
+            advanceTimeBy(400)
+        }
+        assertEquals(1, dao.upserts) // at t = 5000
+        assertEquals("v12", dao.rows.getValue(DraftAutosaver.KEY_NEW).body)
+    }
+
+    @Test fun unchangedContentIsNotWrittenAgain() = runTest {
+        val a = autosaver()
+        a.onChange(Draft(title = "t", body = "b"))
+        advanceTimeBy(1_000)
+        a.onChange(Draft(title = "t", body = "b"))
+        advanceTimeBy(1_000)
+        assertEquals(1, dao.upserts)
+    }
+
+    @Test fun clearingTheEditorDeletesTheDraft() = runTest {
+        val a = autosaver()
+        a.onChange(Draft(body = "x"))
+        advanceTimeBy(1_000)
+        a.onChange(Draft())
+        advanceTimeBy(1_000)
+        assertNull(dao.rows[DraftAutosaver.KEY_NEW])
+    }
+
+    @Test fun closeFlushesAPendingChange() = runTest {
+        val a = autosaver()
+        a.onChange(Draft(body = "pending"))
+        advanceTimeBy(100)
+        a.close()
+        runCurrent()
+        assertEquals("pending", dao.rows.getValue(DraftAutosaver.KEY_NEW).body)
+    }
+
+    @Test fun discardDeletesAndIgnoresLaterChanges() = runTest {
+        val a = autosaver()
+        a.onChange(Draft(body = "saved"))
+        advanceTimeBy(1_000)
+        a.discard()
+        a.onChange(Draft(body = "after save"))
+        advanceTimeBy(10_000)
+        assertNull(dao.rows[DraftAutosaver.KEY_NEW])
+        assertEquals(1, dao.upserts)
+    }
+
+    @Test fun restoredDraftIsNotSavedBackUnchanged() = runTest {
+        val first = autosaver()
+        first.onChange(Draft(body = "from last time", habitMask = 0b10, sleepHours = 6.5f))
+        advanceTimeBy(1_000)
+        first.close()
+        runCurrent()
+
+        val second = autosaver()
+        val restored = second.restore()!!
+        assertEquals("from last time", restored.body)
+        second.onChange(restored)
+        advanceTimeBy(1_000)
+        assertEquals(1, dao.upserts)
+    }
+
+    @Test fun theLoadedEntryIsNotSavedAsADraft() = runTest {
+        val loaded = Draft(title = "Monday", body = "as saved", habitMask = 0b1, sleepHours = 7f)
+        val a = autosaver()
+        assertNull(a.restore(baseline = loaded))
+
+        a.onChange(loaded) // the editor's first emission
+        advanceTimeBy(1_000)
+        assertEquals(0, dao.upserts)
+
+        a.onChange(loaded.copy(body = "as saved, then edited"))
+        advanceTimeBy(1_000)
+        assertEquals(1, dao.upserts)
+
+        a.onChange(loaded) // edit undone by hand
+        advanceTimeBy(1_000)
+        assertNull(dao.rows[DraftAutosaver.KEY_NEW])
+    }
+}
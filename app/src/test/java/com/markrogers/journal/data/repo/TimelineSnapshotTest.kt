@@ -0,0 +1,36 @@
+package com.markrogers.journal.data.repo
+
+import com.markrogers.journal.data.model.JournalEntry
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.File
+import java.io.RandomAccessFile
+import java.time.Instant
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [34])
+class TimelineSnapshotTest {
+    @get:Rule val dir = TemporaryFolder()
+
+    private val entries = listOf(
+        JournalEntry(2, Instant.ofEpochSecond(2_000), "Tuesday", "body ".repeat(20_000), listOf("🙂"), 4, 1L shl 40, 7.5f),
+        JournalEntry(1, Instant.ofEpochSecond(1_000), "", "short")
+    )
+
+    @Test fun roundTrips() {
+        TimelineSnapshot(dir.root).write(entries)
+        assertEquals(entries, TimelineSnapshot(dir.root).read())
+    }
+
+    @Test fun aCorruptStringLengthReadsAsEmpty() {
+        TimelineSnapshot(dir.root).write(entries)
+        // magic, count, id, createdAt, then the first title's length
+        RandomAccessFile(File(dir.root, "timeline.snapshot"), "rw").use { it.seek(24); it.writeInt(Int.MAX_VALUE) }
+        assertEquals(emptyList<JournalEntry>(), TimelineSnapshot(dir.root).read())
+    }
+}
@@ -0,0 +1,138 @@
+package com.markrogers.journal.data.repo
+
+import com.markrogers.journal.data.model.JournalEntry
+import kotlinx.coroutines.async
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.time.Instant
+import kotlin.random.Random
+
+class WriteOverlayTest {
+    private val overlay = WriteOverlay(TestScope())
+
+    private fun entry(id: Long, createdAt: Long, title: String = "t$id") =
+        JournalEntry(id, Instant.ofEpochSecond(createdAt), title, "body $id")
+
+    private val rows = (1L..50L).map { entry(it, 1_000L + it * 10) }.sortedWith(WriteOverlay.ORDER)
+
+    @Test fun putPatchAndRemoveKeepDaoOrder() {
+        val ops = listOf(
+            WriteOverlay.Op.Put(entry(-1, 1_255)), // new row between 25 and 26
+            WriteOverlay.Op.Patch(10) { it.copy(createdAt = Instant.ofEpochSecond(5_000)) }, // moves to the top
+            WriteOverlay.Op.Remove(3),
+            WriteOverlay.Op.Patch(999) { error("not in view") }
+        )
+        val out = overlay.applyTo(rows, ops)
+
+        assertEquals(rows.size, out.size)
+        assertEquals(10L, out.first().id)
+        assertEquals(out.sortedWith(WriteOverlay.ORDER), out)
+        assertEquals(listOf(26L, -1L, 25L), out.map { it.id }.filter { it in setOf(26L, -1L, 25L) })
+        assertEquals(false, out.any { it.id == 3L })
+    }
+
+    @Test fun laterOpsOnTheSameRowWin() {
+        val ops = listOf(
+            WriteOverlay.Op.Patch(7) { it.copy(title = "a") },
+            WriteOverlay.Op.Patch(7) { it.copy(body = "b") },
+            WriteOverlay.Op.Remove(8),
+            WriteOverlay.Op.Put(entry(8, 1_080, "back"))
+        )
+        val out = overlay.applyTo(rows, ops).associateBy { it.id }
+
+        assertEquals("a", out.getValue(7).title)
+        assertEquals("b", out.getValue(7).body)
+        assertEquals("back", out.getValue(8).title)
+    }
+
+    @Test fun includeFilterMovesRowsOutOfANarrowQuery() {
+        val inRange: (JournalEntry) -> Boolean = { it.createdAt.epochSecond < 1_300 }
+        val narrow = rows.filter(inRange)
+        val ops = listOf(
+            WriteOverlay.Op.Patch(5) { it.copy(createdAt = Instant.ofEpochSecond(9_000)) },
+            WriteOverlay.Op.Put(entry(-2, 9_100))
+        )
+        val out = overlay.applyTo(narrow, ops, inRange)
+
+        assertEquals(narrow.size - 1, out.size)
+        assertEquals(false, out.any { it.id == 5L || it.id == -2L })
+    }
+
+    @Test fun noOpsReturnsTheSameList() {
+        assertSame(rows, overlay.applyTo(rows, emptyList()))
+    }
+
+    @Test fun patchingASnapshotMatchesAFullRebase() {
+        val random = Random(7)
+        val room = rows
+        val roomById = room.associateBy { it.id }
+        var snapshot = EntrySnapshot.of(room)
+        var applied = mapOf<Long, WriteOverlay.Op>()
+        val ops = LinkedHashMap<Long, WriteOverlay.Op>()
+
+        repeat(200) { token ->
+            if (ops.isNotEmpty() && random.nextInt(3) == 0) {
+                ops.remove(ops.keys.random(random)) // confirmed or rolled back
+            } else {
+                val id = 1L + random.nextInt(60) // some ids aren't in Room's result
+                ops[token.toLong()] = when (random.nextInt(3)) {
+                    0 -> WriteOverlay.Op.Put(entry(id, 1_000L + random.nextInt(600), "put $token"))
+                    1 -> WriteOverlay.Op.Patch(id) { it.copy(title = "patch $token") }
+                    else -> WriteOverlay.Op.Remove(id)
+                }
+            }
+            val current = LinkedHashMap(ops)
+            snapshot = snapshot.patch(overlay.changedRows(applied, current) { roomById[it] })
+            applied = current
+
+            val expected = overlay.applyTo(room, current.values)
+            assertEquals(expected, snapshot.list)
+            assertEquals(expected.associateBy { it.id }, snapshot.byId)
+        }
+    }
+
+    @Test fun confirmMovesPendingOpsOffTheTempId() = runTest {
+        val pending = WriteOverlay(backgroundScope)
+        val temp = pending.tempId()
+        val put = pending.begin(WriteOverlay.Op.Put(entry(temp, 9_000, "new")))
+        pending.begin(WriteOverlay.Op.Patch(temp) { it.copy(title = "done") }) // toggled before the insert landed
+        val realId = async { pending.resolve(temp) }
+
+        pending.confirm(put, 77)
+        assertEquals(listOf(77L, 77L), pending.ops.value.values.map { it.id })
+        assertEquals("done", pending.applyTo(rows, pending.ops.value.values).first { it.id == 77L }.title)
+        assertEquals(77L, realId.await())
+
+        // A tap that still carries the temp id lands on the real row
+        pending.begin(WriteOverlay.Op.Remove(temp))
+        assertEquals(77L, pending.ops.value.values.last().id)
+        assertEquals(false, pending.applyTo(rows, pending.ops.value.values).any { it.id == 77L || it.id == temp })
+    }
+
+    @Test fun aFailedInsertResolvesToNull() = runTest {
+        val pending = WriteOverlay(backgroundScope)
+        val temp = pending.tempId()
+        val put = pending.begin(WriteOverlay.Op.Put(entry(temp, 9_000)))
+        pending.rollback(put)
+        assertNull(pending.resolve(temp))
+        assertEquals(5L, pending.resolve(5))
+    }
+
+    @Test fun editPatchOnlyTouchesTheFieldsThatChanged() {
+        val original = entry(4, 1_040).copy(habitMask = 0b0011, sleepHours = 7f)
+        val edited = original.copy(title = "renamed", habitMask = 0b0110)
+        // Another write landed meanwhile: new body, habit bit 3 on
+        val current = original.copy(body = "from the other write", habitMask = 0b1011)
+
+        val out = WriteOverlay.Op.Patch.edit(original, edited).change(current)
+
+        assertEquals("renamed", out.title)
+        assertEquals("from the other write", out.body)
+        assertEquals(0b1110L, out.habitMask)
+        assertEquals(7f, out.sleepHours, 0f)
+    }
+}
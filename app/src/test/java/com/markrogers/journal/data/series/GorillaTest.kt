@@ -0,0 +1,99 @@
+package com.markrogers.journal.data.series
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class GorillaTest {
+    private fun decode(bytes: ByteArray, count: Int): Pair<LongArray, LongArray> {
+        val d = Gorilla.Decoder(bytes, count)
+        val times = LongArray(count)
+        val bits = LongArray(count)
+        var i = 0
+        while (d.next()) {
+            times[i] = d.time
+            bits[i] = d.value.toRawBits()
+            i++
+        }
+        assertEquals(count, i)
+        return times to bits
+    }
+
+    private fun assertRoundTrip(times: LongArray, values: DoubleArray, n: Int = times.size): ByteArray {
+        val bytes = Gorilla.encode(times, values, n)
+        val (t, v) = decode(bytes, n)
+        assertArrayEquals(times.copyOf(n), t)
+        // Raw bits, so NaN, -0.0 and infinities have to come back exactly
+        assertArrayEquals(LongArray(n) { values[it].toRawBits() }, v)
+        return bytes
+    }
+
+    @Test fun steadyDailyValuesCostAboutTwoBitsAPoint() {
+        val n = 365
+        val times = LongArray(n) { 1_700_000_000L + it * 86_400L }
+        val values = DoubleArray(n) { 72.5 }
+
+        val bytes = assertRoundTrip(times, values)
+        // 16-byte first point, ~5 bytes for the first delta, then 2 bits (dod 0, same value) a point
+        assertTrue("${bytes.size} bytes", bytes.size <= 16 + 5 + (n * 2 + 7) / 8)
+    }
+
+    @Test fun everyTimestampBucketRoundTrips() {
+        // Delta-of-deltas in every bucket: 0, 7/9/12 bits (-63, +64, -255 are edges), 32 and 64 bits
+        val deltas = longArrayOf(
+            86_400, 86_400, 86_400 - 63, 86_400 + 1, 86_400 - 255 + 1, 86_400 + 256,
+            86_400 - 2047, 86_400 + 2048, 3, 3L + Int.MAX_VALUE, 3, 3L + Long.MAX_VALUE / 4, 0, 0
+        )
+        val times = LongArray(deltas.size + 1)
+        times[0] = -5_000L // before the epoch
+        for (i in deltas.indices) times[i + 1] = times[i] + deltas[i]
+        val values = DoubleArray(times.size) { it.toDouble() }
+
+        assertRoundTrip(times, values)
+    }
+
+    @Test fun awkwardValuesRoundTrip() {
+        val values = doubleArrayOf(
+            0.0, -0.0, Double.NaN, 1.0, 1.0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+            Double.MIN_VALUE, Double.MAX_VALUE, -1e-300, 1e300, 0.1, 0.2, 0.30000000000000004, 7.0, 7.0
+        )
+        val times = LongArray(values.size) { it * 60L }
+
+        assertRoundTrip(times, values)
+    }
+
+    @Test fun randomSeriesRoundTrip() {
+        val random = Random(49)
+        repeat(500) {
+            val n = random.nextInt(1, 300)
+            var t = random.nextLong(0, 2_000_000_000L)
+            var v = random.nextDouble(40.0, 120.0)
+            val times = LongArray(n)
+            val values = DoubleArray(n)
+            for (i in 0 until n) {
+                t += when (random.nextInt(4)) {
+                    0 -> 86_400L
+                    1 -> 86_400L + random.nextLong(-3_600, 3_600)
+                    2 -> random.nextLong(0, 10_000_000)
+                    else -> 0L // two points at the same second
+                }
+                v = when (random.nextInt(3)) {
+                    0 -> v
+                    1 -> Math.round((v + random.nextDouble(-1.0, 1.0)) * 10) / 10.0
+                    else -> random.nextDouble() * 10_000
+                }
+                times[i] = t
+                values[i] = v
+            }
+            assertRoundTrip(times, values, n = random.nextInt(1, n + 1))
+        }
+    }
+
+    @Test fun emptyChunk() {
+        assertEquals(0, Gorilla.encode(LongArray(0), DoubleArray(0)).size)
+        assertFalse(Gorilla.Decoder(ByteArray(0), 0).next())
+    }
+}
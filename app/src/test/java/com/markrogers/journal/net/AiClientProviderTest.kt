@@ -0,0 +1,86 @@
+package com.markrogers.journal.net
+
+import kotlinx.coroutines.runBlocking
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.GzipSource
+import okio.buffer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class AiClientProviderTest {
+    private val server = MockWebServer()
+
+    @Before fun setUp() {
+        server.start()
+        AiClientProvider.overrideBaseUrls(server.url("/"), server.url("/"))
+    }
+
+    @After fun tearDown() = server.shutdown()
+
+    private fun reply(text: String) = MockResponse()
+        .setHeader("Content-Type", "application/json")
+        .setBody("""{"choices":[{"message":{"role":"assistant","content":"$text"}}]}""")
+
+    private fun ask(service: OpenAiService, prompt: String) = runBlocking {
+        service.chat(OpenAiRequest(messages = listOf(Message("user", prompt)))).choices.first().message.content
+    }
+
+    @Test fun repeatCallsReuseOneConnection() {
+        repeat(3) { server.enqueue(reply("ok $it")) }
+        repeat(3) { assertEquals("ok $it", ask(AiClientProvider.openAi("k"), "hi")) }
+
+        // sequenceNumber counts requests per connection: 0, 1, 2 means no new handshake
+        repeat(3) { assertEquals(it, server.takeRequest().sequenceNumber) }
+    }
+
+    @Test fun serviceIsCachedPerProviderAndReplacedOnKeyChange() {
+        val first = AiClientProvider.openAi("k1")
+        assertSame(first, AiClientProvider.openAi("k1"))
+
+        val second = AiClientProvider.openAi("k2")
+        assertNotSame(first, second)
+        assertSame(second, AiClientProvider.openAi("k2"))
+
+        server.enqueue(reply("ok"))
+        ask(second, "hi")
+        assertEquals("Bearer k2", server.takeRequest().getHeader("Authorization"))
+    }
+
+    @Test fun largePromptsAreGzipped() {
+        server.enqueue(reply("ok"))
+        server.enqueue(reply("ok"))
+        val big = "dear diary ".repeat(2_000)
+        ask(AiClientProvider.openAi("k"), "short")
+        ask(AiClientProvider.openAi("k"), big)
+
+        assertEquals(null, server.takeRequest().getHeader("Content-Encoding"))
+        val gz = server.takeRequest()
+        assertEquals("gzip", gz.getHeader("Content-Encoding"))
+        val body = GzipSource(gz.body).buffer().readUtf8()
+        assertTrue(big in body)
+    }
+
+    @Test fun timeoutsAllowLongGenerations() {
+        val client = AiClientProvider.client
+        assertEquals(15_000, client.connectTimeoutMillis)
+        assertEquals(90_000, client.readTimeoutMillis)
+        assertEquals(30_000, client.writeTimeoutMillis)
+        // Keyed clients are derived, so they inherit the same settings and pool
+        assertSame(client.connectionPool, client.newBuilder().build().connectionPool)
+    }
+
+    @Test fun logLinesNeverCarryTheGeminiKey() {
+        val line = "--> POST https://generativelanguage.googleapis.com/v1beta/models/gemini-pro:generateContent?key=SECRET123&alt=sse"
+        val redacted = AiClientProvider.redactKey(line)
+        assertFalse("SECRET123" in redacted)
+        assertTrue(redacted.endsWith("&alt=sse"))
+        assertEquals("<-- 200 OK (12ms)", AiClientProvider.redactKey("<-- 200 OK (12ms)"))
+    }
+}
@@ -0,0 +1,27 @@
+package com.markrogers.journal.net
+
+import com.markrogers.journal.data.prefs.AiProvider
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class AiLatencyTest {
+    @Before fun setUp() = AiLatency.reset()
+
+    @Test fun firstTokenAndCompleteAreHedgedSeparately() {
+        repeat(20) {
+            AiLatency.record(AiProvider.GEMINI, AiLatency.Mode.FIRST_TOKEN, 300)
+            AiLatency.record(AiProvider.GEMINI, AiLatency.Mode.COMPLETE, 12_000)
+        }
+        val firstToken = AiLatency.hedgeDelayMs(AiProvider.GEMINI, AiLatency.Mode.FIRST_TOKEN)
+        val complete = AiLatency.hedgeDelayMs(AiProvider.GEMINI, AiLatency.Mode.COMPLETE)
+        assertTrue("first token p90 $firstToken", firstToken in 300L..400L)
+        assertTrue("complete p90 $complete", complete in 12_000L..15_000L)
+    }
+
+    @Test fun defaultDelayUntilEnoughSamples() {
+        AiLatency.record(AiProvider.OPENAI, AiLatency.Mode.COMPLETE, 100)
+        assertEquals(2_500L, AiLatency.hedgeDelayMs(AiProvider.OPENAI, AiLatency.Mode.COMPLETE))
+    }
+}
@@ -0,0 +1,71 @@
+package com.markrogers.journal.net
+
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class AiStreamTest {
+    private val server = MockWebServer()
+
+    @Before fun setUp() {
+        server.start()
+        AiClientProvider.overrideBaseUrls(server.url("/"), server.url("/"))
+    }
+
+    @After fun tearDown() = server.shutdown()
+
+    private fun sse(vararg events: String) = MockResponse()
+        .setHeader("Content-Type", "text/event-stream")
+        .setBody(events.joinToString("") { "data: $it\n\n" })
+
+    private fun openAiDelta(text: String) = """{"choices":[{"delta":{"content":"$text"}}]}"""
+
+    private val prompt = OpenAiRequest(messages = listOf(Message("user", "hi")))
+
+    @Test fun openAiDeltasArriveInOrderAndStopAtDone() = runBlocking {
+        server.enqueue(sse(openAiDelta("Hel"), """{"choices":[{"delta":{}}]}""", openAiDelta("lo"), "[DONE]", openAiDelta("late")))
+
+        assertEquals(listOf("Hel", "lo"), openAiStream("k", prompt).toList())
+        val request = server.takeRequest()
+        assertTrue(request.body.readUtf8().contains("\"stream\":true"))
+    }
+
+    @Test fun geminiStreamUsesSseAndJoinsParts() = runBlocking {
+        server.enqueue(
+            sse(
+                """{"candidates":[{"content":{"parts":[{"text":"Good "},{"text":"day"}]}}]}""",
+                """{"candidates":[{"content":{"parts":[{"text":"!"}]}}]}"""
+            )
+        )
+
+        val out = geminiStream("g", GeminiRequest(listOf(GeminiContent(listOf(GeminiPart("hi")))))).toList()
+        assertEquals(listOf("Good day", "!"), out)
+        val url = server.takeRequest().requestUrl!!
+        assertEquals("sse", url.queryParameter("alt"))
+        assertEquals("g", url.queryParameter("key"))
+    }
+
+    @Test fun cancellingTheCollectorClosesAStalledStream() = runBlocking {
+        val first = "data: ${openAiDelta("first")}\n\n"
+        // The first event goes out at once, then the server stalls for a minute
+        server.enqueue(
+            MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody(first + "data: ${openAiDelta("second")}\n\n")
+                .throttleBody(first.length.toLong(), 60, TimeUnit.SECONDS)
+        )
+
+        val t0 = System.nanoTime()
+        assertEquals("first", openAiStream("k", prompt).first())
+        val tookMs = (System.nanoTime() - t0) / 1_000_000
+        assertTrue("collector waited ${tookMs} ms for the stalled read", tookMs < 5_000)
+    }
+}
@@ -0,0 +1,112 @@
+package com.markrogers.journal.net
+
+import com.markrogers.journal.data.prefs.AiProvider
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import java.io.IOException
+
+class HedgedBackendTest {
+    /** Answers [reply] after [delayMs] of virtual time; null [reply] fails, "" streams nothing. */
+    private class FakeBackend(
+        override val provider: AiProvider,
+        private val scope: TestScope,
+        private val delayMs: Long,
+        private val reply: String?
+    ) : AiBackend {
+        var startedAt = -1L
+        var cancelled = false
+
+        override suspend fun complete(prompt: String): String {
+            startedAt = scope.testScheduler.currentTime
+            try {
+                delay(delayMs)
+            } catch (e: CancellationException) {
+                cancelled = true
+                throw e
+            }
+            return reply ?: throw IOException("$provider is down")
+        }
+
+        override fun stream(prompt: String): Flow<String> = flow {
+            val text = complete(prompt)
+            if (text.isNotEmpty()) emit(text)
+        }
+    }
+
+    @Before fun setUp() {
+        AiLatency.reset()
+        repeat(20) { AiLatency.record(AiProvider.OPENAI, AiLatency.Mode.COMPLETE, 1_000) }
+    }
+
+    private fun TestScope.hedged(primary: AiBackend, secondary: AiBackend) =
+        HedgedBackend(primary, secondary, now = { testScheduler.currentTime })
+
+    @Test fun hedgesAfterThePrimaryP90AndCancelsTheLoser() = runTest {
+        val p90 = AiLatency.hedgeDelayMs(AiProvider.OPENAI, AiLatency.Mode.COMPLETE)
+        val primary = FakeBackend(AiProvider.OPENAI, this, delayMs = 60_000, reply = "slow")
+        val secondary = FakeBackend(AiProvider.GEMINI, this, delayMs = 200, reply = "fast")
+
+        assertEquals("fast", hedged(primary, secondary).complete("q"))
+        assertEquals(p90, secondary.startedAt)
+        assertEquals(p90 + 200, testScheduler.currentTime)
+        assertTrue(primary.cancelled)
+    }
+
+    @Test fun aFastPrimaryNeverHedges() = runTest {
+        val primary = FakeBackend(AiProvider.OPENAI, this, delayMs = 100, reply = "quick")
+        val secondary = FakeBackend(AiProvider.GEMINI, this, delayMs = 100, reply = "unused")
+
+        assertEquals("quick", hedged(primary, secondary).complete("q"))
+        assertEquals(-1L, secondary.startedAt)
+    }
+
+    @Test fun aFailingPrimaryFallsOverAtOnce() = runTest {
+        val primary = FakeBackend(AiProvider.OPENAI, this, delayMs = 50, reply = null)
+        val secondary = FakeBackend(AiProvider.GEMINI, this, delayMs = 200, reply = "backup")
+
+        assertEquals("backup", hedged(primary, secondary).complete("q"))
+        assertEquals(50L, secondary.startedAt)
+        assertFalse(primary.cancelled)
+    }
+
+    @Test fun losersCountAsLowerBoundsInTheHistogram() = runTest {
+        AiLatency.reset()
+        val primary = FakeBackend(AiProvider.OPENAI, this, delayMs = 60_000, reply = "slow")
+        val secondary = FakeBackend(AiProvider.GEMINI, this, delayMs = 500, reply = "fast")
+
+        hedged(primary, secondary).complete("q")
+        val h = AiLatency.of(AiProvider.OPENAI, AiLatency.Mode.COMPLETE)
+        assertEquals(1, h.count())
+        assertTrue("p50 ${h.percentile(0.5)}", h.percentile(0.5)!! >= 3_000) // cancelled at 2 500 + 500 ms
+    }
+
+    @Test fun twoEmptyStreamsFailWithAProperError() = runTest {
+        val primary = FakeBackend(AiProvider.OPENAI, this, delayMs = 10, reply = "")
+        val secondary = FakeBackend(AiProvider.GEMINI, this, delayMs = 10, reply = "")
+        try {
+            hedged(primary, secondary).stream("q").toList()
+            fail("expected EmptyResponseException")
+        } catch (e: EmptyResponseException) {
+            // expected
+        }
+    }
+
+    @Test fun streamsFromTheFirstToTokenAndDropsTheOther() = runTest {
+        val primary = FakeBackend(AiProvider.OPENAI, this, delayMs = 60_000, reply = "slow")
+        val secondary = FakeBackend(AiProvider.GEMINI, this, delayMs = 200, reply = "fast")
+
+        assertEquals(listOf("fast"), hedged(primary, secondary).stream("q").toList())
+        assertTrue(primary.cancelled)
+    }
+}
@@ -0,0 +1,157 @@
+package com.markrogers.journal.net
+
+import com.markrogers.journal.data.prefs.AiProvider
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.test.runTest
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import retrofit2.HttpException
+import java.util.concurrent.TimeUnit
+
+class ResilientBackendTest {
+    private val server = MockWebServer()
+
+    @Before fun setUp() {
+        server.start()
+        AiClientProvider.overrideBaseUrls(server.url("/"), server.url("/"))
+    }
+
+    @After fun tearDown() = server.shutdown()
+
+    private fun ok(text: String = "ok") = MockResponse()
+        .setHeader("Content-Type", "application/json")
+        .setBody("""{"choices":[{"message":{"role":"assistant","content":"$text"}}]}""")
+
+    private fun backend(
+        breaker: CircuitBreaker = CircuitBreaker(AiProvider.OPENAI),
+        maxAttempts: Int = 3
+    ) = ResilientBackend(
+        OpenAiBackend("k"),
+        maxAttempts = maxAttempts,
+        baseDelayMs = 10,
+        maxDelayMs = 20,
+        breaker = breaker,
+        bucket = TokenBucket(capacity = 100, refillMs = 1)
+    )
+
+    @Test fun retriesTransientFailuresAndHonoursRetryAfter() = runBlocking {
+        server.enqueue(MockResponse().setResponseCode(503))
+        server.enqueue(MockResponse().setResponseCode(429).setHeader("Retry-After", "0"))
+        server.enqueue(ok("third time"))
+
+        assertEquals("third time", backend().complete("retry me"))
+        assertEquals(3, server.requestCount)
+    }
+
+    @Test fun clientErrorsAreNotRetried() = runBlocking {
+        server.enqueue(MockResponse().setResponseCode(400))
+        try {
+            backend().complete("bad request")
+            fail("expected HttpException")
+        } catch (e: HttpException) {
+            assertEquals(400, e.code())
+        }
+        assertEquals(1, server.requestCount)
+    }
+
+    @Test fun openBreakerFailsFastWithoutTouchingTheNetwork() = runBlocking {
+        val b = backend(CircuitBreaker(AiProvider.OPENAI, failureThreshold = 2), maxAttempts = 1)
+        repeat(2) {
+            server.enqueue(MockResponse().setResponseCode(500))
+            runCatching { b.complete("fail $it") }
+        }
+        try {
+            b.complete("fast fail")
+            fail("expected CircuitOpenException")
+        } catch (e: CircuitOpenException) {
+            // expected
+        }
+        assertEquals(2, server.requestCount)
+    }
+
+    @Test fun halfOpenLetsOnlyTheTrialHolderReleaseThePermit() {
+        var now = 0L
+        val breaker = CircuitBreaker(AiProvider.OPENAI, failureThreshold = 1, openMs = 1_000, now = { now })
+
+        val slow = breaker.beforeCall() // started while closed
+        assertFalse(slow)
+        breaker.onFailure(trial = false) // some other call failed: open
+        now = 2_000
+        assertTrue(breaker.beforeCall()) // half-open trial
+
+        breaker.onNeutral(slow) // the old call ends (cancelled) while the trial runs
+        try {
+            breaker.beforeCall()
+            fail("a second trial got through")
+        } catch (e: CircuitOpenException) {
+            // expected
+        }
+        breaker.onSuccess()
+        assertFalse(breaker.beforeCall())
+    }
+
+    @Test fun cancellingTheFirstCallerDoesNotCancelCoalescedWaiters() = runBlocking {
+        server.enqueue(ok("shared").setHeadersDelay(500, TimeUnit.MILLISECONDS))
+        val b = backend()
+
+        val first = async { b.complete("same prompt") }
+        val second = async { b.complete("same prompt") }
+        delay(100)
+        first.cancel()
+
+        assertEquals("shared", second.await())
+        assertEquals(1, server.requestCount)
+    }
+
+    @Test fun realFailuresReachEveryCoalescedWaiter() = runBlocking {
+        server.enqueue(MockResponse().setResponseCode(400).setHeadersDelay(200, TimeUnit.MILLISECONDS))
+        val b = backend()
+
+        val results = List(3) { async { runCatching { b.complete("doomed prompt") } } }.map { it.await() }
+        results.forEach { assertEquals(400, (it.exceptionOrNull() as HttpException).code()) }
+        assertEquals(1, server.requestCount)
+    }
+
+    @Test fun batchFanOutLeavesTokensForInteractiveCalls() = runTest {
+        val bucket = TokenBucket(AiGuards.BUCKET_CAPACITY, AiGuards.BUCKET_REFILL_MS, now = { testScheduler.currentTime })
+        repeat(AiGuards.BUCKET_CAPACITY - RateLimit.BATCH.reserve) { bucket.acquire(RateLimit.BATCH.reserve) }
+        assertEquals(0L, testScheduler.currentTime)
+
+        // Batch now waits for a refill, but the reserve is still there for the user
+        repeat(RateLimit.BATCH.reserve) { bucket.acquire(RateLimit.INTERACTIVE.reserve) }
+        assertEquals(0L, testScheduler.currentTime)
+
+        bucket.acquire(RateLimit.BATCH.reserve) // needs reserve + 1 tokens back
+        val refill = AiGuards.BUCKET_REFILL_MS * (RateLimit.BATCH.reserve + 1)
+        assertTrue(testScheduler.currentTime in refill..refill + 1)
+    }
+
+    @Test fun bothPrioritiesShareOneBucketPerProvider() {
+        assertSame(AiGuards.bucket(AiProvider.OPENAI), AiGuards.bucket(AiProvider.OPENAI))
+        assertNotSame(AiGuards.bucket(AiProvider.OPENAI), AiGuards.bucket(AiProvider.GEMINI))
+    }
+
+    @Test fun differentApiKeysAreNotCoalesced() = runBlocking {
+        server.enqueue(ok("for k1").setHeadersDelay(200, TimeUnit.MILLISECONDS))
+        server.enqueue(ok("for k2").setHeadersDelay(200, TimeUnit.MILLISECONDS))
+        val bucket = TokenBucket(capacity = 100, refillMs = 1)
+        val one = ResilientBackend(OpenAiBackend("k1"), bucket = bucket)
+        val two = ResilientBackend(OpenAiBackend("k2"), bucket = bucket)
+
+        val answers = listOf(async { one.complete("same prompt, two accounts") }, async { two.complete("same prompt, two accounts") })
+            .map { it.await() }
+        assertEquals(setOf("for k1", "for k2"), answers.toSet())
+        assertEquals(2, server.requestCount)
+    }
+}